@@ -0,0 +1,100 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.Repository;
+import org.openrdf.sail.NotifyingSail;
+import org.openrdf.sail.SailConnection;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adds a LUBM-like dataset statement by statement to a sail that already has the schema. FastRdfsForwardChainingSail
+ * infers inside addStatement while ForwardChainingRDFSInferencer infers when the transaction is flushed, so add only
+ * compares the cost of the calls and addAndCommit is the comparable number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4G", "-Xmx4G"})
+public class AddStatementBenchmark {
+
+    @Param({"1"})
+    public int universities;
+
+    @Param({"FAST", "FAST_SCHEMALESS", "SESAME"})
+    public Reasoner reasoner;
+
+    private List<Statement> schemaStatements;
+    private List<Statement> data;
+    private Repository schema;
+
+    private NotifyingSail sail;
+    private SailConnection connection;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        schemaStatements = SyntheticUniversity.schema();
+        data = SyntheticUniversity.data(universities, 42);
+        schema = SyntheticSchema.repository(schemaStatements);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        schema.shutDown();
+    }
+
+    @Setup(Level.Invocation)
+    public void openConnection() {
+        sail = reasoner.initializedSail(schemaStatements, schema);
+        connection = sail.getConnection();
+        connection.begin();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeConnection() {
+        if (connection.isActive()) {
+            connection.rollback();
+        }
+        connection.close();
+        sail.shutDown();
+    }
+
+    @Benchmark
+    public SailConnection add() {
+        Sails.add(connection, data);
+        return connection;
+    }
+
+    @Benchmark
+    public SailConnection addAndCommit() {
+        Sails.add(connection, data);
+        connection.commit();
+        return connection;
+    }
+
+}
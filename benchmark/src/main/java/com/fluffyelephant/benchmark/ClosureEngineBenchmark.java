@@ -0,0 +1,70 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the subClassOf closure alone, without reading the schema or writing anything to a store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xms2G", "-Xmx2G"})
+public class ClosureEngineBenchmark {
+
+    @Param({"100000"})
+    public int classes;
+
+    @Param({"TREE", "DEEP", "DAG", "CYCLIC"})
+    public SyntheticSchema.Shape shape;
+
+    private int[] hierarchy;
+
+    private MethodHandle transitiveClosure;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        hierarchy = SyntheticSchema.hierarchy(shape, classes, new Random(42));
+
+        // ClosureEngine is package private in the default package
+        Method method = Class.forName("ClosureEngine").getDeclaredMethod("transitiveClosure", int[].class, int.class);
+        method.setAccessible(true);
+        transitiveClosure = MethodHandles.lookup().unreflect(method)
+            .asType(MethodType.methodType(Object.class, int[].class, int.class));
+    }
+
+    @Benchmark
+    public Object transitiveClosure() throws Throwable {
+        return transitiveClosure.invokeExact(hierarchy, classes);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the schema and a LUBM-like dataset into a new SailRepository in a single transaction, end to end through the
+ * Repository API.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4G", "-Xmx4G"})
+public class LoadBenchmark {
+
+    @Param({"1", "5"})
+    public int universities;
+
+    @Param({"FAST", "FAST_SCHEMALESS", "SESAME"})
+    public Reasoner reasoner;
+
+    private List<Statement> schemaStatements;
+    private List<Statement> data;
+    private Repository schema;
+
+    private SailRepository repository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        schemaStatements = SyntheticUniversity.schema();
+        data = SyntheticUniversity.data(universities, 42);
+        schema = SyntheticSchema.repository(schemaStatements);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        schema.shutDown();
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutDownRepository() {
+        repository.shutDown();
+    }
+
+    @Benchmark
+    public SailRepository load() {
+        repository = new SailRepository(reasoner.newSail(schema));
+        repository.initialize();
+
+        try (RepositoryConnection connection = repository.getConnection()) {
+            connection.begin();
+            if (reasoner.schemaInData()) {
+                connection.add(schemaStatements);
+            }
+            connection.add(data);
+            connection.commit();
+        }
+
+        return repository;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openrdf.model.Statement;
+import org.openrdf.repository.Repository;
+import org.openrdf.sail.NotifyingSail;
+import org.openrdf.sail.SailConnection;
+import org.openrdf.sail.inferencer.fc.ForwardChainingRDFSInferencer;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.List;
+
+/**
+ * The reasoners the benchmarks compare, all on top of a MemoryStore. FastRdfsForwardChainingSail runs Sesame
+ * compliant, so that it infers the same statements as ForwardChainingRDFSInferencer.
+ */
+public enum Reasoner {
+
+    /**
+     * FastRdfsForwardChainingSail with the schema in a separate repository.
+     */
+    FAST,
+
+    /**
+     * FastRdfsForwardChainingSail reading the schema from the data.
+     */
+    FAST_SCHEMALESS,
+
+    /**
+     * Sesame's ForwardChainingRDFSInferencer.
+     */
+    SESAME;
+
+    /**
+     * @param schema the schema as a repository, only used by FAST
+     */
+    NotifyingSail newSail(Repository schema) {
+        switch (this) {
+            case FAST:
+                return Sails.fastRdfs(new MemoryStore(), schema, true);
+            case FAST_SCHEMALESS:
+                return Sails.fastRdfs(new MemoryStore(), true);
+            default:
+                return new ForwardChainingRDFSInferencer(new MemoryStore());
+        }
+    }
+
+    /**
+     * @return true if the schema has to be added like any other data
+     */
+    boolean schemaInData() {
+        return this != FAST;
+    }
+
+    /**
+     * @return an initialized sail that has the schema, ready for data
+     */
+    NotifyingSail initializedSail(List<Statement> schemaStatements, Repository schema) {
+        NotifyingSail sail = newSail(schema);
+        sail.initialize();
+
+        if (schemaInData()) {
+            SailConnection connection = sail.getConnection();
+            try {
+                connection.begin();
+                Sails.add(connection, schemaStatements);
+                connection.commit();
+            } finally {
+                connection.close();
+            }
+        }
+
+        return sail;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.Repository;
+import org.openrdf.sail.NotifyingSail;
+import org.openrdf.sail.SailConnection;
+import org.openrdf.sail.inferencer.InferencerConnection;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clears every inferred statement of a loaded LUBM-like dataset and commits, which makes both reasoners infer
+ * everything again from the explicit statements (doInferencing for FastRdfsForwardChainingSail).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4G", "-Xmx4G"})
+public class RematerializationBenchmark {
+
+    @Param({"1"})
+    public int universities;
+
+    @Param({"FAST", "FAST_SCHEMALESS", "SESAME"})
+    public Reasoner reasoner;
+
+    private List<Statement> schemaStatements;
+    private List<Statement> data;
+    private Repository schema;
+
+    private NotifyingSail sail;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        schemaStatements = SyntheticUniversity.schema();
+        data = SyntheticUniversity.data(universities, 42);
+        schema = SyntheticSchema.repository(schemaStatements);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        schema.shutDown();
+    }
+
+    @Setup(Level.Invocation)
+    public void load() {
+        sail = reasoner.initializedSail(schemaStatements, schema);
+
+        SailConnection connection = sail.getConnection();
+        try {
+            connection.begin();
+            Sails.add(connection, data);
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutDownSail() {
+        sail.shutDown();
+    }
+
+    @Benchmark
+    public NotifyingSail rematerialize() {
+        InferencerConnection connection = (InferencerConnection) sail.getConnection();
+        try {
+            connection.begin();
+            connection.clearInferred();
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+        return sail;
+    }
+
+}
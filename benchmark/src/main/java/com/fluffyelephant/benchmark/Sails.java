@@ -0,0 +1,70 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openrdf.model.Statement;
+import org.openrdf.repository.Repository;
+import org.openrdf.sail.NotifyingSail;
+import org.openrdf.sail.SailConnection;
+
+import java.util.List;
+
+/**
+ * FastRdfsForwardChainingSail lives in the default package, which can't be imported from a named package (and JMH
+ * refuses benchmarks in the default package), so the benchmarks create it reflectively.
+ */
+final class Sails {
+
+    private Sails() {
+    }
+
+    static NotifyingSail fastRdfs(NotifyingSail data, boolean sesameCompliant) {
+        try {
+            return (NotifyingSail) Class.forName("FastRdfsForwardChainingSail")
+                .getConstructor(NotifyingSail.class, boolean.class)
+                .newInstance(data, sesameCompliant);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static NotifyingSail fastRdfs(NotifyingSail data, Repository schema, boolean sesameCompliant) {
+        try {
+            return (NotifyingSail) Class.forName("FastRdfsForwardChainingSail")
+                .getConstructor(NotifyingSail.class, Repository.class, boolean.class)
+                .newInstance(data, schema, sesameCompliant);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void add(SailConnection connection, List<Statement> statements) {
+        for (Statement statement : statements) {
+            if (statement.getContext() == null) {
+                connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+            } else {
+                connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+            }
+        }
+    }
+
+}
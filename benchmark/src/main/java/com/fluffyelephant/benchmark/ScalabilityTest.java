@@ -0,0 +1,347 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import info.aduna.iteration.CloseableIteration;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.Repository;
+import org.openrdf.sail.NotifyingSail;
+import org.openrdf.sail.SailConnection;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * End to end load test of FastRdfsForwardChainingSail over a MemoryStore, for the sizes where JMH is not practical.
+ * For every schema and dataset size it loads the generated data in transactions of a fixed size and records the load
+ * throughput, the commit latency percentiles, the heap used per explicit and per inferred statement and the time
+ * spent in GC. A plain MemoryStore loads the same data first, which gives the heap used per explicit statement.
+ * <p>
+ * The report is written as JSON after every run, so that the runs that finished are kept when a larger one runs out
+ * of memory or is stopped. A run that runs out of memory is recorded with the error, and the larger sizes for the
+ * same schema are skipped.
+ *
+ * <pre>
+ * java -Xmx64G -cp benchmark/target/benchmarks.jar com.fluffyelephant.benchmark.ScalabilityTest \
+ *     -triples 1000000,10000000,100000000 -schemas TREE:100:10,DEEP:10000:1000 -batch 10000 -out scalability.json
+ * </pre>
+ * <p>
+ * A schema is given as shape:classes:properties, see SyntheticSchema.
+ */
+public final class ScalabilityTest {
+
+    private static final long SEED = 42;
+
+    private ScalabilityTest() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("-triples", "1000000,10000000,100000000");
+        options.put("-schemas", "TREE:100:10,TREE:10000:1000,DEEP:10000:1000,DAG:100000:10000");
+        options.put("-batch", "10000");
+        options.put("-out", "scalability.json");
+
+        for (int i = 0; i < args.length; i += 2) {
+            if (!options.containsKey(args[i]) || i + 1 == args.length) {
+                System.err.println("Options: " + options);
+                System.exit(1);
+            }
+            options.put(args[i], args[i + 1]);
+        }
+
+        long[] sizes = Arrays.stream(options.get("-triples").split(",")).mapToLong(Long::parseLong).sorted().toArray();
+        int batch = Integer.parseInt(options.get("-batch"));
+        Path out = Paths.get(options.get("-out"));
+
+        List<Run> runs = new ArrayList<>();
+        for (String schema : options.get("-schemas").split(",")) {
+            String[] parts = schema.split(":");
+            SyntheticSchema.Shape shape = SyntheticSchema.Shape.valueOf(parts[0]);
+            int classes = Integer.parseInt(parts[1]);
+            int properties = Integer.parseInt(parts[2]);
+
+            List<Statement> schemaStatements = SyntheticSchema.generate(shape, classes, properties, SEED);
+            Repository repository = SyntheticSchema.repository(schemaStatements);
+
+            Set<String> failed = new HashSet<>();
+            try {
+                for (long size : sizes) {
+                    Run baseline = null;
+                    for (String reasoner : new String[]{"NONE", "FAST"}) {
+                        Run run = new Run(reasoner, schema, size, batch);
+                        if (failed.contains(reasoner)) {
+                            run.error = "skipped after a smaller dataset failed";
+                        } else {
+                            run.load(reasoner.equals("FAST") ? Sails.fastRdfs(new MemoryStore(), repository, false) : new MemoryStore(), classes, properties);
+                            if (run.error != null) {
+                                failed.add(reasoner);
+                            }
+                        }
+                        if (baseline == null) {
+                            baseline = run;
+                        } else {
+                            run.compareTo(baseline);
+                        }
+
+                        runs.add(run);
+                        System.out.println(run.toJson());
+                        write(out, runs);
+                    }
+                }
+            } finally {
+                repository.shutDown();
+            }
+        }
+    }
+
+    private static void write(Path out, List<Run> runs) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+            Runtime runtime = Runtime.getRuntime();
+            writer.println("{");
+            writer.println("  \"java\": \"" + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + "\",");
+            writer.println("  \"maxHeapBytes\": " + runtime.maxMemory() + ",");
+            writer.println("  \"processors\": " + runtime.availableProcessors() + ",");
+            writer.println("  \"collectors\": \"" + String.join(", ", collectorNames()) + "\",");
+            writer.println("  \"runs\": [");
+            for (int i = 0; i < runs.size(); i++) {
+                writer.println("    " + runs.get(i).toJson() + (i + 1 < runs.size() ? "," : ""));
+            }
+            writer.println("  ]");
+            writer.println("}");
+        }
+    }
+
+    private static List<String> collectorNames() {
+        List<String> names = new ArrayList<>();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            names.add(collector.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return the heap in use after a full GC, as far as System.gc() can be relied on
+     */
+    private static long usedHeap() {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    /**
+     * @return the total GC count and time in milliseconds over all collectors. Concurrent collectors include
+     * time spent next to the application threads, not only pauses.
+     */
+    private static long[] gc() {
+        long[] gc = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gc[0] += Math.max(0, collector.getCollectionCount());
+            gc[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return gc;
+    }
+
+    private static final class Run {
+
+        final String reasoner;
+        final String schema;
+        final long triples;
+        final int batch;
+
+        String error;
+
+        long schemaHeapBytes;
+        long loadMillis;
+        double statementsPerSecond;
+        double[] commitMillis = new double[0];
+
+        long gcCount;
+        long gcMillis;
+
+        long explicit;
+        long inferred;
+        long heapBytes;
+
+        double bytesPerExplicit = Double.NaN;
+        double bytesPerInferred = Double.NaN;
+
+        Run(String reasoner, String schema, long triples, int batch) {
+            this.reasoner = reasoner;
+            this.schema = schema;
+            this.triples = triples;
+            this.batch = batch;
+        }
+
+        void load(NotifyingSail sail, int classes, int properties) {
+            long empty = usedHeap();
+            long added = 0;
+            try {
+                sail.initialize();
+                long before = usedHeap();
+                schemaHeapBytes = Math.max(0, before - empty);
+
+                long[] commits = new long[(int) ((triples + batch - 1) / batch)];
+                int commitCount = 0;
+                long[] gcBefore = gc();
+                long start = System.nanoTime();
+
+                SyntheticInstances data = new SyntheticInstances(classes, properties, triples, SEED);
+                SailConnection connection = sail.getConnection();
+                try {
+                    while (data.hasNext()) {
+                        connection.begin();
+                        for (int i = 0; i < batch && data.hasNext(); i++, added++) {
+                            Statement statement = data.next();
+                            connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+                        }
+                        long commitStart = System.nanoTime();
+                        connection.commit();
+                        commits[commitCount++] = System.nanoTime() - commitStart;
+                    }
+
+                    long elapsed = System.nanoTime() - start;
+                    long[] gcAfter = gc();
+                    loadMillis = elapsed / 1_000_000;
+                    statementsPerSecond = triples * 1e9 / elapsed;
+                    gcCount = gcAfter[0] - gcBefore[0];
+                    gcMillis = gcAfter[1] - gcBefore[1];
+                    commitMillis = percentiles(commits, commitCount);
+
+                    heapBytes = usedHeap() - before;
+                    explicit = connection.size();
+                    inferred = count(connection) - explicit;
+                    bytesPerExplicit = inferred == 0 ? (double) heapBytes / explicit : Double.NaN;
+                } finally {
+                    connection.close();
+                }
+            } catch (OutOfMemoryError e) {
+                error = "OutOfMemoryError after " + added + " statements";
+            } finally {
+                try {
+                    sail.shutDown();
+                } catch (OutOfMemoryError | RuntimeException e) {
+                    // the heap is freed with the sail either way
+                }
+            }
+        }
+
+        /**
+         * Splits the heap between the explicit and the inferred statements, assuming an explicit statement takes as
+         * much as in the store without inferencing.
+         */
+        void compareTo(Run baseline) {
+            if (error == null && baseline.error == null && inferred > 0) {
+                bytesPerExplicit = baseline.bytesPerExplicit;
+                bytesPerInferred = (heapBytes - explicit * bytesPerExplicit) / inferred;
+            }
+        }
+
+        private static long count(SailConnection connection) {
+            long count = 0;
+            try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, null, null, true)) {
+                while (statements.hasNext()) {
+                    statements.next();
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return p50, p90, p99, p99.9 and max in milliseconds
+         */
+        private static double[] percentiles(long[] nanos, int count) {
+            long[] sorted = Arrays.copyOf(nanos, count);
+            Arrays.sort(sorted);
+
+            double[] quantiles = {0.5, 0.9, 0.99, 0.999, 1};
+            double[] result = new double[quantiles.length];
+            for (int i = 0; i < quantiles.length && count > 0; i++) {
+                int index = (int) Math.ceil(quantiles[i] * count) - 1;
+                result[i] = sorted[Math.max(0, index)] / 1e6;
+            }
+            return result;
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder("{");
+            field(json, "reasoner", "\"" + reasoner + "\"");
+            field(json, "schema", "\"" + schema + "\"");
+            field(json, "triples", triples);
+            field(json, "batch", batch);
+            if (error != null) {
+                field(json, "error", "\"" + error + "\"");
+            } else {
+                field(json, "loadMillis", loadMillis);
+                field(json, "statementsPerSecond", number(statementsPerSecond));
+                String[] names = {"p50", "p90", "p99", "p999", "max"};
+                StringBuilder commits = new StringBuilder("{");
+                for (int i = 0; i < commitMillis.length; i++) {
+                    field(commits, names[i], number(commitMillis[i]));
+                }
+                field(json, "commitMillis", commits.append('}'));
+                field(json, "gcCount", gcCount);
+                field(json, "gcMillis", gcMillis);
+                field(json, "schemaHeapBytes", schemaHeapBytes);
+                field(json, "heapBytes", heapBytes);
+                field(json, "explicit", explicit);
+                field(json, "inferred", inferred);
+                field(json, "bytesPerExplicit", number(bytesPerExplicit));
+                field(json, "bytesPerInferred", number(bytesPerInferred));
+            }
+            return json.append('}').toString();
+        }
+
+        private static void field(StringBuilder json, String name, Object value) {
+            if (json.length() > 1) {
+                json.append(", ");
+            }
+            json.append('"').append(name).append("\": ").append(value);
+        }
+
+        private static String number(double value) {
+            return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.2f", value);
+        }
+
+    }
+
+}
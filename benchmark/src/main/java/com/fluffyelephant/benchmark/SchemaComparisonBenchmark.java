@@ -0,0 +1,81 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.Repository;
+import org.openrdf.sail.NotifyingSail;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates a sail with a synthetic schema and no data, which for FastRdfsForwardChainingSail is mostly compiling the
+ * schema (temp()) and for ForwardChainingRDFSInferencer is inferring the schema closure. SchemaCompilationBenchmark
+ * covers larger schemas, where ForwardChainingRDFSInferencer takes too long to compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4G", "-Xmx4G"})
+public class SchemaComparisonBenchmark {
+
+    @Param({"1000", "10000"})
+    public int classes;
+
+    @Param({"TREE", "DAG"})
+    public SyntheticSchema.Shape shape;
+
+    @Param({"FAST", "FAST_SCHEMALESS", "SESAME"})
+    public Reasoner reasoner;
+
+    private List<Statement> schemaStatements;
+    private Repository schema;
+
+    private NotifyingSail sail;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        schemaStatements = SyntheticSchema.generate(shape, classes, classes / 10, 42);
+        schema = SyntheticSchema.repository(schemaStatements);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        schema.shutDown();
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutDownSail() {
+        sail.shutDown();
+    }
+
+    @Benchmark
+    public NotifyingSail initialize() {
+        sail = reasoner.initializedSail(schemaStatements, schema);
+        return sail;
+    }
+
+}
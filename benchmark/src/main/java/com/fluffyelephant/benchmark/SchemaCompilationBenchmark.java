@@ -0,0 +1,75 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openrdf.repository.Repository;
+import org.openrdf.sail.NotifyingSail;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures initialize(), which reads the schema, computes the subClassOf / subPropertyOf / domain / range closures
+ * and writes the schema and its hierarchy to the store, on synthetic hierarchies of 10^5 classes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xms4G", "-Xmx4G"})
+public class SchemaCompilationBenchmark {
+
+    @Param({"100000"})
+    public int classes;
+
+    @Param({"TREE", "DEEP", "DAG", "CYCLIC"})
+    public SyntheticSchema.Shape shape;
+
+    private Repository schema;
+
+    private NotifyingSail sail;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        schema = SyntheticSchema.repository(SyntheticSchema.generate(shape, classes, classes / 10, 42));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        schema.shutDown();
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutDownSail() {
+        sail.shutDown();
+    }
+
+    @Benchmark
+    public NotifyingSail initialize() {
+        sail = Sails.fastRdfs(new MemoryStore(), schema, false);
+        sail.initialize();
+        return sail;
+    }
+
+}
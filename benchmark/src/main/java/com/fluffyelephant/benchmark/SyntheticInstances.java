@@ -0,0 +1,92 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Statement;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Generates instance data for a schema from SyntheticSchema without keeping it in memory: every instance gets an
+ * rdf:type of a random class and links to four random instances through random properties, so that the domains,
+ * ranges and super properties of the schema all get used.
+ */
+final class SyntheticInstances implements Iterator<Statement> {
+
+    static final String DATA = "http://example.org/instances/";
+
+    private static final int LINKS = 4;
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    private final int classes;
+    private final int properties;
+    private final long instances;
+    private final long size;
+    private final Random random;
+
+    private long position;
+
+    /**
+     * @param size number of statements to generate
+     */
+    SyntheticInstances(int classes, int properties, long size, long seed) {
+        this.classes = classes;
+        this.properties = properties;
+        this.size = size;
+        this.instances = Math.max(1, size / (LINKS + 1));
+        this.random = new Random(seed);
+    }
+
+    static IRI instanceIri(long i) {
+        return vf.createIRI(DATA, "instance" + i);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < size;
+    }
+
+    @Override
+    public Statement next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        long instance = position / (LINKS + 1);
+        boolean type = position % (LINKS + 1) == 0;
+        position++;
+
+        if (type) {
+            return vf.createStatement(instanceIri(instance), RDF.TYPE, SyntheticSchema.classIri(random.nextInt(classes)));
+        }
+        long object = (random.nextLong() & Long.MAX_VALUE) % instances;
+        return vf.createStatement(instanceIri(instance), SyntheticSchema.propertyIri(random.nextInt(properties)), instanceIri(object));
+    }
+
+}
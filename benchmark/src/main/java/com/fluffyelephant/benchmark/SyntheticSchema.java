@@ -0,0 +1,142 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Statement;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates class and property hierarchies of a given shape and size.
+ */
+public final class SyntheticSchema {
+
+    static final String NAMESPACE = "http://example.org/schema#";
+
+    public enum Shape {
+        /**
+         * Every class has a single super class, ten sub classes per class.
+         */
+        TREE,
+        /**
+         * Long chains of sub classes, a hundred classes deep.
+         */
+        DEEP,
+        /**
+         * Like TREE, but every class also has two random super classes among the classes created before it.
+         */
+        DAG,
+        /**
+         * Like TREE, but every hundredth class is also made a super class of its parent, creating many small cycles.
+         */
+        CYCLIC
+    }
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    private SyntheticSchema() {
+    }
+
+    static IRI classIri(int i) {
+        return vf.createIRI(NAMESPACE, "Class" + i);
+    }
+
+    static IRI propertyIri(int i) {
+        return vf.createIRI(NAMESPACE, "property" + i);
+    }
+
+    /**
+     * @return the subClassOf edges as a flat array of (sub class, super class) indexes
+     */
+    static int[] hierarchy(Shape shape, int classes, Random random) {
+        int[] pairs = new int[classes * 6];
+        int size = 0;
+
+        for (int i = 1; i < classes; i++) {
+            int parent = shape == Shape.DEEP ? (i % 100 == 0 ? 0 : i - 1) : (i - 1) / 10;
+            pairs[size++] = i;
+            pairs[size++] = parent;
+
+            if (shape == Shape.DAG) {
+                pairs[size++] = i;
+                pairs[size++] = random.nextInt(i);
+                pairs[size++] = i;
+                pairs[size++] = random.nextInt(i);
+            }
+            if (shape == Shape.CYCLIC && i % 100 == 0) {
+                pairs[size++] = parent;
+                pairs[size++] = i;
+            }
+        }
+
+        return Arrays.copyOf(pairs, size);
+    }
+
+    /**
+     * @param classes    number of classes
+     * @param properties number of properties, arranged as a tree with a random domain and range each
+     */
+    static List<Statement> generate(Shape shape, int classes, int properties, long seed) {
+        Random random = new Random(seed);
+        List<Statement> statements = new ArrayList<>();
+
+        int[] hierarchy = hierarchy(shape, classes, random);
+        for (int i = 0; i < hierarchy.length; i += 2) {
+            statements.add(vf.createStatement(classIri(hierarchy[i]), RDFS.SUBCLASSOF, classIri(hierarchy[i + 1])));
+        }
+
+        for (int i = 0; i < properties; i++) {
+            if (i > 0) {
+                statements.add(vf.createStatement(propertyIri(i), RDFS.SUBPROPERTYOF, propertyIri((i - 1) / 4)));
+            }
+            statements.add(vf.createStatement(propertyIri(i), RDFS.DOMAIN, classIri(random.nextInt(classes))));
+            statements.add(vf.createStatement(propertyIri(i), RDFS.RANGE, classIri(random.nextInt(classes))));
+        }
+
+        return statements;
+    }
+
+    static Repository repository(List<Statement> statements) {
+        SailRepository repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+
+        try (RepositoryConnection connection = repository.getConnection()) {
+            connection.begin();
+            connection.add(statements);
+            connection.commit();
+        }
+
+        return repository;
+    }
+
+}
@@ -0,0 +1,265 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+package com.fluffyelephant.benchmark;
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates data shaped like the Lehigh University Benchmark (LUBM): universities with departments, faculty,
+ * students, courses and publications, described by a schema modelled on univ-bench. One university is roughly
+ * 100 000 statements.
+ */
+public final class SyntheticUniversity {
+
+    static final String NAMESPACE = "http://example.org/univ-bench#";
+    static final String DATA = "http://example.org/data/";
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    private static final IRI ORGANIZATION = schema("Organization");
+    private static final IRI UNIVERSITY = schema("University");
+    private static final IRI DEPARTMENT = schema("Department");
+    private static final IRI RESEARCH_GROUP = schema("ResearchGroup");
+    private static final IRI PERSON = schema("Person");
+    private static final IRI EMPLOYEE = schema("Employee");
+    private static final IRI FACULTY = schema("Faculty");
+    private static final IRI PROFESSOR = schema("Professor");
+    private static final IRI FULL_PROFESSOR = schema("FullProfessor");
+    private static final IRI ASSOCIATE_PROFESSOR = schema("AssociateProfessor");
+    private static final IRI ASSISTANT_PROFESSOR = schema("AssistantProfessor");
+    private static final IRI LECTURER = schema("Lecturer");
+    private static final IRI STUDENT = schema("Student");
+    private static final IRI UNDERGRADUATE_STUDENT = schema("UndergraduateStudent");
+    private static final IRI GRADUATE_STUDENT = schema("GraduateStudent");
+    private static final IRI WORK = schema("Work");
+    private static final IRI COURSE = schema("Course");
+    private static final IRI GRADUATE_COURSE = schema("GraduateCourse");
+    private static final IRI PUBLICATION = schema("Publication");
+    private static final IRI ARTICLE = schema("Article");
+
+    private static final IRI MEMBER_OF = schema("memberOf");
+    private static final IRI WORKS_FOR = schema("worksFor");
+    private static final IRI HEAD_OF = schema("headOf");
+    private static final IRI SUB_ORGANIZATION_OF = schema("subOrganizationOf");
+    private static final IRI DEGREE_FROM = schema("degreeFrom");
+    private static final IRI UNDERGRADUATE_DEGREE_FROM = schema("undergraduateDegreeFrom");
+    private static final IRI MASTERS_DEGREE_FROM = schema("mastersDegreeFrom");
+    private static final IRI DOCTORAL_DEGREE_FROM = schema("doctoralDegreeFrom");
+    private static final IRI TEACHER_OF = schema("teacherOf");
+    private static final IRI TAKES_COURSE = schema("takesCourse");
+    private static final IRI ADVISOR = schema("advisor");
+    private static final IRI PUBLICATION_AUTHOR = schema("publicationAuthor");
+    private static final IRI NAME = schema("name");
+    private static final IRI EMAIL_ADDRESS = schema("emailAddress");
+    private static final IRI TELEPHONE = schema("telephone");
+
+    private SyntheticUniversity() {
+    }
+
+    private static IRI schema(String localName) {
+        return vf.createIRI(NAMESPACE, localName);
+    }
+
+    static List<Statement> schema() {
+        List<Statement> statements = new ArrayList<>();
+
+        subClassOf(statements, UNIVERSITY, ORGANIZATION);
+        subClassOf(statements, DEPARTMENT, ORGANIZATION);
+        subClassOf(statements, RESEARCH_GROUP, ORGANIZATION);
+        subClassOf(statements, EMPLOYEE, PERSON);
+        subClassOf(statements, FACULTY, EMPLOYEE);
+        subClassOf(statements, PROFESSOR, FACULTY);
+        subClassOf(statements, FULL_PROFESSOR, PROFESSOR);
+        subClassOf(statements, ASSOCIATE_PROFESSOR, PROFESSOR);
+        subClassOf(statements, ASSISTANT_PROFESSOR, PROFESSOR);
+        subClassOf(statements, LECTURER, FACULTY);
+        subClassOf(statements, STUDENT, PERSON);
+        subClassOf(statements, UNDERGRADUATE_STUDENT, STUDENT);
+        subClassOf(statements, GRADUATE_STUDENT, STUDENT);
+        subClassOf(statements, COURSE, WORK);
+        subClassOf(statements, GRADUATE_COURSE, COURSE);
+        subClassOf(statements, PUBLICATION, WORK);
+        subClassOf(statements, ARTICLE, PUBLICATION);
+
+        property(statements, MEMBER_OF, PERSON, ORGANIZATION);
+        subPropertyOf(statements, WORKS_FOR, MEMBER_OF);
+        subPropertyOf(statements, HEAD_OF, WORKS_FOR);
+        property(statements, SUB_ORGANIZATION_OF, ORGANIZATION, ORGANIZATION);
+        property(statements, DEGREE_FROM, PERSON, UNIVERSITY);
+        subPropertyOf(statements, UNDERGRADUATE_DEGREE_FROM, DEGREE_FROM);
+        subPropertyOf(statements, MASTERS_DEGREE_FROM, DEGREE_FROM);
+        subPropertyOf(statements, DOCTORAL_DEGREE_FROM, DEGREE_FROM);
+        property(statements, TEACHER_OF, FACULTY, COURSE);
+        property(statements, TAKES_COURSE, STUDENT, COURSE);
+        property(statements, ADVISOR, PERSON, PROFESSOR);
+        property(statements, PUBLICATION_AUTHOR, PUBLICATION, PERSON);
+        property(statements, EMAIL_ADDRESS, PERSON, RDFS.LITERAL);
+        property(statements, TELEPHONE, PERSON, RDFS.LITERAL);
+        statements.add(vf.createStatement(NAME, RDF.TYPE, RDF.PROPERTY));
+
+        return statements;
+    }
+
+    private static void subClassOf(List<Statement> statements, IRI subClass, IRI superClass) {
+        statements.add(vf.createStatement(subClass, RDFS.SUBCLASSOF, superClass));
+    }
+
+    private static void subPropertyOf(List<Statement> statements, IRI subProperty, IRI superProperty) {
+        statements.add(vf.createStatement(subProperty, RDFS.SUBPROPERTYOF, superProperty));
+    }
+
+    private static void property(List<Statement> statements, IRI property, IRI domain, IRI range) {
+        statements.add(vf.createStatement(property, RDF.TYPE, RDF.PROPERTY));
+        statements.add(vf.createStatement(property, RDFS.DOMAIN, domain));
+        statements.add(vf.createStatement(property, RDFS.RANGE, range));
+    }
+
+    static List<Statement> data(int universities, long seed) {
+        Random random = new Random(seed);
+        List<Statement> statements = new ArrayList<>(universities * 110_000);
+
+        for (int u = 0; u < universities; u++) {
+            IRI university = vf.createIRI(DATA, "University" + u);
+            add(statements, university, RDF.TYPE, UNIVERSITY);
+            add(statements, university, NAME, vf.createLiteral("University " + u));
+
+            for (int d = 0; d < 15; d++) {
+                department(statements, university, universities, u + "." + d, random);
+            }
+        }
+
+        return statements;
+    }
+
+    private static void department(List<Statement> statements, IRI university, int universities, String id, Random random) {
+        IRI department = vf.createIRI(DATA, "Department" + id);
+        add(statements, department, RDF.TYPE, DEPARTMENT);
+        add(statements, department, SUB_ORGANIZATION_OF, university);
+        add(statements, department, NAME, vf.createLiteral("Department " + id));
+
+        for (int g = 0; g < 10; g++) {
+            IRI group = vf.createIRI(DATA, "ResearchGroup" + id + "." + g);
+            add(statements, group, RDF.TYPE, RESEARCH_GROUP);
+            add(statements, group, SUB_ORGANIZATION_OF, department);
+        }
+
+        List<IRI> courses = new ArrayList<>();
+        for (int c = 0; c < 60; c++) {
+            IRI course = vf.createIRI(DATA, "Course" + id + "." + c);
+            add(statements, course, RDF.TYPE, COURSE);
+            add(statements, course, NAME, vf.createLiteral("Course " + c));
+            courses.add(course);
+        }
+
+        List<IRI> graduateCourses = new ArrayList<>();
+        for (int c = 0; c < 30; c++) {
+            IRI course = vf.createIRI(DATA, "GraduateCourse" + id + "." + c);
+            add(statements, course, RDF.TYPE, GRADUATE_COURSE);
+            add(statements, course, NAME, vf.createLiteral("Graduate course " + c));
+            graduateCourses.add(course);
+        }
+
+        List<IRI> professors = new ArrayList<>();
+        int courseIndex = 0;
+        IRI[] ranks = {FULL_PROFESSOR, ASSOCIATE_PROFESSOR, ASSISTANT_PROFESSOR, LECTURER};
+        int[] counts = {8, 12, 10, 6};
+        for (int r = 0; r < ranks.length; r++) {
+            for (int i = 0; i < counts[r]; i++) {
+                IRI faculty = vf.createIRI(DATA, ranks[r].getLocalName() + id + "." + i);
+                person(statements, faculty, ranks[r], universities, random);
+                add(statements, faculty, r == 0 && i == 0 ? HEAD_OF : WORKS_FOR, department);
+                add(statements, faculty, MASTERS_DEGREE_FROM, university(universities, random));
+                add(statements, faculty, DOCTORAL_DEGREE_FROM, university(universities, random));
+                add(statements, faculty, TEACHER_OF, courses.get(courseIndex++ % courses.size()));
+                add(statements, faculty, TEACHER_OF, graduateCourses.get(random.nextInt(graduateCourses.size())));
+
+                if (ranks[r] != LECTURER) {
+                    professors.add(faculty);
+                }
+
+                for (int p = 0; p < 8; p++) {
+                    IRI publication = vf.createIRI(DATA, "Publication" + id + "." + r + "." + i + "." + p);
+                    add(statements, publication, RDF.TYPE, p % 2 == 0 ? ARTICLE : PUBLICATION);
+                    add(statements, publication, NAME, vf.createLiteral("Publication " + p));
+                    add(statements, publication, PUBLICATION_AUTHOR, faculty);
+                }
+            }
+        }
+
+        for (int i = 0; i < 450; i++) {
+            IRI student = vf.createIRI(DATA, "UndergraduateStudent" + id + "." + i);
+            person(statements, student, UNDERGRADUATE_STUDENT, universities, random);
+            add(statements, student, MEMBER_OF, department);
+            for (int c = 2 + random.nextInt(3); c > 0; c--) {
+                add(statements, student, TAKES_COURSE, courses.get(random.nextInt(courses.size())));
+            }
+            if (i % 5 == 0) {
+                add(statements, student, ADVISOR, professors.get(random.nextInt(professors.size())));
+            }
+        }
+
+        for (int i = 0; i < 80; i++) {
+            IRI student = vf.createIRI(DATA, "GraduateStudent" + id + "." + i);
+            person(statements, student, GRADUATE_STUDENT, universities, random);
+            add(statements, student, MEMBER_OF, department);
+            for (int c = 1 + random.nextInt(3); c > 0; c--) {
+                add(statements, student, TAKES_COURSE, graduateCourses.get(random.nextInt(graduateCourses.size())));
+            }
+            add(statements, student, ADVISOR, professors.get(random.nextInt(professors.size())));
+        }
+    }
+
+    private static void person(List<Statement> statements, IRI person, IRI type, int universities, Random random) {
+        String localName = person.getLocalName();
+        add(statements, person, RDF.TYPE, type);
+        add(statements, person, NAME, vf.createLiteral(localName));
+        add(statements, person, EMAIL_ADDRESS, vf.createLiteral(localName + "@example.org"));
+        add(statements, person, TELEPHONE, literal(random));
+        add(statements, person, UNDERGRADUATE_DEGREE_FROM, university(universities, random));
+    }
+
+    private static IRI university(int universities, Random random) {
+        // like LUBM, degrees are also from universities outside the generated ones
+        return vf.createIRI(DATA, "University" + random.nextInt(universities + 100));
+    }
+
+    private static Literal literal(Random random) {
+        return vf.createLiteral(String.format("%03d-%04d", random.nextInt(1000), random.nextInt(10000)));
+    }
+
+    private static void add(List<Statement> statements, Resource subject, IRI predicate, Value object) {
+        statements.add(vf.createStatement(subject, predicate, object));
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.openrdf.model.Statement;
+import org.openrdf.sail.SailException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Infers from the statements that transactions committed in asynchronous inference mode. Every commit that added
+ * statements is queued with a sequence number, and a background thread infers the queued statements in transactions
+ * of up to batchSize statements. The watermark is the sequence number of the last commit whose statements are all
+ * inferred.
+ */
+final class AsyncMaterializer {
+
+    private final FastRdfsForwardChainingSail sail;
+    private final int batchSize;
+    private final int queueSize;
+    private final Thread thread;
+
+    // the rest is guarded by this
+    private final ArrayDeque<Commit> queue = new ArrayDeque<>();
+
+    // statements that are queued or being inferred
+    private long queuedStatements;
+
+    private long sequence;
+    private long watermark;
+    // after a failure nothing is queued anymore, new transactions infer synchronously
+    private SailException failure;
+    private boolean stopping;
+    private boolean stopped;
+
+    AsyncMaterializer(FastRdfsForwardChainingSail sail, int batchSize, int queueSize) {
+        this.sail = sail;
+        this.batchSize = batchSize;
+        this.queueSize = queueSize;
+
+        thread = new Thread(this::run, "FastRdfsForwardChainingSail inference");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues the statements of a commit, waiting while the queue is full.
+     *
+     * @return the sequence number of the commit
+     */
+    synchronized long submit(List<Statement> statements) throws SailException {
+        try {
+            while (failure == null && !stopping && queuedStatements >= queueSize) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SailException("Interrupted while waiting for queued statements to be inferred, the commit is stored and the next transaction"
+                + " that writes infers everything again", e);
+        }
+
+        if (stopped) {
+            throw new SailException("The sail was shut down, the commit is stored but not inferred, clearInferred() infers everything again");
+        }
+
+        sequence++;
+        if (failure == null) {
+            queue.add(new Commit(sequence, statements));
+            queuedStatements += statements.size();
+            notifyAll();
+        } else {
+            // a transaction that began before the failure, awaiting the commit throws the failure
+            sail.inferredStale = true;
+        }
+        return sequence;
+    }
+
+    synchronized long sequence() {
+        return sequence;
+    }
+
+    synchronized boolean failed() {
+        return failure != null;
+    }
+
+    synchronized long watermark() {
+        return watermark;
+    }
+
+    /**
+     * @return false if the commit with the sequence number wasn't inferred within the timeout
+     * @throws SailException if inferring failed before it got to the commit
+     */
+    synchronized boolean await(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (watermark < sequence) {
+            if (failure != null) {
+                throw new SailException("Inferring the queued statements failed", failure);
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Infers what is still queued and stops the thread.
+     *
+     * @throws SailException if inferring failed and the statements it didn't infer are still not inferred
+     */
+    void shutDown() throws SailException {
+        synchronized (this) {
+            stopping = true;
+            notifyAll();
+        }
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            // unless a transaction has inferred everything again since
+            if (failure != null && sail.inferredStale) {
+                throw new SailException("Inferring the queued statements failed", failure);
+            }
+        }
+    }
+
+    private void run() {
+        List<Commit> batch;
+        while (!(batch = next()).isEmpty()) {
+            long statements = 0;
+            try {
+                FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+                try {
+                    connection.begin();
+                    for (Commit commit : batch) {
+                        for (Statement statement : commit.statements) {
+                            connection.inferQueued(statement);
+                        }
+                        statements += commit.statements.size();
+                    }
+                    connection.commit();
+                } finally {
+                    if (connection.isActive()) {
+                        connection.rollback();
+                    }
+                    connection.close();
+                }
+            } catch (Throwable e) {
+                synchronized (this) {
+                    failure = e instanceof SailException ? (SailException) e : new SailException(e);
+                    // the batch and the rest of the queue are inferred along with everything else instead
+                    sail.inferredStale = true;
+                    queue.clear();
+                    queuedStatements = 0;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                watermark = batch.get(batch.size() - 1).sequence;
+                queuedStatements -= statements;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the next commits to infer together, or none once the queue is empty after shutDown
+     */
+    private synchronized List<Commit> next() {
+        while (queue.isEmpty() && !stopping) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // only shutDown stops the thread
+            }
+        }
+
+        if (queue.isEmpty()) {
+            stopped = true;
+        }
+
+        List<Commit> batch = new ArrayList<>();
+        long statements = 0;
+        while (!queue.isEmpty() && (batch.isEmpty() || statements + queue.peek().statements.size() <= batchSize)) {
+            Commit commit = queue.poll();
+            statements += commit.statements.size();
+            batch.add(commit);
+        }
+        return batch;
+    }
+
+    private static final class Commit {
+
+        final long sequence;
+        final List<Statement> statements;
+
+        Commit(long sequence, List<Statement> statements) {
+            this.sequence = sequence;
+            this.statements = statements;
+        }
+    }
+
+}
@@ -0,0 +1,471 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.RDFHandlerException;
+import org.openrdf.rio.RDFParser;
+import org.openrdf.rio.Rio;
+import org.openrdf.rio.helpers.AbstractRDFHandler;
+import org.openrdf.rio.helpers.BasicParserSettings;
+import org.openrdf.sail.SailException;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads statements in batches through three stages: the calling thread reads a batch from the source, a fork/join
+ * pool infers the batches in parallel against the schema tables, and the calling thread writes the finished
+ * batches in order through the connection. Only the workers run concurrently, since they only read the schema
+ * tables, while the connection and the store are only ever used by the calling thread.
+ * <p>
+ * The number of batches in flight is bounded, so a slow store holds back the reading instead of filling the heap.
+ * N-Triples and N-Quads files are split into chunks at line breaks, which the workers parse as well as infer.
+ * <p>
+ * Each worker remembers what it inferred and leaves out of a batch what an earlier batch already inferred. That
+ * only holds up if the earlier batch is written first, as the batches of one chunk are, but the workers may infer
+ * the batches of different chunks, or the batches the calling thread reads, out of order. So the cache is cleared
+ * for every chunk and for every batch the calling thread reads, and a commit never separates a batch from the
+ * inferred statements it left out.
+ * <p>
+ * With a commit size the connection is committed, and a new transaction begun, whenever that many statements were
+ * written. A batch that was inferred before a commit changed the schema is inferred again before it is written.
+ */
+final class BulkLoader {
+
+    static final int BATCH_SIZE = 10_000;
+
+    // N-Triples and N-Quads files are split into chunks of about this many bytes
+    static final long CHUNK_SIZE = 64L << 20;
+
+    private static final Resource[] NO_CONTEXTS = new Resource[0];
+
+    private final FastRdfsForwardChainingSailConnetion connection;
+    private final int threads;
+    private final int cacheSize;
+    private final long commitSize;
+
+    private final ThreadLocal<InferredStatementCache> caches;
+
+    private ForkJoinPool workers;
+    private final ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<>();
+    private List<Statement> explicit;
+    private boolean addExplicit;
+
+    // the tables the workers infer with, replaced when a commit changed the schema
+    private volatile SchemaTables tables;
+    private long uncommitted;
+
+    BulkLoader(FastRdfsForwardChainingSailConnetion connection, int threads, int cacheSize) {
+        this(connection, threads, cacheSize, 0);
+    }
+
+    /**
+     * @param commitSize statements per transaction, or 0 to write everything in the current transaction
+     */
+    BulkLoader(FastRdfsForwardChainingSailConnetion connection, int threads, int cacheSize, long commitSize) {
+        this.connection = connection;
+        this.threads = threads;
+        this.cacheSize = cacheSize;
+        this.commitSize = commitSize;
+        caches = ThreadLocal.withInitial(() -> new InferredStatementCache(cacheSize));
+    }
+
+    void load(Iterator<? extends Statement> statements) throws SailException {
+        run(statements, true);
+    }
+
+    /**
+     * Infers statements that are already in the store, to re-materialize after the inferred statements were cleared.
+     */
+    void infer(Iterator<? extends Statement> statements) throws SailException {
+        run(statements, false);
+    }
+
+    private void run(Iterator<? extends Statement> statements, boolean addExplicit) throws SailException {
+        start(addExplicit);
+        try {
+            while (statements.hasNext()) {
+                add(statements.next());
+            }
+            finish();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Parses on the calling thread, which also writes the batches, so the parser waits while the store catches up.
+     */
+    void load(InputStream in, RDFFormat format, String baseURI, ValueFactory valueFactory) throws IOException, SailException {
+        RDFParser parser = Rio.createParser(format, valueFactory);
+        parser.setRDFHandler(new AbstractRDFHandler() {
+            @Override
+            public void handleStatement(Statement statement) throws RDFHandlerException {
+                add(statement);
+            }
+        });
+
+        start(true);
+        try {
+            parser.parse(in, baseURI);
+            finish();
+        } finally {
+            stop();
+        }
+    }
+
+    void load(File file, RDFFormat format, String baseURI, ValueFactory valueFactory) throws IOException, SailException {
+        if (!RDFFormat.NTRIPLES.equals(format) && !RDFFormat.NQUADS.equals(format)) {
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+                load(in, format, baseURI, valueFactory);
+            }
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            loadChunks(channel, format, baseURI, valueFactory);
+        }
+    }
+
+    private void start(boolean addExplicit) {
+        this.addExplicit = addExplicit;
+        workers = new ForkJoinPool(threads);
+        explicit = new ArrayList<>(BATCH_SIZE);
+        tables = connection.tables();
+        uncommitted = 0;
+    }
+
+    private void add(Statement statement) throws SailException {
+        explicit.add(statement);
+        if (explicit.size() == BATCH_SIZE) {
+            submit();
+        }
+    }
+
+    private void submit() throws SailException {
+        List<Statement> batch = explicit;
+        explicit = new ArrayList<>(BATCH_SIZE);
+        inFlight.add(workers.submit(() -> {
+            InferredStatementCache cache = caches.get();
+            cache.clear();
+            return inferBatch(batch, cache);
+        }));
+
+        if (inFlight.size() >= threads * 2) {
+            write(get(inFlight.poll()));
+        }
+    }
+
+    private void finish() throws SailException {
+        if (!explicit.isEmpty()) {
+            submit();
+        }
+        while (!inFlight.isEmpty()) {
+            write(get(inFlight.poll()));
+        }
+    }
+
+    private void stop() {
+        inFlight.forEach(batch -> batch.cancel(true));
+        inFlight.clear();
+        workers.shutdownNow();
+    }
+
+    /**
+     * The chunks are parsed and inferred by the workers, which hand the batches to the calling thread through a
+     * bounded queue. Blank node labels are shared by the whole file, so the parsers keep them as they are and they
+     * are made unique to this load when the statements are handled.
+     */
+    private void loadChunks(FileChannel channel, RDFFormat format, String baseURI, ValueFactory valueFactory) throws IOException, SailException {
+        List<Long> boundaries = chunkBoundaries(channel);
+        String blankNodePrefix = "genid-" + UUID.randomUUID().toString().replace("-", "") + "-";
+        BlockingQueue<Batch> finished = new ArrayBlockingQueue<>(threads * 2);
+        List<Future<?>> chunks = new ArrayList<>();
+
+        start(true);
+        try {
+            for (int i = 0; i + 1 < boundaries.size(); i++) {
+                long from = boundaries.get(i);
+                long to = boundaries.get(i + 1);
+                chunks.add(workers.submit(() -> {
+                    parseChunk(new ChunkInputStream(channel, from, to), format, baseURI, valueFactory, blankNodePrefix, finished);
+                    return null;
+                }));
+            }
+
+            boolean parsing = true;
+            while (parsing || !finished.isEmpty()) {
+                Batch batch = finished.poll(10, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    write(batch);
+                    continue;
+                }
+
+                parsing = false;
+                for (Future<?> chunk : chunks) {
+                    if (chunk.isDone()) {
+                        get(chunk);
+                    } else {
+                        parsing = true;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SailException(e);
+        } finally {
+            chunks.forEach(chunk -> chunk.cancel(true));
+            stop();
+        }
+    }
+
+    private void parseChunk(InputStream chunk, RDFFormat format, String baseURI, ValueFactory valueFactory,
+                            String blankNodePrefix, BlockingQueue<Batch> finished) throws IOException {
+
+        InferredStatementCache cache = caches.get();
+        cache.clear();
+
+        RDFParser parser = Rio.createParser(format, valueFactory);
+        parser.getParserConfig().set(BasicParserSettings.PRESERVE_BNODE_IDS, true);
+        parser.setRDFHandler(new AbstractRDFHandler() {
+            List<Statement> statements = new ArrayList<>(BATCH_SIZE);
+
+            @Override
+            public void handleStatement(Statement statement) throws RDFHandlerException {
+                Resource subject = relabel(statement.getSubject());
+                Value object = statement.getObject() instanceof BNode ? relabel((BNode) statement.getObject()) : statement.getObject();
+                Resource context = statement.getContext() != null ? relabel(statement.getContext()) : null;
+
+                statements.add(valueFactory.createStatement(subject, statement.getPredicate(), object, context));
+                if (statements.size() == BATCH_SIZE) {
+                    hand(statements);
+                    statements = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+
+            @Override
+            public void endRDF() throws RDFHandlerException {
+                if (!statements.isEmpty()) {
+                    hand(statements);
+                }
+            }
+
+            private Resource relabel(Resource resource) {
+                return resource instanceof BNode ? valueFactory.createBNode(blankNodePrefix + ((BNode) resource).getID()) : resource;
+            }
+
+            private void hand(List<Statement> batch) throws RDFHandlerException {
+                try {
+                    finished.put(inferBatch(batch, cache));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RDFHandlerException(e);
+                }
+            }
+        });
+
+        try (InputStream in = new BufferedInputStream(chunk, 1 << 16)) {
+            parser.parse(in, baseURI);
+        }
+    }
+
+    /**
+     * Offsets that split the file into chunks of about CHUNK_SIZE bytes, each ending with a line break.
+     */
+    private static List<Long> chunkBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = CHUNK_SIZE - 1;
+
+        scan:
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    long boundary = position + i + 1;
+                    if (boundary >= size) {
+                        break scan;
+                    }
+                    boundaries.add(boundary);
+                    position = boundary + CHUNK_SIZE - 1;
+                    continue scan;
+                }
+            }
+            position += read;
+        }
+
+        boundaries.add(size);
+        return boundaries;
+    }
+
+    private Batch inferBatch(List<Statement> explicit, InferredStatementCache cache) throws SailException {
+        SchemaTables tables = this.tables;
+        InferenceBuffer inferred = new InferenceBuffer(explicit.size() * 4, cache);
+        InferenceCounters counters = new InferenceCounters();
+
+        for (Statement statement : explicit) {
+            connection.infer(tables, statement.getSubject(), statement.getPredicate(), statement.getObject(), contexts(statement), inferred, counters);
+        }
+        counters.cached += inferred.skipped();
+
+        return new Batch(explicit, tables, inferred, counters);
+    }
+
+    private static <T> T get(Future<T> future) throws SailException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SailException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new SailException(e.getCause());
+        }
+    }
+
+    private void write(Batch batch) throws SailException {
+        if (!tables.transitiveProperties.isEmpty()) {
+            // the transitive closure reads the store, so take the lock before the batch is checked against the schema
+            connection.lockExclusively();
+            tables = connection.tables();
+        }
+
+        if (batch.tables != tables) {
+            // a commit changed the schema since the batch was inferred
+            batch = inferBatch(batch.explicit, null);
+        }
+
+        if (addExplicit) {
+            for (Statement statement : batch.explicit) {
+                connection.addExplicitStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(), contexts(statement));
+            }
+        }
+
+        connection.counters().add(batch.counters);
+
+        InferenceBuffer inferred = batch.inferred;
+        for (int i = 0; i < inferred.size(); i++) {
+            Resource context = inferred.context(i);
+            connection.writeInferredStatement(inferred.subject(i), inferred.predicate(i), inferred.object(i),
+                context == null ? NO_CONTEXTS : new Resource[]{context});
+        }
+
+        for (Statement statement : batch.explicit) {
+            connection.inferTransitive(statement.getSubject(), statement.getPredicate(), statement.getObject(), contexts(statement));
+        }
+
+        uncommitted += batch.explicit.size();
+        if (commitSize > 0 && uncommitted >= commitSize) {
+            connection.commit();
+            connection.begin();
+            tables = connection.tables();
+            uncommitted = 0;
+        }
+    }
+
+    private static Resource[] contexts(Statement statement) {
+        return statement.getContext() == null ? NO_CONTEXTS : new Resource[]{statement.getContext()};
+    }
+
+    private static final class Batch {
+
+        final List<Statement> explicit;
+        final SchemaTables tables;
+        final InferenceBuffer inferred;
+        final InferenceCounters counters;
+
+        Batch(List<Statement> explicit, SchemaTables tables, InferenceBuffer inferred, InferenceCounters counters) {
+            this.explicit = explicit;
+            this.tables = tables;
+            this.inferred = inferred;
+            this.counters = counters;
+        }
+
+    }
+
+    /**
+     * Reads a range of the file with positional reads, so the chunks can share the channel.
+     */
+    private static final class ChunkInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        ChunkInputStream(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Computes the schema closures in a single pass over the hierarchy instead of iterating until nothing changes.
+ * <p>
+ * Cycles are collapsed into strongly connected components with an iterative version of Tarjan's algorithm. Tarjan
+ * finishes a component only after every component reachable from it is finished, so the closure of a component can
+ * be computed right away as the union of the components it points to.
+ */
+final class ClosureEngine {
+
+    private ClosureEngine() {
+    }
+
+    /**
+     * @param pairs edges as a flat array of (from, to) ids, where a from id of -1 marks an edge to ignore
+     * @return for every id the sorted ids reachable through one or more edges. An id is only part of its own closure
+     * if it is on a cycle.
+     */
+    static IntTable transitiveClosure(int[] pairs, int size) {
+        int[][] edges = adjacency(pairs, size);
+
+        int[][] closure = new int[size][];
+        int[][] componentMembers = new int[size][];
+        int[][] componentClosure = new int[size][];
+        int[] component = new int[size];
+        Arrays.fill(component, -1);
+
+        int[] index = new int[size];
+        Arrays.fill(index, -1);
+        int[] low = new int[size];
+        int counter = 0;
+
+        int[] stack = new int[size];
+        int stackSize = 0;
+        boolean[] onStack = new boolean[size];
+
+        int[] callStack = new int[size];
+        int[] edgePosition = new int[size];
+        int callStackSize = 0;
+
+        int componentCount = 0;
+        Union union = new Union(size);
+
+        for (int root = 0; root < size; root++) {
+            if (index[root] >= 0 || edges[root] == null) {
+                continue;
+            }
+
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            callStack[callStackSize] = root;
+            edgePosition[callStackSize++] = 0;
+
+            while (callStackSize > 0) {
+                int node = callStack[callStackSize - 1];
+                int[] nodeEdges = edges[node];
+
+                if (nodeEdges != null && edgePosition[callStackSize - 1] < nodeEdges.length) {
+                    int next = nodeEdges[edgePosition[callStackSize - 1]++];
+
+                    if (index[next] < 0) {
+                        index[next] = low[next] = counter++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        callStack[callStackSize] = next;
+                        edgePosition[callStackSize++] = 0;
+                    } else if (onStack[next]) {
+                        low[node] = Math.min(low[node], index[next]);
+                    }
+                    continue;
+                }
+
+                callStackSize--;
+                if (callStackSize > 0) {
+                    int parent = callStack[callStackSize - 1];
+                    low[parent] = Math.min(low[parent], low[node]);
+                }
+
+                if (low[node] != index[node]) {
+                    continue;
+                }
+
+                int start = stackSize;
+                do {
+                    start--;
+                    onStack[stack[start]] = false;
+                    component[stack[start]] = componentCount;
+                } while (stack[start] != node);
+
+                int[] members = Arrays.copyOfRange(stack, start, stackSize);
+                Arrays.sort(members);
+                stackSize = start;
+
+                boolean cyclic = members.length > 1;
+                for (int member : members) {
+                    int[] memberEdges = edges[member];
+                    if (memberEdges == null) {
+                        continue;
+                    }
+                    for (int target : memberEdges) {
+                        int targetComponent = component[target];
+                        if (targetComponent == componentCount) {
+                            cyclic = true;
+                        } else {
+                            union.addAll(componentMembers[targetComponent]);
+                            union.addAll(componentClosure[targetComponent]);
+                        }
+                    }
+                }
+                if (cyclic) {
+                    union.addAll(members);
+                }
+
+                int[] result = union.toSortedArray();
+                componentMembers[componentCount] = members;
+                componentClosure[componentCount] = result;
+                componentCount++;
+
+                for (int member : members) {
+                    closure[member] = result;
+                }
+            }
+        }
+
+        return IntTable.of(closure);
+    }
+
+    /**
+     * Resolves the domain or range of every property in one pass: a property inherits the domains (ranges) of all
+     * its super properties, and every domain (range) class brings along all its super classes.
+     *
+     * @param pairs (property, class) edges from rdfs:domain or rdfs:range statements
+     */
+    static IntTable inherit(int[] pairs, BitSet properties, IntTable superProperties, IntTable superClasses, int size) {
+        int[][] direct = adjacency(pairs, size);
+        int[][] inherited = new int[size][];
+        Union union = new Union(size);
+
+        for (int property = properties.nextSetBit(0); property >= 0; property = properties.nextSetBit(property + 1)) {
+            addWithSuperClasses(union, direct[property], superClasses);
+            for (int i = 0; i < superProperties.size(property); i++) {
+                addWithSuperClasses(union, direct[superProperties.get(property, i)], superClasses);
+            }
+
+            inherited[property] = union.toSortedArray();
+        }
+
+        return IntTable.of(inherited);
+    }
+
+    /**
+     * @param pairs edges as a flat array of (from, to) ids, where a from id of -1 marks an edge to ignore
+     * @return for every id the sorted ids it shares an edge with in either direction
+     */
+    static IntTable undirected(int[] pairs, int size) {
+        int[] both = Arrays.copyOf(pairs, pairs.length * 2);
+        for (int i = 0; i < pairs.length; i += 2) {
+            // reversed, keeping -1 in the from position of ignored edges
+            both[pairs.length + i] = pairs[i] >= 0 ? pairs[i + 1] : -1;
+            both[pairs.length + i + 1] = pairs[i];
+        }
+
+        int[][] edges = adjacency(both, size);
+        Union union = new Union(size);
+        for (int id = 0; id < size; id++) {
+            if (edges[id] != null) {
+                union.addAll(edges[id]);
+                edges[id] = union.toSortedArray();
+            }
+        }
+
+        return IntTable.of(edges);
+    }
+
+    private static void addWithSuperClasses(Union union, int[] classes, IntTable superClasses) {
+        if (classes == null) {
+            return;
+        }
+        for (int c : classes) {
+            union.add(c);
+            for (int i = 0; i < superClasses.size(c); i++) {
+                union.add(superClasses.get(c, i));
+            }
+        }
+    }
+
+    private static int[][] adjacency(int[] pairs, int size) {
+        int[] counts = new int[size];
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (pairs[i] >= 0) {
+                counts[pairs[i]]++;
+            }
+        }
+
+        int[][] edges = new int[size][];
+        for (int i = 0; i < pairs.length; i += 2) {
+            int from = pairs[i];
+            if (from < 0) {
+                continue;
+            }
+            if (edges[from] == null) {
+                edges[from] = new int[counts[from]];
+                counts[from] = 0;
+            }
+            edges[from][counts[from]++] = pairs[i + 1];
+        }
+
+        return edges;
+    }
+
+    /**
+     * A reusable set of ids. Membership is kept in a bitset while the ids themselves are appended to a buffer, so
+     * that collecting and clearing only costs time proportional to the number of ids added.
+     */
+    private static final class Union {
+
+        private final BitSet seen;
+        private int[] buffer = new int[16];
+        private int size;
+
+        Union(int capacity) {
+            seen = new BitSet(capacity);
+        }
+
+        void add(int id) {
+            if (!seen.get(id)) {
+                seen.set(id);
+                if (size == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, size * 2);
+                }
+                buffer[size++] = id;
+            }
+        }
+
+        void addAll(int[] ids) {
+            for (int id : ids) {
+                add(id);
+            }
+        }
+
+        int[] toSortedArray() {
+            int[] result = Arrays.copyOf(buffer, size);
+            Arrays.sort(result);
+
+            for (int i = 0; i < size; i++) {
+                seen.clear(buffer[i]);
+            }
+            size = 0;
+
+            return result;
+        }
+    }
+
+}
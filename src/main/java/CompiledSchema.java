@@ -0,0 +1,382 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The dictionary, class and property sets and closure tables computed from the schema statements. They can be
+ * written to a snapshot file and memory-mapped again on the next start, so an unchanged schema doesn't have to be
+ * compiled again. The closure tables are used directly from the mapped file.
+ *
+ * Snapshot layout (big-endian): magic, version, 32 byte schema hash, the dictionary terms as length prefixed UTF-8,
+ * padding to a multiple of four bytes, the six class and property sets as a word count followed by the words, and
+ * the five tables as the number of offsets, the number of values, the offsets and the values.
+ */
+final class CompiledSchema {
+
+    static final String FILE_NAME = "schema.snapshot";
+
+    private static final int MAGIC = 0x46525346;
+    private static final int VERSION = 2;
+    private static final int HASH_LENGTH = 32;
+
+    final SchemaDictionary dictionary;
+    final BitSet classes;
+    final BitSet properties;
+
+    // everything that gets a reflexive rdfs:subClassOf or rdfs:subPropertyOf statement
+    final BitSet reflexiveClasses;
+    final BitSet reflexiveProperties;
+
+    // owl:TransitiveProperty and owl:SymmetricProperty
+    final BitSet transitiveProperties;
+    final BitSet symmetricProperties;
+
+    final IntTable calculatedTypes;
+    final IntTable calculatedProperties;
+    final IntTable calculatedRange;
+    final IntTable calculatedDomain;
+
+    // the owl:inverseOf of every property, in both directions
+    final IntTable inverseProperties;
+
+    // true if the tables were mapped from a snapshot instead of being computed
+    final boolean loaded;
+
+    private CompiledSchema(SchemaDictionary dictionary, BitSet classes, BitSet properties, BitSet reflexiveClasses, BitSet reflexiveProperties,
+                           BitSet transitiveProperties, BitSet symmetricProperties, IntTable calculatedTypes, IntTable calculatedProperties,
+                           IntTable calculatedRange, IntTable calculatedDomain, IntTable inverseProperties, boolean loaded) {
+        this.dictionary = dictionary;
+        this.classes = classes;
+        this.properties = properties;
+        this.reflexiveClasses = reflexiveClasses;
+        this.reflexiveProperties = reflexiveProperties;
+        this.transitiveProperties = transitiveProperties;
+        this.symmetricProperties = symmetricProperties;
+        this.calculatedTypes = calculatedTypes;
+        this.calculatedProperties = calculatedProperties;
+        this.calculatedRange = calculatedRange;
+        this.calculatedDomain = calculatedDomain;
+        this.inverseProperties = inverseProperties;
+        this.loaded = loaded;
+    }
+
+    /**
+     * @param valueFactory creates the IRIs of the dictionary
+     */
+    static CompiledSchema compile(SchemaStatements schemaStatements, ValueFactory valueFactory) {
+        SchemaDictionary dictionary = new SchemaDictionary(valueFactory);
+
+        int[] subClassOf = register(schemaStatements.subClassOf, dictionary);
+        int[] propertyTypes = register(schemaStatements.properties, dictionary);
+        int[] subPropertyOf = register(schemaStatements.subPropertyOf, dictionary);
+        int[] range = register(schemaStatements.range, dictionary);
+        int[] domain = register(schemaStatements.domain, dictionary);
+        int[] inverseOf = register(schemaStatements.inverseOf, dictionary);
+        int[] transitive = register(schemaStatements.transitive, dictionary);
+        int[] symmetric = register(schemaStatements.symmetric, dictionary);
+
+        int size = dictionary.size();
+
+        BitSet classes = new BitSet(size);
+        BitSet properties = new BitSet(size);
+
+        collect(subClassOf, classes, true, false);
+        collect(propertyTypes, properties, true, false);
+        collect(subPropertyOf, properties, true, true);
+        collect(range, properties, true, false);
+        collect(range, classes, false, true);
+        collect(domain, properties, true, false);
+        collect(domain, classes, false, true);
+        collect(inverseOf, properties, true, true);
+        collect(transitive, properties, true, false);
+        collect(symmetric, properties, true, false);
+
+        BitSet transitiveProperties = new BitSet(size);
+        BitSet symmetricProperties = new BitSet(size);
+        collect(transitive, transitiveProperties, true, false);
+        collect(symmetric, symmetricProperties, true, false);
+
+        IntTable calculatedTypes = ClosureEngine.transitiveClosure(subClassOf, size);
+        IntTable calculatedProperties = ClosureEngine.transitiveClosure(subPropertyOf, size);
+        IntTable calculatedRange = ClosureEngine.inherit(range, properties, calculatedProperties, calculatedTypes, size);
+        IntTable calculatedDomain = ClosureEngine.inherit(domain, properties, calculatedProperties, calculatedTypes, size);
+        IntTable inverseProperties = ClosureEngine.undirected(inverseOf, size);
+
+        return new CompiledSchema(dictionary, classes, properties, reflexive(classes, calculatedTypes), reflexive(properties, calculatedProperties),
+            transitiveProperties, symmetricProperties, calculatedTypes, calculatedProperties, calculatedRange, calculatedDomain, inverseProperties, false);
+    }
+
+    /**
+     * @return the statements as a flat array of subject and object ids. Statements with a subject or object that
+     * isn't an IRI can't take part in the schema and are given the id -1.
+     */
+    private static int[] register(List<Statement> statements, SchemaDictionary dictionary) {
+        int[] pairs = new int[statements.size() * 2];
+
+        for (int i = 0; i < statements.size(); i++) {
+            Statement statement = statements.get(i);
+            boolean valid = statement.getSubject() instanceof IRI && statement.getObject() instanceof IRI;
+
+            pairs[i * 2] = valid ? dictionary.add((IRI) statement.getSubject()) : -1;
+            pairs[i * 2 + 1] = valid ? dictionary.add((IRI) statement.getObject()) : -1;
+        }
+
+        return pairs;
+    }
+
+    private static void collect(int[] pairs, BitSet ids, boolean subjects, boolean objects) {
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (pairs[i] < 0) {
+                continue;
+            }
+            if (subjects) {
+                ids.set(pairs[i]);
+            }
+            if (objects) {
+                ids.set(pairs[i + 1]);
+            }
+        }
+    }
+
+    private static BitSet reflexive(BitSet ids, IntTable closure) {
+        BitSet reflexive = (BitSet) ids.clone();
+
+        for (int sub = ids.nextSetBit(0); sub >= 0; sub = ids.nextSetBit(sub + 1)) {
+            for (int i = 0; i < closure.size(sub); i++) {
+                reflexive.set(closure.get(sub, i));
+            }
+        }
+
+        return reflexive;
+    }
+
+    /**
+     * A SHA-256 based hash of the schema statements that doesn't depend on their order, since neither the schema
+     * repository nor the store guarantee one. The contexts are left out because the schema doesn't depend on them.
+     */
+    static byte[] hash(SchemaStatements schemaStatements) {
+        MessageDigest digest = sha256();
+        long[] sum = new long[HASH_LENGTH / 8];
+
+        for (List<Statement> statements : Arrays.asList(schemaStatements.subClassOf, schemaStatements.properties,
+            schemaStatements.subPropertyOf, schemaStatements.range, schemaStatements.domain, schemaStatements.inverseOf,
+            schemaStatements.transitive, schemaStatements.symmetric)) {
+
+            for (Statement statement : statements) {
+                update(digest, statement.getSubject());
+                update(digest, statement.getPredicate());
+                update(digest, statement.getObject());
+
+                ByteBuffer statementHash = ByteBuffer.wrap(digest.digest());
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] += statementHash.getLong();
+                }
+            }
+        }
+
+        ByteBuffer hash = ByteBuffer.allocate(HASH_LENGTH);
+        for (long lane : sum) {
+            hash.putLong(lane);
+        }
+        return hash.array();
+    }
+
+    private static void update(MessageDigest digest, Value value) {
+        if (value instanceof IRI) {
+            digest.update((byte) 'I');
+        } else if (value instanceof BNode) {
+            digest.update((byte) 'B');
+        } else {
+            Literal literal = (Literal) value;
+            digest.update((byte) 'L');
+            digest.update(literal.getDatatype().stringValue().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(literal.getLanguage().orElse("").getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+
+        digest.update(value.stringValue().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes to a temporary file that is then moved in place, so a crash never leaves a partial snapshot behind.
+     */
+    void write(File file, byte[] hash) throws IOException {
+        File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.write(hash);
+
+            out.writeInt(dictionary.size());
+            for (int id = 0; id < dictionary.size(); id++) {
+                byte[] term = dictionary.get(id).stringValue().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(term.length);
+                out.write(term);
+            }
+            while (out.size() % 4 != 0) {
+                out.writeByte(0);
+            }
+
+            for (BitSet bitSet : new BitSet[]{classes, properties, reflexiveClasses, reflexiveProperties, transitiveProperties, symmetricProperties}) {
+                long[] words = bitSet.toLongArray();
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+            }
+
+            for (IntTable table : new IntTable[]{calculatedTypes, calculatedProperties, calculatedRange, calculatedDomain, inverseProperties}) {
+                IntBuffer offsets = table.offsets();
+                IntBuffer values = table.values();
+                out.writeInt(offsets.remaining());
+                out.writeInt(values.remaining());
+                while (offsets.hasRemaining()) {
+                    out.writeInt(offsets.get());
+                }
+                while (values.hasRemaining()) {
+                    out.writeInt(values.get());
+                }
+            }
+        }
+
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return the snapshot in the file, or null if there is none, it was compiled from a different schema or it
+     * can't be read
+     */
+    static CompiledSchema read(File file, byte[] hash, ValueFactory valueFactory) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            byte[] snapshotHash = new byte[HASH_LENGTH];
+            buffer.get(snapshotHash);
+            if (!Arrays.equals(hash, snapshotHash)) {
+                return null;
+            }
+
+            SchemaDictionary dictionary = new SchemaDictionary(valueFactory);
+            int terms = buffer.getInt();
+            for (int id = 0; id < terms; id++) {
+                byte[] term = new byte[buffer.getInt()];
+                buffer.get(term);
+                if (dictionary.add(SimpleValueFactory.getInstance().createIRI(new String(term, StandardCharsets.UTF_8))) != id) {
+                    return null;
+                }
+            }
+            buffer.position((buffer.position() + 3) & ~3);
+
+            BitSet[] bitSets = new BitSet[6];
+            for (int i = 0; i < bitSets.length; i++) {
+                int words = buffer.getInt();
+                LongBuffer longs = buffer.asLongBuffer();
+                longs.limit(words);
+                bitSets[i] = BitSet.valueOf(longs);
+                buffer.position(buffer.position() + words * 8);
+            }
+
+            IntTable[] tables = new IntTable[5];
+            for (int i = 0; i < tables.length; i++) {
+                int offsetCount = buffer.getInt();
+                int valueCount = buffer.getInt();
+
+                IntBuffer offsets = buffer.asIntBuffer();
+                offsets.limit(offsetCount);
+                buffer.position(buffer.position() + offsetCount * 4);
+
+                IntBuffer values = buffer.asIntBuffer();
+                values.limit(valueCount);
+                buffer.position(buffer.position() + valueCount * 4);
+
+                tables[i] = IntTable.of(offsets, values);
+            }
+
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+
+            return new CompiledSchema(dictionary, bitSets[0], bitSets[1], bitSets[2], bitSets[3], bitSets[4], bitSets[5],
+                tables[0], tables[1], tables[2], tables[3], tables[4], true);
+
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            // a truncated or otherwise damaged snapshot is compiled again and overwritten
+            return null;
+        }
+    }
+
+}
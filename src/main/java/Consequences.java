@@ -0,0 +1,109 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A set of statements grouped by subject and context. Statements are compared on subject, predicate, object and
+ * context, since the Statement implementations don't compare the context.
+ */
+final class Consequences implements InferenceSink {
+
+    private final Map<List<Value>, Set<List<Value>>> groups = new LinkedHashMap<>();
+
+    @Override
+    public void accept(Resource subject, IRI predicate, Value object, Resource... contexts) {
+        if (contexts.length == 0) {
+            groups.computeIfAbsent(Arrays.asList(subject, null), k -> new HashSet<>()).add(key(subject, predicate, object, null));
+        }
+        for (Resource context : contexts) {
+            groups.computeIfAbsent(Arrays.asList(subject, context), k -> new HashSet<>()).add(key(subject, predicate, object, context));
+        }
+    }
+
+    void remove(Resource subject, IRI predicate, Value object, Resource... contexts) {
+        if (contexts.length == 0) {
+            remove(subject, predicate, object, (Resource) null);
+        }
+        for (Resource context : contexts) {
+            List<Value> group = Arrays.asList(subject, context);
+            Set<List<Value>> statements = groups.get(group);
+            if (statements != null && statements.remove(key(subject, predicate, object, context)) && statements.isEmpty()) {
+                groups.remove(group);
+            }
+        }
+    }
+
+    boolean contains(Resource subject, IRI predicate, Value object, Resource context) {
+        Set<List<Value>> statements = groups.get(Arrays.asList(subject, context));
+        return statements != null && statements.contains(key(subject, predicate, object, context));
+    }
+
+    boolean contains(List<Value> statement) {
+        return contains((Resource) statement.get(0), (IRI) statement.get(1), statement.get(2), (Resource) statement.get(3));
+    }
+
+    void removeIf(Predicate<List<Value>> filter) {
+        groups.values().forEach(statements -> statements.removeIf(filter));
+        groups.values().removeIf(Set::isEmpty);
+    }
+
+    boolean containsGroup(List<Value> group) {
+        return groups.containsKey(group);
+    }
+
+    /**
+     * @return the [subject, context] pairs with statements left in the set
+     */
+    List<List<Value>> groups() {
+        return new ArrayList<>(groups.keySet());
+    }
+
+    /**
+     * @return the statements as [subject, predicate, object, context] lists
+     */
+    List<List<Value>> statements() {
+        List<List<Value>> statements = new ArrayList<>();
+        groups.values().forEach(statements::addAll);
+        return statements;
+    }
+
+    boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    private static List<Value> key(Resource subject, IRI predicate, Value object, Resource context) {
+        return Arrays.asList(subject, predicate, object, context);
+    }
+
+}
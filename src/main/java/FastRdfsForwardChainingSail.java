@@ -23,67 +23,149 @@ import info.aduna.iteration.Iterations;
 import org.openrdf.IsolationLevel;
 import org.openrdf.IsolationLevels;
 import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.impl.SimpleValueFactory;
 import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryResult;
 import org.openrdf.rio.*;
+import org.openrdf.rio.helpers.StatementCollector;
+import org.openrdf.sail.NotifyingSail;
 import org.openrdf.sail.SailException;
-import org.openrdf.sail.helpers.AbstractNotifyingSail;
 import org.openrdf.sail.inferencer.InferencerConnection;
 import org.openrdf.sail.inferencer.fc.AbstractForwardChainingInferencer;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 import java.util.stream.Collectors;
 
+/**
+ * An RDFS inferencer that materializes the inferred statements when statements are added, using a schema compiled
+ * into lookup tables.
+ * <p>
+ * Transactions that write take a share of a sail wide lock when they first write, and hold it until they end.
+ * Removals, schema changes and changes to a transitive closure take it exclusively, so they wait for every
+ * transaction that has written, but not for transactions that only read. In exchange a snapshot transaction that
+ * first writes after another transaction changed the schema fails with a conflict. The lock isn't reentrant, so a
+ * thread that would wait for a transaction it has open on another connection of the sail fails with a SailException
+ * instead.
+ */
 public class FastRdfsForwardChainingSail extends AbstractForwardChainingInferencer {
 
-    final AbstractNotifyingSail data;
+    final NotifyingSail data;
     final Repository schema;
 
-    boolean sesameCompliant = false;
-
-    List<Statement> subClassOfStatemenets = new ArrayList<>();
-    List<Statement> propertyStatements = new ArrayList<>();
-    List<Statement> subPropertyOfStatemenets = new ArrayList<>();
-    List<Statement> rangeStatemenets = new ArrayList<>();
-    List<Statement> domainStatemenets = new ArrayList<>();
-
-
-    Map<IRI, HashSet<IRI>> calculatedTypes = new HashMap<>();
-    Map<IRI, HashSet<IRI>> calculatedProperties = new HashMap<>();
-    Map<IRI, HashSet<IRI>> calculatedRange = new HashMap<>();
-    Map<IRI, HashSet<IRI>> calculatedDomain = new HashMap<>();
-
-
-    void clearInferenceTables() {
-        subClassOfStatemenets = new ArrayList<>();
-        propertyStatements = new ArrayList<>();
-        subPropertyOfStatemenets = new ArrayList<>();
-        rangeStatemenets = new ArrayList<>();
-        domainStatemenets = new ArrayList<>();
-        calculatedTypes = new HashMap<>();
-        calculatedProperties = new HashMap<>();
-        calculatedRange = new HashMap<>();
-        calculatedDomain = new HashMap<>();
-
-
-    }
-
-
-    public FastRdfsForwardChainingSail(AbstractNotifyingSail data) {
+    // the rules applied to the data, compiled into the schema tables
+    RuleProfile ruleProfile = RuleProfile.RDFS;
+
+    // Statements that are produced when read instead of being stored, see setVirtualTrivialEntailments and
+    // setVirtualSchemaHierarchy.
+    boolean virtualTrivialEntailments = false;
+    boolean virtualSchemaHierarchy = false;
+
+    // Where inferred statements are stored instead of the context of the statements they were inferred from, see
+    // setInferenceContext and setInferenceGraphSuffix.
+    IRI inferenceContext = null;
+    String inferenceGraphSuffix = null;
+
+    // number of recently inferred statements each connection remembers to avoid writing them again
+    int inferredStatementCacheSize = 1 << 14;
+
+    // inferred statements a transaction collects in memory before spilling them to disk, 0 to write them right away
+    int writeBufferSize = 0;
+
+    // threads used to infer everything again after the inferred statements were cleared
+    int rematerializationThreads = Runtime.getRuntime().availableProcessors();
+
+    // statements per transaction when loading files
+    long loadCommitSize = 1_000_000;
+
+    // Infers on a background thread in asynchronous inference mode while the sail is initialized, null otherwise. See
+    // setAsyncInference.
+    boolean asyncInference = false;
+    int asyncInferenceBatchSize = 100_000;
+    int asyncInferenceQueueSize = 1_000_000;
+    volatile AsyncMaterializer materializer;
+
+    // per rule counts and timings, registered as an MXBean while the sail is initialized unless jmxEnabled is false
+    final InferenceMetrics metrics = new InferenceMetrics();
+    boolean jmxEnabled = true;
+    private ObjectName metricsName;
+
+    // where the compiled schema is persisted, or null to compile it on every start
+    private File dataDir;
+    private final Object schemaFileLock = new Object();
+
+    // The compiled schema. A transaction that changes it builds new tables and publishes them here when it commits.
+    volatile SchemaTables tables = SchemaTables.EMPTY;
+
+    // the data sail's value factory, which a MemoryStore only has once it is initialized
+    private volatile ValueFactory valueFactory = SimpleValueFactory.getInstance();
+
+    // Transactions share this lock from when they first write or infer until they end. A transaction that changes the
+    // schema, or infers everything again, holds it exclusively from then on, so that no other transaction infers with
+    // the old schema meanwhile. It is a StampedLock since a transaction may be committed by another thread than the
+    // one that began it.
+    final StampedLock transactionLock = new StampedLock();
+    // the thread that last took a connection's share of the transaction lock or the store writer
+    final Map<FastRdfsForwardChainingSailConnetion, Thread> lockHolders = new ConcurrentHashMap<>();
+
+    // Held by the transaction whose writes the store holds: from the first write without isolation, and while an
+    // isolated transaction commits. Transactions wait for it without a share of the transaction lock, so the one the
+    // store holds for can take the transaction lock exclusively. Acquired before the transaction lock, and a Semaphore
+    // for the same reason as the StampedLock.
+    final Semaphore storeWriter = new Semaphore(1);
+    // set while the transaction that holds the store writer may wait for the transaction lock: one without isolation,
+    // or one that takes back its share after waiting for the store writer
+    volatile boolean storeWriterMayWait = false;
+
+    // incremented when a transaction that wrote something commits
+    final AtomicLong commits = new AtomicLong();
+
+    // Set when a transaction without isolation was rolled back. The store may have kept its statements, so the next
+    // transaction that infers reads the schema from the store again.
+    volatile boolean schemaStale = false;
+
+    // Set when statements committed in asynchronous inference mode won't be inferred by the materializer, because it
+    // failed or they couldn't be queued. The next transaction that infers clears the inferred statements and infers
+    // everything again.
+    volatile boolean inferredStale = false;
+
+    // stored schema statements the index can't describe, such as the ones in named graphs, which are served alongside
+    // it. When there are too many of those, or they may have been removed, the index is incomplete and not used.
+    final Set<List<Value>> schemaIndexExtras = ConcurrentHashMap.newKeySet();
+    volatile boolean schemaIndexIncomplete = false;
+    static final int SCHEMA_INDEX_EXTRAS_LIMIT = 4096;
+
+    // the baseRDFS statements that are added as inferred statements when there is a schema repository
+    final Set<Statement> axioms = new HashSet<>();
+
+
+    public FastRdfsForwardChainingSail(NotifyingSail data) {
         super(data);
         schema = null;
         this.data = data;
 
     }
 
-    public FastRdfsForwardChainingSail(AbstractNotifyingSail data, Repository schema) {
+    public FastRdfsForwardChainingSail(NotifyingSail data, Repository schema) {
         super(data);
 
         this.data = data;
@@ -91,31 +173,43 @@ public class FastRdfsForwardChainingSail extends AbstractForwardChainingInferenc
 
     }
 
-    public FastRdfsForwardChainingSail(AbstractNotifyingSail data, boolean sesameCompliant) {
+    public FastRdfsForwardChainingSail(NotifyingSail data, boolean sesameCompliant) {
         super(data);
         schema = null;
 
         this.data = data;
-        this.sesameCompliant = sesameCompliant;
+        this.ruleProfile = sesameCompliant ? RuleProfile.SESAME : RuleProfile.RDFS;
 
     }
 
-    public FastRdfsForwardChainingSail(AbstractNotifyingSail data, Repository schema, boolean sesameCompliant) {
+    public FastRdfsForwardChainingSail(NotifyingSail data, Repository schema, boolean sesameCompliant) {
         super(data);
 
         this.data = data;
         this.schema = schema;
-        this.sesameCompliant = sesameCompliant;
+        this.ruleProfile = sesameCompliant ? RuleProfile.SESAME : RuleProfile.RDFS;
 
     }
 
 
     public void initialize() throws SailException {
         super.initialize();
+        valueFactory = data.getValueFactory();
+
+        tables = SchemaTables.EMPTY;
+        schemaStale = false;
+        schemaIndexExtras.clear();
+        schemaIndexIncomplete = false;
 
         FastRdfsForwardChainingSailConnetion connection = getConnection();
         connection.begin();
 
+        // the store may already hold data that was inferred with a different schema
+        connection.inferredCleared = true;
+
+        // without a schema repository the schema is read from the store when the transaction is flushed
+        connection.schemaStale = schema == null;
+
 
         List<Statement> schemaStatements = new ArrayList<>();
 
@@ -134,65 +228,474 @@ public class FastRdfsForwardChainingSail extends AbstractForwardChainingInferenc
             }
 
             iterateOverSchema(connection);
-        }
 
-
-        connection.temp();
+            connection.temp();
+        }
 
         schemaStatements.forEach(s -> connection.addStatement(s.getSubject(), s.getPredicate(), s.getObject(), s.getContext()));
 
         connection.commit();
         connection.close();
 
+        // only a sail that initialized is registered, a failed initialize() leaves nothing behind to unregister
+        if (jmxEnabled) {
+            registerMetrics();
+        }
+
+        if (asyncInference) {
+            materializer = new AsyncMaterializer(this, asyncInferenceBatchSize, asyncInferenceQueueSize);
+        }
     }
 
-    private void iterateOverSchema(FastRdfsForwardChainingSailConnetion connection) {
+    @Override
+    public void shutDown() throws SailException {
+        try {
+            // what is still queued is inferred before the store shuts down
+            AsyncMaterializer materializer = this.materializer;
+            if (materializer != null) {
+                this.materializer = null;
+                materializer.shutDown();
+            }
+        } finally {
+            try {
+                super.shutDown();
+            } finally {
+                valueFactory = SimpleValueFactory.getInstance();
+                unregisterMetrics();
+            }
+        }
+    }
+
+    private void registerMetrics() throws SailException {
         try {
+            ObjectName name = new ObjectName("com.fluffyelephant:type=FastRdfsForwardChainingSail,id=" + System.identityHashCode(this));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(metrics, InferenceMetricsMXBean.class, true), name);
+            metricsName = name;
+        } catch (JMException e) {
+            throw new SailException(e);
+        }
+    }
+
+    private void unregisterMetrics() throws SailException {
+        if (metricsName == null) {
+            return;
+        }
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(metricsName)) {
+                server.unregisterMBean(metricsName);
+            }
+        } catch (JMException e) {
+            throw new SailException(e);
+        } finally {
+            metricsName = null;
+        }
+    }
+
+    private void iterateOverSchema(FastRdfsForwardChainingSailConnetion connection) {
+        for (Statement statement : baseRdfsStatements) {
+            connection.statementCollector(statement);
+            axioms.add(statement);
+            connection.addInferredStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(), inferenceContexts());
+        }
+    }
 
+    private static List<Statement> parseBaseRdfs() {
+        List<Statement> statements = new ArrayList<>();
 
+        try {
             RDFParser parser = Rio.createParser(RDFFormat.TURTLE);
-            parser.setRDFHandler(new RDFHandler() {
-                @Override
-                public void startRDF() throws RDFHandlerException {
+            parser.setRDFHandler(new StatementCollector(statements));
+            parser.parse(new ByteArrayInputStream(baseRDFS.getBytes("UTF-8")), "");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
 
-                }
+        return Collections.unmodifiableList(statements);
+    }
 
-                @Override
-                public void endRDF() throws RDFHandlerException {
 
-                }
+    /**
+     * Adds a large number of statements in a single transaction, inferring them on all available cores.
+     */
+    public void bulkLoad(Iterable<? extends Statement> statements) throws SailException {
+        bulkLoad(statements.iterator(), Runtime.getRuntime().availableProcessors());
+    }
 
-                @Override
-                public void handleNamespace(String s11, String s1) throws RDFHandlerException {
+    /**
+     * Adds a large number of statements in a single transaction. The statements are inferred on the given number of
+     * threads and written by the calling thread. Schema statements in the source are merged into the schema at the
+     * end, and the statements they affect are inferred again then.
+     */
+    public void bulkLoad(Iterator<? extends Statement> statements, int threads) throws SailException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        }
 
-                }
+        FastRdfsForwardChainingSailConnetion connection = getConnection();
+        try {
+            connection.begin();
+            new BulkLoader(connection, threads, inferredStatementCacheSize).load(statements);
+            connection.commit();
+        } finally {
+            if (connection.isActive()) {
+                connection.rollback();
+            }
+            connection.close();
+        }
+    }
 
-                @Override
-                public void handleStatement(Statement statement) throws RDFHandlerException {
-                    connection.statementCollector(statement);
-                    connection.addInferredStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
-                }
+    /**
+     * Loads an RDF file on all available cores, see {@link #load(File, RDFFormat, String, int)}.
+     */
+    public void load(File file, RDFFormat format, String baseURI) throws IOException, SailException {
+        load(file, format, baseURI, Runtime.getRuntime().availableProcessors());
+    }
 
-                @Override
-                public void handleComment(String s1) throws RDFHandlerException {
+    /**
+     * Loads an RDF file straight from the parser into the store, inferring on the given number of threads and
+     * committing every loadCommitSize statements. N-Triples and N-Quads files are split into chunks at line breaks that
+     * are parsed in parallel, other formats are parsed by the calling thread. Schema statements in the file are merged
+     * into the schema when the transaction they are in is committed. If loading fails, the statements committed
+     * before stay in the store.
+     */
+    public void load(File file, RDFFormat format, String baseURI, int threads) throws IOException, SailException {
+        load(threads, loader -> loader.load(file, format, baseURI, getValueFactory()));
+    }
 
-                }
-            });
+    /**
+     * Loads RDF from a stream, parsed by the calling thread and inferred on all available cores, committing every
+     * loadCommitSize statements.
+     */
+    public void load(InputStream in, RDFFormat format, String baseURI) throws IOException, SailException {
+        load(Runtime.getRuntime().availableProcessors(), loader -> loader.load(in, format, baseURI, getValueFactory()));
+    }
 
-            parser.parse(new ByteArrayInputStream(baseRDFS.getBytes("UTF-8")), "");
+    private interface Load {
+        void into(BulkLoader loader) throws IOException;
+    }
+
+    private void load(int threads, Load load) throws IOException, SailException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        }
+
+        FastRdfsForwardChainingSailConnetion connection = getConnection();
+        try {
+            connection.begin();
+            load.into(new BulkLoader(connection, threads, inferredStatementCacheSize, loadCommitSize));
+            connection.commit();
+        } finally {
+            if (connection.isActive()) {
+                connection.rollback();
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * Estimates what inferencing a dataset with the current schema would add, from how many statements use each
+     * predicate and how many rdf:type statements each class has. Nothing is written.
+     */
+    public MaterializationEstimate estimateMaterialization(Map<IRI, Long> predicateCounts, Map<IRI, Long> classCounts) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = getConnection();
+        try {
+            return MaterializationEstimate.fromCounts(connection, tables, predicateCounts, classCounts);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Estimates what inferencing a dataset with the current schema would add by inferring from a sample of it and
+     * scaling the result up to the size of the dataset. Nothing is written.
+     */
+    public MaterializationEstimate estimateMaterialization(Iterable<? extends Statement> sample, long datasetSize) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = getConnection();
+        try {
+            return MaterializationEstimate.fromSample(connection, tables, sample, datasetSize);
+        } finally {
+            connection.close();
+        }
+    }
+
+    public void setLoadCommitSize(long loadCommitSize) {
+        if (loadCommitSize < 1) {
+            throw new IllegalArgumentException("loadCommitSize must be at least 1, was " + loadCommitSize);
+        }
+        this.loadCommitSize = loadCommitSize;
+    }
+
+    /**
+     * Store only the explicit statements when a transaction commits, and infer from them on a background thread in
+     * transactions of up to asyncInferenceBatchSize statements. Commits return sooner while the inferred statements
+     * lag behind, see getInferredSequence and awaitInferred. Schema changes, bulkLoad and load still infer right away.
+     * A transaction that removes statements waits for the background inferencing to commit what it is working on.
+     * Statements that are still queued when the process stops without shutting the sail down are not inferred,
+     * clearInferred() infers everything again. Set this before initializing the sail.
+     */
+    public void setAsyncInference(boolean asyncInference) {
+        this.asyncInference = asyncInference;
+    }
+
+    public boolean isAsyncInference() {
+        return asyncInference;
+    }
+
+    public void setAsyncInferenceBatchSize(int asyncInferenceBatchSize) {
+        if (asyncInferenceBatchSize < 1) {
+            throw new IllegalArgumentException("asyncInferenceBatchSize must be at least 1, was " + asyncInferenceBatchSize);
+        }
+        this.asyncInferenceBatchSize = asyncInferenceBatchSize;
+    }
+
+    /**
+     * Commits wait while this many statements or more wait to be inferred in asynchronous inference mode.
+     */
+    public void setAsyncInferenceQueueSize(int asyncInferenceQueueSize) {
+        if (asyncInferenceQueueSize < 1) {
+            throw new IllegalArgumentException("asyncInferenceQueueSize must be at least 1, was " + asyncInferenceQueueSize);
+        }
+        this.asyncInferenceQueueSize = asyncInferenceQueueSize;
+    }
+
+    /**
+     * The sequence number of the last commit that added statements in asynchronous inference mode. A commit that
+     * returned before this is called has this number or a lower one. 0 before the first such commit and when
+     * inferring synchronously.
+     */
+    public long getCommitSequence() {
+        AsyncMaterializer materializer = this.materializer;
+        return materializer != null ? materializer.sequence() : 0;
+    }
+
+    /**
+     * The watermark of asynchronous inference: everything the commits up to this sequence number infer is stored.
+     */
+    public long getInferredSequence() {
+        AsyncMaterializer materializer = this.materializer;
+        return materializer != null ? materializer.watermark() : 0;
+    }
+
+    /**
+     * Waits until the commits up to the sequence number are inferred.
+     *
+     * @return false if the timeout passed first
+     * @throws SailException if inferring the queued statements failed
+     */
+    public boolean awaitInferred(long sequence, long timeout, TimeUnit unit) throws InterruptedException, SailException {
+        AsyncMaterializer materializer = this.materializer;
+        return materializer == null || materializer.await(sequence, timeout, unit);
+    }
+
+    /**
+     * Waits until everything committed before this call is inferred.
+     *
+     * @throws SailException if inferring the queued statements failed
+     */
+    public void awaitInferred() throws InterruptedException, SailException {
+        AsyncMaterializer materializer = this.materializer;
+        if (materializer != null) {
+            materializer.await(materializer.sequence(), Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void setRematerializationThreads(int rematerializationThreads) {
+        if (rematerializationThreads < 1) {
+            throw new IllegalArgumentException("rematerializationThreads must be at least 1, was " + rematerializationThreads);
+        }
+        this.rematerializationThreads = rematerializationThreads;
+    }
+
+    public void setInferredStatementCacheSize(int inferredStatementCacheSize) {
+        this.inferredStatementCacheSize = inferredStatementCacheSize;
+    }
+
+    /**
+     * Collect the inferred statements of each transaction and write them to the store sorted and without duplicates
+     * when the transaction is flushed, instead of one at a time as they are inferred. This suits disk based stores
+     * such as the NativeStore. The statements are kept off the heap as term ids, 16 bytes each, with only their
+     * distinct terms on the heap, so the size is also the memory limit: a connection that buffers takes up to
+     * 16 * writeBufferSize bytes of direct memory and at most four terms per buffered statement. Beyond that they are
+     * spilled to files in the data directory, or the temporary directory without one. 0, the default, writes them
+     * right away.
+     */
+    public void setWriteBufferSize(int writeBufferSize) {
+        if (writeBufferSize < 0 || writeBufferSize > InferredStatementBuffer.MAX_SIZE) {
+            throw new IllegalArgumentException("writeBufferSize must be between 0 and " + InferredStatementBuffer.MAX_SIZE + ", was " + writeBufferSize);
+        }
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    /**
+     * The rules to apply to the data. The constructors pick RuleProfile.SESAME or RuleProfile.RDFS by sesameCompliant,
+     * RuleProfile.RDFS_PLUS adds the OWL property rules, and RuleProfile.MINIMAL or RuleProfile.of(rules) apply fewer
+     * rules. Set this before initializing the sail, or clear the inferred statements after changing it.
+     */
+    public void setRuleProfile(RuleProfile ruleProfile) {
+        this.ruleProfile = Objects.requireNonNull(ruleProfile, "ruleProfile");
+    }
+
+    public RuleProfile getRuleProfile() {
+        return ruleProfile;
+    }
+
+    /**
+     * Don't store the reflexive rdfs:subClassOf and rdfs:subPropertyOf statements, nor rdf:type rdfs:Resource for
+     * every subject and object when the rule profile includes rdfs4a/rdfs4b. They are calculated from the explicit
+     * statements and the schema when statements are read or queried instead. Set this before initializing the sail,
+     * or clear the inferred statements after changing it.
+     */
+    public void setVirtualTrivialEntailments(boolean virtualTrivialEntailments) {
+        this.virtualTrivialEntailments = virtualTrivialEntailments;
+    }
+
+    /**
+     * Don't store the rdfs:subClassOf and rdfs:subPropertyOf closure of the schema, but read it from the compiled
+     * schema tables when statements are read or queried.
+     */
+    public void setVirtualSchemaHierarchy(boolean virtualSchemaHierarchy) {
+        this.virtualSchemaHierarchy = virtualSchemaHierarchy;
+    }
+
+    /**
+     * Store every inferred statement in the given context instead of the contexts of the statements it was inferred
+     * from, so that all inferred statements can be dropped by clearing that context. With an inference graph suffix
+     * this is only the context of the statements inferred from the default context. Set this before initializing the
+     * sail, or clear the inferred statements after changing it.
+     */
+    public void setInferenceContext(IRI inferenceContext) {
+        this.inferenceContext = inferenceContext;
+    }
 
+    /**
+     * Store the statements inferred from each named graph in a graph of their own, named by appending the suffix to
+     * the IRI of the graph. Clearing a named graph then drops its inference graph along with it. Set this before
+     * initializing the sail, or clear the inferred statements after changing it.
+     */
+    public void setInferenceGraphSuffix(String inferenceGraphSuffix) {
+        if (inferenceGraphSuffix != null && inferenceGraphSuffix.isEmpty()) {
+            throw new IllegalArgumentException("inferenceGraphSuffix must not be empty");
+        }
+        this.inferenceGraphSuffix = inferenceGraphSuffix;
+    }
+
+    boolean infersIntoSourceContexts() {
+        return inferenceContext == null && inferenceGraphSuffix == null;
+    }
+
+    /**
+     * The context the statements inferred from the given context are stored in. Blank node graphs can't be named, so
+     * they keep their inferred statements.
+     */
+    Resource inferenceContext(Resource context) {
+        if (inferenceGraphSuffix == null) {
+            return inferenceContext != null ? inferenceContext : context;
+        }
+        if (context == null) {
+            return inferenceContext;
+        }
+        return context instanceof IRI ? getValueFactory().createIRI(context.stringValue() + inferenceGraphSuffix) : context;
+    }
 
-        } catch (IOException ignored) {
+    Resource[] inferenceContexts(Resource... contexts) {
+        if (infersIntoSourceContexts()) {
+            return contexts;
         }
+        if (contexts.length == 0) {
+            Resource context = inferenceContext(null);
+            return context == null ? contexts : new Resource[]{context};
+        }
+        return Arrays.stream(contexts).map(this::inferenceContext).distinct().toArray(Resource[]::new);
+    }
+
+    /**
+     * The contexts whose inferred statements are stored in the given context, or none for all of them.
+     */
+    Resource[] sourceContexts(Resource inferenceContext) {
+        if (inferenceGraphSuffix == null) {
+            return this.inferenceContext == null ? new Resource[]{inferenceContext} : new Resource[0];
+        }
+        if (Objects.equals(inferenceContext, this.inferenceContext)) {
+            return new Resource[]{null};
+        }
+        if (inferenceContext instanceof IRI && inferenceContext.stringValue().endsWith(inferenceGraphSuffix)) {
+            String source = inferenceContext.stringValue();
+            return new Resource[]{getValueFactory().createIRI(source.substring(0, source.length() - inferenceGraphSuffix.length()))};
+        }
+        return new Resource[]{inferenceContext};
+    }
+
+    boolean virtualResourceTypes() {
+        return virtualTrivialEntailments && ruleProfile.includes(InferenceRule.RESOURCE_TYPE);
+    }
+
+    boolean hasVirtualEntailments() {
+        return virtualTrivialEntailments || virtualSchemaHierarchy;
+    }
+
+    /**
+     * Counts of what each RDFS rule inferred and timings of schema compilation, inferencing and commits. The same
+     * object is registered as an MXBean under com.fluffyelephant:type=FastRdfsForwardChainingSail when the sail is
+     * initialized.
+     */
+    public InferenceMetricsMXBean getMetrics() {
+        return metrics;
     }
 
+    public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+    }
 
-    public void setDataDir(File file) {
-        throw new UnsupportedOperationException();
+    /**
+     * The directory the compiled schema is kept in between restarts. It is only used by this sail; the data sail
+     * keeps its own data directory.
+     */
+    public void setDataDir(File dataDir) {
+        this.dataDir = dataDir;
     }
 
     public File getDataDir() {
-        throw new UnsupportedOperationException();
+        return dataDir;
+    }
+
+    /**
+     * Maps the snapshot in the data directory if it was compiled from the same schema statements, otherwise compiles
+     * the schema. The snapshot is replaced by saveSchema once the transaction that compiled it has committed.
+     */
+    CompiledSchema compileSchema(SchemaStatements schemaStatements) throws SailException {
+        if (dataDir == null) {
+            return CompiledSchema.compile(schemaStatements, getValueFactory());
+        }
+
+        File file = new File(dataDir, CompiledSchema.FILE_NAME);
+        try {
+            CompiledSchema compiled = CompiledSchema.read(file, CompiledSchema.hash(schemaStatements), getValueFactory());
+            return compiled != null ? compiled : CompiledSchema.compile(schemaStatements, getValueFactory());
+        } catch (IOException e) {
+            throw new SailException("Could not read the compiled schema in " + file, e);
+        }
+    }
+
+    /**
+     * Replaces the snapshot in the data directory with a schema that was compiled instead of mapped.
+     */
+    void saveSchema(SchemaStatements schemaStatements, CompiledSchema compiled) throws SailException {
+        if (dataDir == null || compiled.loaded) {
+            return;
+        }
+
+        File file = new File(dataDir, CompiledSchema.FILE_NAME);
+        // transactions that changed the schema save it after they let go of the sail, and share the temporary file
+        synchronized (schemaFileLock) {
+            try {
+                Files.createDirectories(dataDir.toPath());
+                compiled.write(file, CompiledSchema.hash(schemaStatements));
+            } catch (IOException e) {
+                throw new SailException("The transaction is committed, but the compiled schema could not be written to " + file, e);
+            }
+        }
     }
 
 
@@ -201,14 +704,28 @@ public class FastRdfsForwardChainingSail extends AbstractForwardChainingInferenc
         return new FastRdfsForwardChainingSailConnetion(this, e);
     }
 
+    /**
+     * The value factory of the data sail while it is initialized, so that the values handed to it are its own.
+     */
     public ValueFactory getValueFactory() {
-
-        return SimpleValueFactory.getInstance();
+        return valueFactory;
     }
 
+    /**
+     * NONE, and READ_COMMITTED, SNAPSHOT_READ and SNAPSHOT when the data sail supports them. SERIALIZABLE isn't
+     * offered, since inferencing reads far more than a transaction changes, which would make most concurrent
+     * transactions conflict.
+     */
     public List<IsolationLevel> getSupportedIsolationLevels() {
+        List<IsolationLevel> supported = data.getSupportedIsolationLevels();
+
         ArrayList<IsolationLevel> isolationLevels = new ArrayList<>();
         isolationLevels.add(IsolationLevels.NONE);
+        for (IsolationLevel level : Arrays.asList(IsolationLevels.READ_COMMITTED, IsolationLevels.SNAPSHOT_READ, IsolationLevels.SNAPSHOT)) {
+            if (supported.contains(level)) {
+                isolationLevels.add(level);
+            }
+        }
 
         return isolationLevels;
     }
@@ -346,5 +863,8 @@ public class FastRdfsForwardChainingSail extends AbstractForwardChainingInferenc
             "        rdfs:range          rdf:Property ;\n" +
             "        rdfs:subPropertyOf  rdfs:subPropertyOf .";
 
+    // parsed once, since every sail with a schema repository starts out with these statements
+    private static final List<Statement> baseRdfsStatements = parseBaseRdfs();
+
 
 }
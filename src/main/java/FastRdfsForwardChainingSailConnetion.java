@@ -20,292 +20,1187 @@
 
 
 import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+import info.aduna.iteration.Iterations;
+import info.aduna.iteration.UnionIteration;
+import org.openrdf.IsolationLevel;
+import org.openrdf.IsolationLevels;
 import org.openrdf.model.*;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.evaluation.federation.FederatedServiceResolver;
 import org.openrdf.sail.NotifyingSailConnection;
+import org.openrdf.sail.SailConflictException;
 import org.openrdf.sail.SailException;
+import org.openrdf.sail.UpdateContext;
 import org.openrdf.sail.inferencer.InferencerConnection;
 import org.openrdf.sail.inferencer.fc.AbstractForwardChainingInferencerConnection;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public class FastRdfsForwardChainingSailConnetion extends AbstractForwardChainingInferencerConnection {
 
 
     private final FastRdfsForwardChainingSail fastRdfsForwardChainingSail;
     private final NotifyingSailConnection connection;
+    private final InferredStatementCache inferredStatementCache;
+
+    // inferred statements on their way to the store when the sail has a write buffer, null otherwise
+    private final InferredStatementBuffer writeBuffer;
+
+    // what this connection inferred since its counts were last added to the sail's metrics
+    private final InferenceCounters counters = new InferenceCounters();
+
+
+    private final VirtualEntailments virtualEntailments;
+    private FederatedServiceResolver federatedServiceResolver;
+
+    // The schema this connection infers with: the tables published when its transaction began, or the tables it
+    // compiled itself, which are published when it commits.
+    private SchemaTables tables;
+    private boolean tablesChanged = false;
+    // what temp() compiled the tables from, written to the data directory once the transaction has committed
+    private CompiledSchema compiledSchema;
+
+    // the share of the sail's transaction lock, taken when the transaction first writes or infers, 0 until then
+    private long transactionStamp = 0;
+    private boolean active = false;
+    private boolean exclusive = false;
+    private IsolationLevel isolationLevel;
+    private long commitsAtBegin;
+    private boolean written = false;
+    private boolean storeWriter = false;
+
+    // In asynchronous inference mode the statements this transaction added, which are handed to the materializer
+    // when it commits instead of being inferred here.
+    private AsyncMaterializer materializer;
+    private final List<Statement> queuedStatements = new ArrayList<>();
+    private long commitSequence = 0;
+
+    // Set when this transaction clears every inferred statement, so it infers everything again.
+    private boolean inferredReset = false;
 
 
     public FastRdfsForwardChainingSailConnetion(FastRdfsForwardChainingSail fastRdfsForwardChainingSail, InferencerConnection e) {
         super(fastRdfsForwardChainingSail, e);
         this.fastRdfsForwardChainingSail = fastRdfsForwardChainingSail;
         this.connection = e;
+        this.inferredStatementCache = new InferredStatementCache(fastRdfsForwardChainingSail.inferredStatementCacheSize);
+        this.writeBuffer = fastRdfsForwardChainingSail.writeBufferSize > 0
+            ? new InferredStatementBuffer(fastRdfsForwardChainingSail.writeBufferSize, fastRdfsForwardChainingSail.getValueFactory(), fastRdfsForwardChainingSail.getDataDir())
+            : null;
+        this.virtualEntailments = new VirtualEntailments(fastRdfsForwardChainingSail, e);
+        this.tables = fastRdfsForwardChainingSail.tables;
+    }
+
+    @Override
+    public CloseableIteration<? extends Statement, SailException> getStatements(Resource subj, IRI pred, Value obj, boolean includeInferred, Resource... contexts) throws SailException {
+        if (servedBySchemaIndex(pred, includeInferred)) {
+            return new CloseableIteratorIteration<>(schemaIndexStatements(subj, pred, obj, contexts).iterator());
+        }
+
+        CloseableIteration<? extends Statement, SailException> statements = super.getStatements(subj, pred, obj, includeInferred, contexts);
+
+        if (!includeInferred || !fastRdfsForwardChainingSail.hasVirtualEntailments()) {
+            return statements;
+        }
+
+        List<CloseableIteration<? extends Statement, SailException>> union = Arrays.asList(statements,
+            virtualEntailments.getStatements(readTables(), subj, pred, obj, contexts));
+        return new UnionIteration<>(union);
+    }
+
+    @Override
+    public boolean hasStatement(Resource subj, IRI pred, Value obj, boolean includeInferred, Resource... contexts) throws SailException {
+        if (servedBySchemaIndex(pred, includeInferred)) {
+            return schemaIndexStatements(subj, pred, obj, contexts).findAny().isPresent();
+        }
+
+        return super.hasStatement(subj, pred, obj, includeInferred, contexts);
     }
 
+    @Override
+    public CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluate(TupleExpr tupleExpr, Dataset dataset, BindingSet bindings, boolean includeInferred) throws SailException {
+        if (!includeInferred || !fastRdfsForwardChainingSail.hasVirtualEntailments()) {
+            return super.evaluate(tupleExpr, dataset, bindings, includeInferred);
+        }
+
+        flushUpdates();
+        return virtualEntailments.evaluate(this, tupleExpr, dataset, bindings, federatedServiceResolver);
+    }
+
+    @Override
+    public void setFederatedServiceResolver(FederatedServiceResolver resolver) {
+        super.setFederatedServiceResolver(resolver);
+        this.federatedServiceResolver = resolver;
+    }
+
+    private SchemaStatements addedSchemaStatements = new SchemaStatements();
+
+    // the schema statements collected at startup or when the schema is read from the store again, compiled by temp()
+    private SchemaStatements collectedSchemaStatements = new SchemaStatements();
+
     void statementCollector(Statement statement) {
-        Value object = statement.getObject();
-        IRI predicate = statement.getPredicate();
+        collectedSchemaStatements.add(statement);
+    }
 
-        if (predicate.equals(RDFS.SUBCLASSOF)) {
-            fastRdfsForwardChainingSail.subClassOfStatemenets.add(statement);
-        } else if (predicate.equals(RDF.TYPE) && object.equals(RDF.PROPERTY)) {
-            fastRdfsForwardChainingSail.propertyStatements.add(statement);
-        } else if (predicate.equals(RDFS.SUBPROPERTYOF)) {
-            fastRdfsForwardChainingSail.subPropertyOfStatemenets.add(statement);
-        } else if (predicate.equals(RDFS.RANGE)) {
-            fastRdfsForwardChainingSail.rangeStatemenets.add(statement);
-        } else if (predicate.equals(RDFS.DOMAIN)) {
-            fastRdfsForwardChainingSail.domainStatemenets.add(statement);
+    /**
+     * Compiles the collected schema statements into new tables for this transaction and adds the hierarchy they
+     * entail. The tables are published to the sail when the transaction commits.
+     */
+    void temp() throws SailException {
+        Object event = FlightRecorderEvents.beginSchemaCompilation();
+        long start = System.nanoTime();
+
+        CompiledSchema compiled = fastRdfsForwardChainingSail.compileSchema(collectedSchemaStatements);
+
+        SchemaDictionary dictionary = compiled.dictionary;
+
+        if (!fastRdfsForwardChainingSail.virtualSchemaHierarchy) {
+            emitClosure(compiled.classes, compiled.calculatedTypes, RDFS.SUBCLASSOF, dictionary);
+            emitClosure(compiled.properties, compiled.calculatedProperties, RDFS.SUBPROPERTYOF, dictionary);
+        }
+        if (!fastRdfsForwardChainingSail.virtualTrivialEntailments) {
+            emitReflexive(compiled.reflexiveClasses, RDFS.SUBCLASSOF, dictionary);
+            emitReflexive(compiled.reflexiveProperties, RDFS.SUBPROPERTYOF, dictionary);
         }
 
+        SchemaTables compiledTables = SchemaTables.of(collectedSchemaStatements, compiled,
+            fastRdfsForwardChainingSail.virtualResourceTypes(), fastRdfsForwardChainingSail.ruleProfile);
+
+        // the term counts are indexed by the ids of the dictionary that is being replaced
+        fastRdfsForwardChainingSail.metrics.addTerms(counters, tables.dictionary);
+
+        tables = compiledTables;
+        tablesChanged = true;
+        compiledSchema = compiled;
+
+        fastRdfsForwardChainingSail.metrics.schemaCompilation.record(System.nanoTime() - start);
+        FlightRecorderEvents.endSchemaCompilation(event, dictionary.size(), compiled.classes.cardinality(), compiled.properties.cardinality(), compiled.loaded);
     }
 
-    void temp() {
-        calculateSubClassOf(fastRdfsForwardChainingSail.subClassOfStatemenets);
-        findProperties(fastRdfsForwardChainingSail.propertyStatements);
-        calculateSubPropertyOf(fastRdfsForwardChainingSail.subPropertyOfStatemenets);
+    private void emitClosure(BitSet ids, IntTable closure, IRI predicate, SchemaDictionary dictionary) {
+        for (int sub = ids.nextSetBit(0); sub >= 0; sub = ids.nextSetBit(sub + 1)) {
+            IRI subIri = dictionary.get(sub);
 
-        calculateRangeDomain(fastRdfsForwardChainingSail.rangeStatemenets, fastRdfsForwardChainingSail.calculatedRange);
-        calculateRangeDomain(fastRdfsForwardChainingSail.domainStatemenets, fastRdfsForwardChainingSail.calculatedDomain);
+            for (int i = 0; i < closure.size(sub); i++) {
+                addInferredStatement(subIri, predicate, dictionary.get(closure.get(sub, i)), fastRdfsForwardChainingSail.inferenceContexts());
+            }
+        }
+    }
 
+    private void emitReflexive(BitSet reflexive, IRI predicate, SchemaDictionary dictionary) {
+        for (int id = reflexive.nextSetBit(0); id >= 0; id = reflexive.nextSetBit(id + 1)) {
+            IRI iri = dictionary.get(id);
+            addInferredStatement(iri, predicate, iri, fastRdfsForwardChainingSail.inferenceContexts());
+        }
+    }
 
-        fastRdfsForwardChainingSail.calculatedTypes.forEach((subClass, superClasses) -> {
-            addInferredStatement(subClass, RDFS.SUBCLASSOF, subClass);
 
-            superClasses.forEach(superClass -> {
-                addInferredStatement(subClass, RDFS.SUBCLASSOF, superClass);
-                addInferredStatement(superClass, RDFS.SUBCLASSOF, superClass);
+    // Set when every inferred statement has to be recalculated from the explicit statements in the store.
+    boolean inferredCleared = false;
 
-            });
-        });
+    // Without a schema repository the schema is read from the store again when this is set, which is the case at
+    // startup and after the inferred statements were cleared.
+    boolean schemaStale = false;
 
-        fastRdfsForwardChainingSail.calculatedProperties.forEach((sub, sups) -> {
-            addInferredStatement(sub, RDFS.SUBPROPERTYOF, sub);
+    // Set when the axioms and the hierarchy that temp() adds were cleared along with the other inferred statements.
+    private boolean schemaInferencesCleared = false;
 
-            sups.forEach(sup -> {
-                addInferredStatement(sub, RDFS.SUBPROPERTYOF, sup);
-                addInferredStatement(sup, RDFS.SUBPROPERTYOF, sup);
+    // Statements added through an UpdateContext (SPARQL updates). They are inferred in doInferencing.
+    private final List<Statement> uninferredStatements = new ArrayList<>();
 
-            });
-        });
+    @Override
+    public void clearInferred(Resource... contexts) throws SailException {
+        beforeWrite();
+        if (writeBuffer != null) {
+            if (contexts.length == 0) {
+                writeBuffer.clear();
+            } else {
+                drainWriteBuffer();
+            }
+        }
+
+        if (contexts.length == 0) {
+            // the schema index extras are replaced by the ones found when everything is inferred again
+            lockExclusively();
+            inferredReset = true;
+            pendingSchemaIndexExtras.clear();
+            schemaIndexReset = true;
+            schemaIndexIncomplete = false;
+        } else {
+            Set<Resource> cleared = new HashSet<>(Arrays.asList(contexts));
+            if (fastRdfsForwardChainingSail.schemaIndexExtras.stream().anyMatch(extra -> cleared.contains(extra.get(3)))) {
+                schemaIndexIncomplete = true;
+            }
+        }
+
+        inferredStatementCache.clear();
+        super.clearInferred(contexts);
+        inferredCleared = true;
+        written = true;
 
+        if (fastRdfsForwardChainingSail.schema == null) {
+            schemaStale = true;
+        } else {
+            schemaInferencesCleared = true;
+        }
     }
 
-    private Set<IRI> resolveTypes(IRI value) {
-        Set<IRI> iris = fastRdfsForwardChainingSail.calculatedTypes.get(value);
+    @Override
+    public boolean removeInferredStatement(Resource subject, IRI predicate, Value object, Resource... contexts) throws SailException {
+        drainWriteBuffer();
+        inferredStatementCache.clear();
+        checkSchemaIndexRemoval(subject, predicate, object, contexts);
+        return super.removeInferredStatement(subject, predicate, object, contexts);
+    }
 
-        return iris != null ? iris : Collections.emptySet();
+    @Override
+    public void begin(IsolationLevel level) throws SailException {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
+        inferredStatementCache.clear();
+
+        super.begin(level);
+
+        active = true;
+        exclusive = false;
+        isolationLevel = IsolationLevels.getCompatibleIsolationLevel(level != null ? level : sail.getDefaultIsolationLevel(), sail.getSupportedIsolationLevels());
+        commitsAtBegin = sail.commits.get();
+        // after the materializer failed, transactions infer what they add themselves
+        AsyncMaterializer materializer = sail.materializer;
+        this.materializer = materializer != null && !materializer.failed() ? materializer : null;
+        schemaStale |= sail.schemaStale;
+        tables = sail.tables;
+        tablesChanged = false;
+        compiledSchema = null;
+        written = false;
     }
 
-    private Set<IRI> resolveProperties(IRI predicate) {
-        Set<IRI> iris = fastRdfsForwardChainingSail.calculatedProperties.get(predicate);
+    /**
+     * The tables this transaction infers with, which are replaced when it changes the schema and when a new
+     * transaction begins.
+     */
+    SchemaTables tables() {
+        return tables;
+    }
 
-        return iris != null ? iris : Collections.emptySet();
+    /**
+     * The tables reads are answered with: the transaction's own, or the published ones outside a transaction. A
+     * transaction that only reads holds no share of the transaction lock, so the schema may change meanwhile, which
+     * only a snapshot doesn't see.
+     */
+    private SchemaTables readTables() {
+        if (transactionStamp == 0 && (!active || !isolationLevel.isCompatibleWith(IsolationLevels.SNAPSHOT_READ))) {
+            return fastRdfsForwardChainingSail.tables;
+        }
+        return tables;
     }
 
+    /**
+     * Takes a share of the sail's transaction lock when the transaction first writes or infers, so that the schema
+     * can't change while it infers. Transactions that only read never take one, so they don't hold back removals and
+     * schema changes. A snapshot transaction that would infer with a schema another transaction changed since it
+     * began fails with a conflict.
+     */
+    private void share() throws SailException {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
 
-    private Set<IRI> resolveRangeTypes(IRI predicate) {
-        Set<IRI> iris = fastRdfsForwardChainingSail.calculatedRange.get(predicate);
+        if (transactionStamp != 0 || !active) {
+            return;
+        }
+
+        long stamp = sail.transactionLock.tryReadLock();
+        if (stamp == 0) {
+            checkNoOtherTransactionOnThisThread();
+            try {
+                stamp = sail.transactionLock.readLockInterruptibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SailException(e);
+            }
+        }
+        transactionStamp = stamp;
+        trackLocks();
 
-        return iris != null ? iris : Collections.emptySet();
+        if (!tablesChanged && tables != sail.tables) {
+            if (isolationLevel.isCompatibleWith(IsolationLevels.SNAPSHOT_READ)) {
+                throw new SailConflictException("Another transaction changed the schema since this " + isolationLevel
+                    + " transaction began, retry it");
+            }
+            tables = sail.tables;
+        }
+        schemaStale |= sail.schemaStale;
     }
 
-    private Set<IRI> resolveDomainTypes(IRI predicate) {
-        Set<IRI> iris = fastRdfsForwardChainingSail.calculatedDomain.get(predicate);
+    /**
+     * The sail's locks aren't reentrant, and a transaction may be committed by another thread than the one that began
+     * it, so a thread that waits for a lock that its own transaction on another connection holds would wait forever.
+     * This is called before waiting, and fails instead.
+     */
+    private void checkNoOtherTransactionOnThisThread() throws SailException {
+        Thread thread = Thread.currentThread();
+        for (Map.Entry<FastRdfsForwardChainingSailConnetion, Thread> holder : fastRdfsForwardChainingSail.lockHolders.entrySet()) {
+            if (holder.getKey() != this && holder.getValue() == thread) {
+                throw new SailException("This thread has a transaction on another connection that this transaction would "
+                    + "wait for forever. Commit or roll back that transaction first.");
+            }
+        }
+    }
 
-        return iris != null ? iris : Collections.emptySet();
+    // records which thread holds this connection's locks, for checkNoOtherTransactionOnThisThread
+    private void trackLocks() {
+        if (transactionStamp != 0 || storeWriter) {
+            fastRdfsForwardChainingSail.lockHolders.put(this, Thread.currentThread());
+        } else {
+            fastRdfsForwardChainingSail.lockHolders.remove(this);
+        }
     }
 
+    /**
+     * Takes the sail's transaction lock exclusively before the schema is changed, everything is inferred again or the
+     * closure of a transitive property is changed. It waits for the other transactions to finish, and new ones wait
+     * for this one. Other transactions that committed since this one began inferred with the old schema, so a
+     * transaction that can't see their statements fails with a conflict. One that can see them continues from the
+     * schema they committed.
+     */
+    void lockExclusively() throws SailException {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
+
+        if (exclusive || !active) {
+            return;
+        }
+        // the others wait for this transaction anyway, and meanwhile the store holds no one else's writes
+        lockStoreWriter(true);
+
+        long stamp = transactionStamp != 0 ? sail.transactionLock.tryConvertToWriteLock(transactionStamp) : sail.transactionLock.tryWriteLock();
+        if (stamp == 0) {
+            if (transactionStamp != 0) {
+                sail.transactionLock.unlockRead(transactionStamp);
+                transactionStamp = 0;
+            }
+            checkNoOtherTransactionOnThisThread();
+            try {
+                stamp = sail.transactionLock.writeLockInterruptibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SailException(e);
+            }
+        }
+        transactionStamp = stamp;
+        exclusive = true;
+        trackLocks();
 
-    private void calculateSubClassOf(List<Statement> subClassOfStatements) {
-        subClassOfStatements.forEach(s -> {
-            IRI subClass = (IRI) s.getSubject();
-            if (!fastRdfsForwardChainingSail.calculatedTypes.containsKey(subClass)) {
-                fastRdfsForwardChainingSail.calculatedTypes.put(subClass, new HashSet<>());
+        if (sail.commits.get() != commitsAtBegin && isolationLevel.isCompatibleWith(IsolationLevels.SNAPSHOT_READ)) {
+            throw new SailConflictException("Other transactions committed while this " + isolationLevel
+                + " transaction changed the schema, cleared the inferred statements or changed a transitive property, retry it");
+        }
+
+        if (!tablesChanged) {
+            tables = sail.tables;
+        }
+        schemaStale |= sail.schemaStale;
+    }
+
+    /**
+     * Without isolation the store holds every write, and makes other writers wait, until the transaction ends. So the
+     * transaction takes the sail's store writer first, see lockStoreWriter.
+     */
+    private void beforeWrite() throws SailException {
+        if (active && !isolationLevel.isCompatibleWith(IsolationLevels.READ_UNCOMMITTED)) {
+            lockStoreWriter(true);
+        }
+        share();
+    }
+
+    /**
+     * Takes the sail's store writer before the store holds the writes of this transaction, or before the transaction
+     * takes the sail exclusively. A transaction that holds it may then wait for the transaction lock, to change a
+     * transitive closure for instance, so a transaction that waits for it lets go of the transaction lock meanwhile.
+     * Only an isolated transaction that commits holds it without waiting for anything else, so it fails with a conflict
+     * if another transaction committed while it let go of the lock, since it inferred without seeing what that one
+     * changed.
+     *
+     * @param mayWait false when an isolated transaction commits
+     */
+    private void lockStoreWriter(boolean mayWait) throws SailException {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
+
+        if (storeWriter || !active) {
+            return;
+        }
+
+        try {
+            // a committing transaction holds it only while the store commits, unless it is taking back its share
+            while (!mayWait && !sail.storeWriterMayWait) {
+                if (sail.storeWriter.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                    takeStoreWriter(false);
+                    return;
+                }
+            }
+            if (sail.storeWriter.tryAcquire()) {
+                takeStoreWriter(mayWait);
+                return;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SailException(e);
+        }
 
-            fastRdfsForwardChainingSail.calculatedTypes.get(subClass).add((IRI) s.getObject());
+        boolean wasExclusive = exclusive;
+        boolean wasShared = transactionStamp != 0;
+        long commits = sail.commits.get();
+        if (wasShared) {
+            sail.transactionLock.unlock(transactionStamp);
+            transactionStamp = 0;
+            trackLocks();
+        }
+        exclusive = false;
+        checkNoOtherTransactionOnThisThread();
+        try {
+            sail.storeWriter.acquire();
+            takeStoreWriter(true);
+            if (wasShared) {
+                transactionStamp = wasExclusive ? sail.transactionLock.writeLockInterruptibly() : sail.transactionLock.readLockInterruptibly();
+                trackLocks();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SailException(e);
+        }
+        sail.storeWriterMayWait = mayWait;
+        exclusive = wasExclusive;
 
-        });
+        if (sail.commits.get() != commits && !mayWait) {
+            throw new SailConflictException("Another transaction committed while this " + isolationLevel
+                + " transaction waited to commit, retry it");
+        }
 
-        long prevSize = 0;
-        final long[] newSize = {-1};
-        while (prevSize != newSize[0]) {
+        if (!tablesChanged) {
+            tables = sail.tables;
+        }
+        schemaStale |= sail.schemaStale;
+    }
 
-            prevSize = newSize[0];
+    private void takeStoreWriter(boolean mayWait) {
+        storeWriter = true;
+        fastRdfsForwardChainingSail.storeWriterMayWait = mayWait;
+        trackLocks();
+    }
 
-            newSize[0] = 0;
+    /**
+     * Publishes what the transaction changed in the schema once its statements are committed.
+     */
+    private void publish() {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
 
-            fastRdfsForwardChainingSail.calculatedTypes.forEach((key, value) -> {
-                List<IRI> temp = new ArrayList<IRI>();
-                value.forEach(superClass -> {
-                    temp
-                        .addAll(resolveTypes(superClass));
-                });
+        if (tablesChanged) {
+            // a transaction that picked up a stale schema compiled it from the store before it changed anything
+            sail.tables = tables;
+            sail.schemaStale = false;
+        }
+        if (inferredReset) {
+            sail.inferredStale = false;
+        }
+        if (schemaIndexReset) {
+            sail.schemaIndexExtras.clear();
+            sail.schemaIndexIncomplete = schemaIndexIncomplete;
+        } else if (schemaIndexIncomplete) {
+            sail.schemaIndexIncomplete = true;
+        }
+        sail.schemaIndexExtras.addAll(pendingSchemaIndexExtras);
 
-                value.addAll(temp);
-                newSize[0] += value.size();
-            });
+        if (written) {
+            sail.commits.incrementAndGet();
+        }
+    }
 
+    private void endTransaction() {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
 
+        if (transactionStamp != 0) {
+            sail.transactionLock.unlock(transactionStamp);
+            transactionStamp = 0;
         }
+        if (storeWriter) {
+            sail.storeWriterMayWait = false;
+            sail.storeWriter.release();
+            storeWriter = false;
+        }
+        sail.lockHolders.remove(this);
+        active = false;
+        exclusive = false;
+        tables = sail.tables;
+        tablesChanged = false;
+        compiledSchema = null;
+        pendingSchemaIndexExtras.clear();
+        inferredReset = false;
+        schemaIndexReset = false;
+        schemaIndexIncomplete = false;
+    }
+
+    // Explicit statements removed in this transaction. Their consequences are retracted in flushUpdates.
+    private final List<Statement> removedStatements = new ArrayList<>();
+
+    /**
+     * Removals are handled by retract instead of clearing and recalculating every inferred statement.
+     */
+    @Override
+    public void statementRemoved(Statement statement) {
+    }
+
+    @Override
+    public void removeStatements(Resource subject, IRI predicate, Value object, Resource... contexts) throws SailException {
+        lockForRemoval();
+        written = true;
+        collectExplicitStatements(subject, predicate, object, contexts);
+        super.removeStatements(subject, predicate, object, contexts);
+    }
+
+    @Override
+    public void removeStatement(UpdateContext modify, Resource subject, IRI predicate, Value object, Resource... contexts) throws SailException {
+        lockForRemoval();
+        written = true;
+        collectExplicitStatements(subject, predicate, object, contexts);
+        super.removeStatement(modify, subject, predicate, object, contexts);
     }
 
-    private void findProperties(List<Statement> propertyStatements) {
-        propertyStatements.stream()
-            .map(Statement::getSubject)
-            .map(property -> ((IRI) property))
-            .filter(property -> !fastRdfsForwardChainingSail.calculatedProperties.containsKey(property))
-            .forEach(property -> {
-                fastRdfsForwardChainingSail.calculatedProperties.put(property, new HashSet<>());
-            });
+    @Override
+    public void clear(Resource... contexts) throws SailException {
+        lockForRemoval();
+        written = true;
+
+        if (clearsInferenceGraphs(contexts)) {
+            // everything inferred from these graphs is in their inference graphs, and nothing else is
+            flushUpdates();
+            Resource[] inferenceGraphs = fastRdfsForwardChainingSail.inferenceContexts(contexts);
+            checkSchemaIndexRemoval(null, null, null, contexts);
+            checkSchemaIndexRemoval(null, null, null, inferenceGraphs);
+            inferredStatementCache.clear();
+            super.clear(contexts);
+            super.clearInferred(inferenceGraphs);
+            return;
+        }
+
+        collectExplicitStatements(null, null, null, contexts);
+        super.clear(contexts);
     }
 
+    /**
+     * A removal retracts the inferred statements nothing else supports, which it can't tell while other transactions
+     * add statements that support them, or the materializer infers them in asynchronous inference mode. So removals
+     * hold the sail exclusively at every isolation level, and a snapshot transaction that removes statements after
+     * others have committed fails with a conflict. The materializer's transactions count as commits.
+     */
+    private void lockForRemoval() throws SailException {
+        lockExclusively();
+    }
 
-    private void calculateSubPropertyOf(List<Statement> subPropertyOfStatemenets) {
+    /**
+     * True when the given graphs have inference graphs of their own and don't hold schema statements, which change
+     * what other graphs infer.
+     */
+    private boolean clearsInferenceGraphs(Resource... contexts) throws SailException {
+        if (fastRdfsForwardChainingSail.inferenceGraphSuffix == null || contexts.length == 0) {
+            return false;
+        }
 
-        subPropertyOfStatemenets.forEach(s -> {
-            IRI subClass = (IRI) s.getSubject();
-            IRI superClass = (IRI) s.getObject();
-            if (!fastRdfsForwardChainingSail.calculatedProperties.containsKey(subClass)) {
-                fastRdfsForwardChainingSail.calculatedProperties.put(subClass, new HashSet<>());
+        for (Resource context : contexts) {
+            if (!(context instanceof IRI)) {
+                return false;
             }
+            if (fastRdfsForwardChainingSail.schema == null && containsSchemaStatements(context)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean containsSchemaStatements(Resource context) throws SailException {
+        return connection.hasStatement(null, RDFS.SUBCLASSOF, null, false, context)
+            || connection.hasStatement(null, RDFS.SUBPROPERTYOF, null, false, context)
+            || connection.hasStatement(null, RDFS.DOMAIN, null, false, context)
+            || connection.hasStatement(null, RDFS.RANGE, null, false, context)
+            || connection.hasStatement(null, RDF.TYPE, RDF.PROPERTY, false, context);
+    }
 
-            if (!fastRdfsForwardChainingSail.calculatedProperties.containsKey(superClass)) {
-                fastRdfsForwardChainingSail.calculatedProperties.put(superClass, new HashSet<>());
+    private void collectExplicitStatements(Resource subject, IRI predicate, Value object, Resource... contexts) throws SailException {
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(subject, predicate, object, false, contexts)) {
+            while (statements.hasNext()) {
+                Statement statement = statements.next();
+                checkSchemaIndexRemoval(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+                removedStatements.add(statement);
             }
+        }
+    }
 
-            fastRdfsForwardChainingSail.calculatedProperties.get(subClass).add((IRI) s.getObject());
+    @Override
+    public void flushUpdates() throws SailException {
+        super.flushUpdates();
 
+        if (inferredCleared) {
+            // cleared without adding anything, so super didn't call doInferencing
+            doInferencing();
+        }
+
+        if (!removedStatements.isEmpty()) {
+            List<Statement> removed = new ArrayList<>(removedStatements);
+            removedStatements.clear();
+            retract(removed);
+        }
+
+        drainWriteBuffer();
+    }
+
+    /**
+     * Writes the buffered inferred statements. This happens whenever the transaction is flushed, which reads do
+     * first, and before inferred statements are removed, so that a buffered statement can't outlive its removal.
+     */
+    private void drainWriteBuffer() throws SailException {
+        if (writeBuffer == null || writeBuffer.isEmpty()) {
+            return;
+        }
+
+        counters.duplicates += writeBuffer.drain((subject, predicate, object, contexts) -> {
+            if (addInferredStatement(subject, predicate, object, contexts)) {
+                counters.written++;
+            } else {
+                counters.duplicates++;
+            }
         });
+    }
 
+    /**
+     * Delete and rederive, limited to the resources the removed statements inferred something about. Everything the
+     * removed statements inferred is a candidate for removal. A candidate is kept if the schema or the axioms entail it,
+     * or if a remaining explicit statement infers it again into the same context, from its own context or one that
+     * shares the inference context. Such a statement has to mention the subject of the candidate, so only the
+     * statements about those subjects are read. With transitive properties the stored closure counts as explicit, and
+     * the pairs of the closure that went through a removed edge are candidates too, kept if another path remains.
+     * <p>
+     * Removing a schema statement without a schema repository changes what every statement infers, so then everything
+     * is recalculated.
+     */
+    private void retract(List<Statement> removed) throws SailException {
+        if (fastRdfsForwardChainingSail.schema == null) {
+            for (Statement statement : removed) {
+                if (SchemaStatements.isSchemaStatement(statement.getPredicate(), statement.getObject())) {
+                    clearInferred();
+                    rebuildSchema();
+                    inferAll();
+                    return;
+                }
+            }
+        }
 
-        long prevSize = 0;
-        final long[] newSize = {-1};
-        while (prevSize != newSize[0]) {
+        Consequences candidates = new Consequences();
+        Consequences removedExplicit = new Consequences();
+        // removed statements that would be inferred into their own context
+        Consequences removedInferable = new Consequences();
+
+        for (Statement statement : removed) {
+            Resource subject = statement.getSubject();
+            IRI predicate = statement.getPredicate();
+            Value object = statement.getObject();
+            Resource context = statement.getContext();
+
+            infer(subject, predicate, object, new Resource[]{context}, candidates, null);
+
+            removedExplicit.accept(subject, predicate, object, context);
+
+            // the removed statement may still be entailed, in which case it stays as an inferred statement
+            if (Objects.equals(fastRdfsForwardChainingSail.inferenceContext(context), context)) {
+                removedInferable.accept(subject, predicate, object, context);
+                candidates.accept(subject, predicate, object, context);
+            } else if (plan(predicate, object).inverseProperties.length > 0) {
+                // an inverse of what it inferred infers it into the inference context
+                for (Resource inferenceContext : fastRdfsForwardChainingSail.inferenceContexts(context)) {
+                    if (connection.hasStatement(subject, predicate, object, true, inferenceContext)) {
+                        candidates.accept(subject, predicate, object, inferenceContext);
+                    }
+                }
+            }
+        }
 
-            prevSize = newSize[0];
+        boolean transitive = !tables.transitiveProperties.isEmpty() && overDeleteTransitive(removed, candidates);
 
-            newSize[0] = 0;
+        candidates.removeIf(this::entailedBySchema);
 
-            fastRdfsForwardChainingSail.calculatedProperties.forEach((key, value) -> {
-                List<IRI> temp = new ArrayList<IRI>();
-                value.forEach(superProperty -> {
-                    temp.addAll(resolveProperties(superProperty));
-                });
+        for (List<Value> group : candidates.groups()) {
+            Resource resource = (Resource) group.get(0);
+            Resource[] context = fastRdfsForwardChainingSail.sourceContexts((Resource) group.get(1));
 
-                value.addAll(temp);
-                newSize[0] += value.size();
-            });
+            rederive(group, connection.getStatements(resource, null, null, false, context), candidates, removedExplicit);
+            rederive(group, connection.getStatements(null, null, resource, false, context), candidates, removedExplicit);
+            if (resource instanceof IRI) {
+                rederive(group, connection.getStatements(null, (IRI) resource, null, false, context), candidates, removedExplicit);
+            }
 
+            if (!tables.transitiveProperties.isEmpty()) {
+                Resource inferenceContext = (Resource) group.get(1);
+                rederiveFromClosure(group, connection.getStatements(resource, null, null, true, inferenceContext), candidates);
+                rederiveFromClosure(group, connection.getStatements(null, null, resource, true, inferenceContext), candidates);
+            }
+        }
 
+        for (List<Value> statement : removedInferable.statements()) {
+            if (!candidates.contains(statement)) {
+                addInferredStatement((Resource) statement.get(0), (IRI) statement.get(1), statement.get(2), (Resource) statement.get(3));
+            }
         }
-    }
 
-    private void calculateRangeDomain(List<Statement> rangeOrDomainStatements, Map<IRI, HashSet<IRI>> calculatedRangeOrDomain) {
+        if (transitive) {
+            rederiveTransitive(candidates);
+        }
 
-        rangeOrDomainStatements.forEach(s -> {
-            IRI predicate = (IRI) s.getSubject();
-            if (!fastRdfsForwardChainingSail.calculatedProperties.containsKey(predicate)) {
-                fastRdfsForwardChainingSail.calculatedProperties.put(predicate, new HashSet<>());
-            }
+        for (List<Value> statement : candidates.statements()) {
+            removeInferredStatement((Resource) statement.get(0), (IRI) statement.get(1), statement.get(2), (Resource) statement.get(3));
+        }
+    }
 
-            if (!calculatedRangeOrDomain.containsKey(predicate)) {
-                calculatedRangeOrDomain.put(predicate, new HashSet<>());
+    /**
+     * Adds the pairs of transitive closures that may have depended on the removed statements to the candidates: for
+     * every edge (x t y) they entail, each stored predecessor of x with each stored successor of y, and what those
+     * pairs infer.
+     *
+     * @return false if the removed statements don't entail any edges of transitive properties
+     */
+    private boolean overDeleteTransitive(List<Statement> removed, Consequences candidates) throws SailException {
+        Deque<Statement> edges = new ArrayDeque<>();
+        for (Statement statement : removed) {
+            PredicatePlan plan = plan(statement.getPredicate(), statement.getObject());
+            if (plan.transitive()) {
+                for (Resource context : fastRdfsForwardChainingSail.inferenceContexts(statement.getContext())) {
+                    addTransitiveEdges(plan, statement.getSubject(), null, statement.getObject(), context, edges);
+                }
             }
+        }
 
-            calculatedRangeOrDomain.get(predicate).add((IRI) s.getObject());
+        if (edges.isEmpty()) {
+            return false;
+        }
 
-            if (!fastRdfsForwardChainingSail.calculatedTypes.containsKey(s.getObject())) {
-                fastRdfsForwardChainingSail.calculatedTypes.put((IRI) s.getObject(), new HashSet<>());
+        // the removed statements are no longer stored, but the closure went through them
+        List<Statement> removedEdges = new ArrayList<>(edges);
+
+        // the closure has to include the edges that other transactions add
+        lockExclusively();
+
+        while (!edges.isEmpty()) {
+            Statement edge = edges.poll();
+            IRI property = edge.getPredicate();
+            Resource context = edge.getContext();
+            Resource[] read = transitiveContexts(context);
+
+            for (Resource predecessor : predecessors(edge, read, removedEdges)) {
+                for (Value successor : successors(edge, read, removedEdges)) {
+                    // explicit statements stay, and what they infer is rederived from them
+                    if (candidates.contains(predecessor, property, successor, context)
+                        || !connection.hasStatement(predecessor, property, successor, true, context)
+                        || connection.hasStatement(predecessor, property, successor, false, context)) {
+                        continue;
+                    }
+
+                    candidates.accept(predecessor, property, successor, context);
+                    inferInto(tables, predecessor, property, successor, new Resource[]{context}, candidates, null);
+                    addTransitiveEdges(plan(property, successor), predecessor, property, successor, context, edges);
+                }
             }
+        }
 
-        });
+        return true;
+    }
 
+    /**
+     * Keeps the candidates of transitive properties that a path of two remaining statements entails, along with what
+     * they infer, until nothing changes. The removed statements are no longer stored, so the remaining statements are
+     * the explicit ones and the inferred ones that aren't candidates.
+     */
+    private void rederiveTransitive(Consequences candidates) throws SailException {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (List<Value> statement : candidates.statements()) {
+                Resource subject = (Resource) statement.get(0);
+                IRI predicate = (IRI) statement.get(1);
+                Value object = statement.get(2);
+                Resource context = (Resource) statement.get(3);
+
+                if (isTransitive(predicate) && candidates.contains(statement)
+                    && entailedByPath(subject, predicate, object, transitiveContexts(context), candidates)) {
+                    InferenceSink keep = (s, p, o, contexts) -> keep(s, p, o, contexts, candidates);
+                    keep.accept(subject, predicate, object, context);
+                    inferInto(tables, subject, predicate, object, new Resource[]{context}, keep, null);
+                    changed = true;
+                }
+            }
+        }
+    }
 
-        fastRdfsForwardChainingSail.calculatedProperties
-            .keySet()
-            .stream()
-            .filter(key -> !calculatedRangeOrDomain.containsKey(key))
-            .forEach(key -> calculatedRangeOrDomain.put(key, new HashSet<>()));
+    /**
+     * Takes a rederived statement out of the candidates. A rederived statement that isn't stored is added, since it was
+     * one of the removed statements, or it was left out while a removed explicit statement in another context said the
+     * same.
+     */
+    private void keep(Resource subject, IRI predicate, Value object, Resource[] contexts, Consequences candidates) throws SailException {
+        for (Resource context : contextsOrDefault(contexts)) {
+            candidates.remove(subject, predicate, object, context);
+            if (!connection.hasStatement(subject, predicate, object, true, transitiveContexts(context))) {
+                addInferredStatement(subject, predicate, object, context);
+            }
+        }
+    }
 
-        long prevSize = 0;
-        final long[] newSize = {-1};
-        while (prevSize != newSize[0]) {
+    private boolean entailedByPath(Resource subject, IRI predicate, Value object, Resource[] contexts, Consequences candidates) throws SailException {
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(subject, predicate, null, true, contexts)) {
+            while (statements.hasNext()) {
+                Statement next = statements.next();
+                Value middle = next.getObject();
 
-            prevSize = newSize[0];
+                if (middle instanceof Resource && !middle.equals(object) && remains(next, candidates)
+                    && remains((Resource) middle, predicate, object, contexts, candidates)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean remains(Resource subject, IRI predicate, Value object, Resource[] contexts, Consequences candidates) throws SailException {
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(subject, predicate, object, true, contexts)) {
+            while (statements.hasNext()) {
+                if (remains(statements.next(), candidates)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
-            newSize[0] = 0;
+    private boolean remains(Statement statement, Consequences candidates) throws SailException {
+        Resource subject = statement.getSubject();
+        IRI predicate = statement.getPredicate();
+        Value object = statement.getObject();
+        Resource context = statement.getContext();
 
-            calculatedRangeOrDomain.forEach((key, value) -> {
-                List<IRI> resolvedBySubProperty = new ArrayList<>();
-                resolveProperties(key).forEach(newPredicate -> {
-                    HashSet<IRI> iris = calculatedRangeOrDomain.get(newPredicate);
-                    if (iris != null) {
-                        resolvedBySubProperty.addAll(iris);
-                    }
+        return !candidates.contains(subject, predicate, object, context) || connection.hasStatement(subject, predicate, object, false, context);
+    }
 
-                });
+    /**
+     * Infers from the given statements into candidates.remove until nothing is left in the group. Statements that are
+     * being removed are skipped, since a pending removal may not be visible yet.
+     */
+    private void rederive(List<Value> group, CloseableIteration<? extends Statement, SailException> statements, Consequences candidates, Consequences removedExplicit) throws SailException {
+        try {
+            while (candidates.containsGroup(group) && statements.hasNext()) {
+                Statement next = statements.next();
+                if (!removedExplicit.contains(next.getSubject(), next.getPredicate(), next.getObject(), next.getContext())) {
+                    infer(next.getSubject(), next.getPredicate(), next.getObject(), new Resource[]{next.getContext()}, candidates::remove, null);
+                }
+            }
+        } finally {
+            statements.close();
+        }
+    }
 
-                List<IRI> resolvedBySubClass = new ArrayList<>();
-                value.addAll(resolvedBySubProperty);
+    /**
+     * Like rederive, from the inferred statements of transitive properties that aren't candidates. The closure is
+     * inferred from as if it were explicit.
+     */
+    private void rederiveFromClosure(List<Value> group, CloseableIteration<? extends Statement, SailException> statements, Consequences candidates) throws SailException {
+        try {
+            while (candidates.containsGroup(group) && statements.hasNext()) {
+                Statement next = statements.next();
+                if (isTransitive(next.getPredicate()) && remains(next, candidates)
+                    && !connection.hasStatement(next.getSubject(), next.getPredicate(), next.getObject(), false, next.getContext())) {
+                    inferInto(tables, next.getSubject(), next.getPredicate(), next.getObject(), new Resource[]{next.getContext()}, candidates::remove, null);
+                }
+            }
+        } finally {
+            statements.close();
+        }
+    }
 
+    /**
+     * True for the statements that temp() and the axioms add without any data, which are all in the inference context
+     * of the default context.
+     */
+    private boolean entailedBySchema(List<Value> statement) {
+        if (!Objects.equals(statement.get(3), fastRdfsForwardChainingSail.inferenceContext(null))) {
+            return false;
+        }
 
-                value.stream().map(this::resolveTypes).forEach(resolvedBySubClass::addAll);
+        Value subject = statement.get(0);
+        Value predicate = statement.get(1);
+        Value object = statement.get(2);
 
-                value.addAll(resolvedBySubClass);
+        if (predicate.equals(RDFS.SUBCLASSOF)) {
+            return entailedBySchema(subject, object, tables.calculatedTypes, tables.reflexiveClasses);
+        }
+        if (predicate.equals(RDFS.SUBPROPERTYOF)) {
+            return entailedBySchema(subject, object, tables.calculatedProperties, tables.reflexiveProperties);
+        }
 
-                newSize[0] += value.size();
-            });
+        return fastRdfsForwardChainingSail.axioms.contains(
+            fastRdfsForwardChainingSail.getValueFactory().createStatement((Resource) subject, (IRI) predicate, object));
+    }
 
+    private boolean entailedBySchema(Value sub, Value sup, IntTable closure, BitSet reflexive) {
+        SchemaDictionary dictionary = tables.dictionary;
+        int subId = dictionary.id(sub);
+        int supId = dictionary.id(sup);
 
+        if (subId < 0 || supId < 0) {
+            return false;
         }
+
+        return subId == supId ? reflexive.get(subId) : closure.contains(subId, supId);
     }
 
+    @Override
+    public void rollback() throws SailException {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
+        if (transactionStamp != 0 && written && !isolationLevel.isCompatibleWith(IsolationLevels.READ_UNCOMMITTED)) {
+            // without isolation the store may keep what was written, so neither the schema nor the index can be trusted
+            sail.schemaIndexIncomplete = true;
+            if (sail.schema == null) {
+                sail.schemaStale = true;
+            }
+        }
 
-    boolean inferredCleared = true;
+        addedSchemaStatements = new SchemaStatements();
+        uninferredStatements.clear();
+        queuedStatements.clear();
+        removedStatements.clear();
+        inferredStatementCache.clear();
+        if (writeBuffer != null) {
+            writeBuffer.clear();
+        }
+        try {
+            super.rollback();
+        } finally {
+            sail.metrics.add(counters, tables.dictionary);
+            // the tables this transaction compiled are dropped along with its statements
+            endTransaction();
+        }
+    }
 
     @Override
-    public void clearInferred(Resource... contexts) throws SailException {
-        super.clearInferred(contexts);
-        inferredCleared = true;
+    public void commit() throws SailException {
+        Object event = FlightRecorderEvents.beginCommit();
+        long start = System.nanoTime();
+
+        boolean committed = false;
+        List<Statement> queued = null;
+        SchemaTables publishedTables = null;
+        CompiledSchema publishedSchema = null;
+        try {
+            if (written && isolationLevel.isCompatibleWith(IsolationLevels.READ_UNCOMMITTED)) {
+                // the store holds the writes while they are committed
+                flushUpdates();
+                lockStoreWriter(false);
+            }
+            super.commit();
+            publish();
+            committed = true;
+
+            if (tablesChanged) {
+                publishedTables = tables;
+                publishedSchema = compiledSchema;
+            }
+
+            if (!queuedStatements.isEmpty()) {
+                queued = new ArrayList<>(queuedStatements);
+                queuedStatements.clear();
+            }
+        } finally {
+            fastRdfsForwardChainingSail.metrics.commit.record(System.nanoTime() - start);
+            FlightRecorderEvents.endCommit(event, counters, tables.dictionary);
+            fastRdfsForwardChainingSail.metrics.add(counters, tables.dictionary);
+            if (committed) {
+                endTransaction();
+            }
+        }
+
+        // not before the lock is released, the materializer may need it to make room in a full queue
+        if (queued != null) {
+            try {
+                commitSequence = materializer.submit(queued);
+            } catch (SailException e) {
+                // the statements are stored, so they are inferred along with everything else instead
+                fastRdfsForwardChainingSail.inferredStale = true;
+                throw e;
+            }
+        }
+
+        // a rolled back schema is never written, and the other transactions don't wait for the file
+        if (publishedSchema != null) {
+            fastRdfsForwardChainingSail.saveSchema(publishedTables.statements, publishedSchema);
+        }
     }
 
     @Override
     protected void doInferencing() throws SailException {
-        if(fastRdfsForwardChainingSail.schema == null){
+        Object event = FlightRecorderEvents.beginInferencing();
+        long start = System.nanoTime();
+        long statements = counters.statements;
+        boolean everything = inferredCleared;
+
+        try {
+            share();
+            inferUpdates();
+        } finally {
+            fastRdfsForwardChainingSail.metrics.inferencing.record(System.nanoTime() - start);
+            FlightRecorderEvents.endInferencing(event, everything, counters.statements - statements);
+        }
+    }
 
-            fastRdfsForwardChainingSail.clearInferenceTables();
+    private void inferUpdates() throws SailException {
+        if (fastRdfsForwardChainingSail.inferredStale && !inferredCleared) {
+            clearInferred();
+        }
 
-            try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, null, null, false)) {
-                while (statements.hasNext()) {
-                    Statement next = statements.next();
-                    statementCollector(next);
+        if (fastRdfsForwardChainingSail.schema == null) {
+
+            // the tables the statements of this transaction were inferred with so far
+            SchemaTables previous = tables;
+
+            boolean schemaChanged = false;
+
+            if (schemaStale) {
+                rebuildSchema();
+                schemaChanged = true;
+            } else if (!addedSchemaStatements.isEmpty()) {
+                lockExclusively();
+                if (schemaStale) {
+                    rebuildSchema();
+                } else {
+                    collectedSchemaStatements = tables.statements.copy();
+                    collectedSchemaStatements.addAll(addedSchemaStatements);
+                    temp();
+                }
+                schemaChanged = true;
+            }
+
+            addedSchemaStatements = new SchemaStatements();
+
+            if (schemaChanged) {
+                if (!inferredCleared) {
+                    inferChangedSchema(previous);
                 }
             }
-            temp();
-            inferredCleared = true;
 
         }
 
         if (!inferredCleared) {
+            for (Statement statement : uninferredStatements) {
+                addStatement(false, statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+            }
+            uninferredStatements.clear();
             return;
         }
 
+        if (schemaInferencesCleared) {
+            for (Statement axiom : fastRdfsForwardChainingSail.axioms) {
+                addInferredStatement(axiom.getSubject(), axiom.getPredicate(), axiom.getObject(), fastRdfsForwardChainingSail.inferenceContexts());
+            }
+            // compiled again only to add the hierarchy, temp() doesn't change the statements
+            collectedSchemaStatements = tables.statements;
+            temp();
+            schemaInferencesCleared = false;
+        }
+
+        inferAll();
+
+    }
+
+    private void inferAll() throws SailException {
         prepareIteration();
 
+        int threads = fastRdfsForwardChainingSail.rematerializationThreads;
+
         try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, null, null, false)) {
+            if (threads > 1) {
+                new BulkLoader(this, threads, fastRdfsForwardChainingSail.inferredStatementCacheSize).infer(Iterations.stream(statements).iterator());
+            } else {
+                while (statements.hasNext()) {
+                    Statement next = statements.next();
+                    addStatement(false, next.getSubject(), next.getPredicate(), next.getObject(), next.getContext());
+                }
+            }
+        }
+        uninferredStatements.clear();
+        inferredCleared = false;
+    }
+
+    /**
+     * Re-infers only the explicit statements that the schema change affects: triples using a predicate whose plan
+     * changed, and rdf:type triples with a class whose plan changed. Inference only ever adds statements here, since
+     * the schema only grew, so statements that were inferred before are still valid.
+     */
+    private void inferChangedSchema(SchemaTables previous) throws SailException {
+        SchemaDictionary dictionary = tables.dictionary;
+        SchemaDictionary previousDictionary = previous.dictionary;
+        BitSet properties = tables.properties;
+        BitSet classes = tables.classes;
+
+        for (int p = properties.nextSetBit(0); p >= 0; p = properties.nextSetBit(p + 1)) {
+            IRI predicate = dictionary.get(p);
+            int previousId = previousDictionary.id(predicate);
+            PredicatePlan previousPlan = previousId >= 0 ? previous.predicatePlans[previousId] : null;
+
+            if (previousPlan == null || !previousPlan.sameAs(tables.predicatePlans[p])
+                || !previous.literalPredicatePlans[previousId].sameAs(tables.literalPredicatePlans[p])) {
+                reinfer(null, predicate, null);
+            }
+        }
+
+        for (int c = classes.nextSetBit(0); c >= 0; c = classes.nextSetBit(c + 1)) {
+            IRI type = dictionary.get(c);
+            int previousId = previousDictionary.id(type);
+            TypePlan previousPlan = previousId >= 0 ? previous.typePlans[previousId] : null;
+
+            if (previousPlan == null || !previousPlan.sameAs(tables.typePlans[c])) {
+                reinfer(null, RDF.TYPE, type);
+            }
+        }
+    }
+
+    private void reinfer(Resource subject, IRI predicate, Value object) throws SailException {
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(subject, predicate, object, false)) {
             while (statements.hasNext()) {
                 Statement next = statements.next();
                 addStatement(false, next.getSubject(), next.getPredicate(), next.getObject(), next.getContext());
             }
         }
-        inferredCleared = false;
-
     }
 
 
+    /**
+     * Reads the whole schema from the store. Only needed at startup and when schema statements have been removed,
+     * otherwise the schema statements added in a transaction are merged into the existing ones.
+     */
+    private void rebuildSchema() throws SailException {
+        lockExclusively();
+        collectedSchemaStatements = new SchemaStatements();
+
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, null, null, false)) {
+            while (statements.hasNext()) {
+                Statement next = statements.next();
+                statementCollector(next);
+            }
+        }
+        temp();
+
+        schemaStale = false;
+    }
 
 
     @Override
@@ -463,95 +1358,546 @@ public class FastRdfsForwardChainingSailConnetion extends AbstractForwardChainin
         addStatement(true, subject, predicate, object, resources);
     }
 
+    @Override
+    public void addStatement(UpdateContext modify, Resource subject, IRI predicate, Value object, Resource... contexts) throws SailException {
+        beforeWrite();
+        written = true;
+        collectAddedSchemaStatement(subject, predicate, object, contexts);
+        super.addStatement(modify, subject, predicate, object, contexts);
+        if (materializer != null) {
+            queue(subject, predicate, object, contexts);
+        } else {
+            collect(uninferredStatements, subject, predicate, object, contexts);
+        }
+    }
+
+    /**
+     * Hands the statement to the materializer when the transaction commits. The schema index serves it from now on,
+     * not only once the materializer has inferred from it.
+     */
+    private void queue(Resource subject, IRI predicate, Value object, Resource... contexts) {
+        if (SchemaIndex.isSchemaPredicate(predicate)) {
+            checkSchemaIndex(subject, predicate, object, contexts, true);
+        }
+        collect(queuedStatements, subject, predicate, object, contexts);
+    }
+
+    private void collect(List<Statement> statements, Resource subject, IRI predicate, Value object, Resource... contexts) {
+        ValueFactory valueFactory = fastRdfsForwardChainingSail.getValueFactory();
+        if (contexts.length == 0) {
+            statements.add(valueFactory.createStatement(subject, predicate, object));
+        }
+        for (Resource context : contexts) {
+            statements.add(valueFactory.createStatement(subject, predicate, object, context));
+        }
+    }
+
+    /**
+     * Keeps the contexts, since the schema index only describes the statements in the default context.
+     */
+    private void collectAddedSchemaStatement(Resource subject, IRI predicate, Value object, Resource... contexts) throws SailException {
+        if (fastRdfsForwardChainingSail.schema != null || !SchemaStatements.isSchemaStatement(predicate, object)) {
+            return;
+        }
+
+        ValueFactory valueFactory = fastRdfsForwardChainingSail.getValueFactory();
+        for (Resource context : contextsOrDefault(contexts)) {
+            if (!connection.hasStatement(subject, predicate, object, false, context)) {
+                addedSchemaStatements.add(context == null
+                    ? valueFactory.createStatement(subject, predicate, object)
+                    : valueFactory.createStatement(subject, predicate, object, context));
+            }
+        }
+    }
+
 
     public void addStatement(boolean actuallyAdd, Resource subject, IRI predicate, Value object, Resource... resources) throws SailException {
+        if (actuallyAdd) {
+            addExplicitStatement(subject, predicate, object, resources);
+
+            if (materializer != null) {
+                queue(subject, predicate, object, resources);
+                return;
+            }
+        }
 
-        final boolean[] inferRdfTypeSubject = {false};
-        final boolean[] inferRdfTypeObject = {false};
+        infer(subject, predicate, object, resources, inferredStatementWriter, counters);
+        inferTransitive(subject, predicate, object, resources);
+    }
+
+    /**
+     * Infers from a statement that a transaction committed in asynchronous inference mode, unless it was removed
+     * since.
+     */
+    void inferQueued(Statement statement) throws SailException {
+        Resource context = statement.getContext();
+        // before looking, since waiting for the store lets go of the transaction lock, which a removal may take
+        beforeWrite();
+        if (connection.hasStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(), false, context)) {
+            // counts as a commit, see lockForRemoval
+            written = true;
+            addStatement(false, statement.getSubject(), statement.getPredicate(), statement.getObject(), context);
+        }
+    }
 
-        if (fastRdfsForwardChainingSail.sesameCompliant) {
-            addInferredStatement(subject, RDF.TYPE, RDFS.RESOURCE, resources);
+    void addExplicitStatement(Resource subject, IRI predicate, Value object, Resource... resources) throws SailException {
+        beforeWrite();
+        written = true;
+        collectAddedSchemaStatement(subject, predicate, object, resources);
+        connection.addStatement(subject, predicate, object, resources);
+    }
 
-            if (object instanceof Resource) {
-                addInferredStatement((Resource) object, RDF.TYPE, RDFS.RESOURCE, resources);
+    private final InferenceSink inferredStatementWriter = this::writeInferredStatement;
 
+    void writeInferredStatement(Resource subject, IRI predicate, Value object, Resource... contexts) throws SailException {
+        if (contexts.length <= 1 && !inferredStatementCache.add(subject, predicate, object, contexts.length == 0 ? null : contexts[0])) {
+            counters.cached++;
+            return;
+        }
+        if (SchemaIndex.isSchemaPredicate(predicate)) {
+            checkSchemaIndex(subject, predicate, object, contexts, false);
+        }
+        // the transitive closure reads the edges it has written
+        if (writeBuffer != null && !isTransitive(predicate)) {
+            if (contexts.length == 0) {
+                writeBuffer.add(subject, predicate, object, null);
+            }
+            for (Resource context : contexts) {
+                writeBuffer.add(subject, predicate, object, context);
             }
+            return;
         }
+        if (addInferredStatement(subject, predicate, object, contexts)) {
+            counters.written++;
+        } else {
+            counters.duplicates++;
+        }
+    }
 
-        if (predicate.getNamespace().equals(RDF.NAMESPACE) && predicate.getLocalName().charAt(0) == '_') {
+    InferenceCounters counters() {
+        return counters;
+    }
 
-            try {
-                int i = Integer.parseInt(predicate.getLocalName().substring(1));
-                if (i >= 1) {
-                    addInferredStatement(subject, RDFS.MEMBER, object, resources);
+    /**
+     * Adds what the owl:TransitiveProperty properties in the plan of a statement entail together with the stored
+     * statements, after the statement itself has been inferred from. The closure of every transitive property is kept
+     * in the store, so a new edge (x t y) only needs the stored predecessors of x and successors of y, one lookup
+     * each, instead of computing the closure again. The closure is kept within each context statements are inferred
+     * into.
+     */
+    void inferTransitive(Resource subject, IRI predicate, Value object, Resource... resources) throws SailException {
+        if (tables.transitiveProperties.isEmpty() || !plan(predicate, object).transitive()) {
+            return;
+        }
+
+        // the closure has to include the edges that other transactions add
+        lockExclusively();
+        PredicatePlan plan = plan(predicate, object);
+
+        for (Resource context : contextsOrDefault(fastRdfsForwardChainingSail.inferenceContexts(resources))) {
+            Deque<Statement> edges = new ArrayDeque<>();
+            addTransitiveEdges(plan, subject, null, object, context, edges);
+            closeTransitively(edges);
+        }
+    }
+
+    private void closeTransitively(Deque<Statement> edges) throws SailException {
+        while (!edges.isEmpty()) {
+            Statement edge = edges.poll();
+            IRI property = edge.getPredicate();
+            Resource context = edge.getContext();
+            Resource[] contexts = context == null ? new Resource[0] : new Resource[]{context};
+            Resource[] read = transitiveContexts(context);
+
+            for (Resource predecessor : predecessors(edge, read, Collections.emptyList())) {
+                for (Value successor : successors(edge, read, Collections.emptyList())) {
+                    // a statement in a source context still has to be inferred into the inference context
+                    if (predecessor.equals(edge.getSubject()) && successor.equals(edge.getObject())
+                        || connection.hasStatement(predecessor, property, successor, true, context)) {
+                        continue;
+                    }
+
+                    writeInferredStatement(predecessor, property, successor, contexts);
+                    counters.rules[InferenceRule.TRANSITIVE.ordinal()]++;
 
-                    addInferredStatement(predicate, RDF.TYPE, RDFS.RESOURCE, resources);
-                    addInferredStatement(predicate, RDF.TYPE, RDFS.CONTAINERMEMBERSHIPPROPERTY, resources);
-                    addInferredStatement(predicate, RDF.TYPE, RDF.PROPERTY, resources);
-                    addInferredStatement(predicate, RDFS.SUBPROPERTYOF, predicate, resources);
-                    addInferredStatement(predicate, RDFS.SUBPROPERTYOF, RDFS.MEMBER, resources);
+                    inferInto(tables, predecessor, property, successor, contexts, inferredStatementWriter, counters);
+                    // the other pairs of this property are already part of this closure
+                    addTransitiveEdges(plan(property, successor), predecessor, property, successor, context, edges);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the subject of the edge and the subjects of the stored and the removed edges that end in it
+     */
+    private Set<Resource> predecessors(Statement edge, Resource[] contexts, Collection<Statement> removedEdges) throws SailException {
+        Set<Resource> predecessors = new LinkedHashSet<>();
+        predecessors.add(edge.getSubject());
+        for (Statement removed : removedEdges) {
+            if (removed.getObject().equals(edge.getSubject()) && sameEdge(removed, edge)) {
+                predecessors.add(removed.getSubject());
+            }
+        }
+
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, edge.getPredicate(), edge.getSubject(), true, contexts)) {
+            while (statements.hasNext()) {
+                predecessors.add(statements.next().getSubject());
+            }
+        }
+        return predecessors;
+    }
+
+    /**
+     * @return the object of the edge and the objects of the stored and the removed edges that start from it
+     */
+    private Set<Value> successors(Statement edge, Resource[] contexts, Collection<Statement> removedEdges) throws SailException {
+        Set<Value> successors = new LinkedHashSet<>();
+        successors.add(edge.getObject());
+        for (Statement removed : removedEdges) {
+            if (removed.getSubject().equals(edge.getObject()) && sameEdge(removed, edge)) {
+                successors.add(removed.getObject());
+            }
+        }
 
+        if (edge.getObject() instanceof Resource) {
+            try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements((Resource) edge.getObject(), edge.getPredicate(), null, true, contexts)) {
+                while (statements.hasNext()) {
+                    successors.add(statements.next().getObject());
                 }
-            } catch (NumberFormatException e) {
-                // Ignore exception.
             }
+        }
+        return successors;
+    }
+
+    private static boolean sameEdge(Statement removed, Statement edge) {
+        return removed.getPredicate().equals(edge.getPredicate()) && Objects.equals(removed.getContext(), edge.getContext());
+    }
+
+    /**
+     * Adds the edges of the transitive properties that (subject predicate object) entails, except the given one.
+     */
+    private void addTransitiveEdges(PredicatePlan plan, Resource subject, IRI except, Value object, Resource context, Deque<Statement> edges) {
+        ValueFactory valueFactory = fastRdfsForwardChainingSail.getValueFactory();
 
+        for (IRI property : plan.transitiveProperties) {
+            if (!property.equals(except)) {
+                edges.add(valueFactory.createStatement(subject, property, object, context));
+            }
+        }
+        for (IRI property : plan.inverseTransitiveProperties) {
+            edges.add(valueFactory.createStatement((Resource) object, property, subject, context));
         }
+    }
 
-        if (actuallyAdd) {
-            connection.addStatement(subject, predicate, object, resources);
+    private PredicatePlan plan(IRI predicate, Value object) {
+        return tables.predicatePlan(tables.dictionary.id(predicate), predicate, object instanceof Resource);
+    }
 
+    private boolean isTransitive(IRI predicate) {
+        BitSet transitive = tables.transitiveProperties;
+        if (transitive.isEmpty()) {
+            return false;
         }
+        int id = tables.dictionary.id(predicate);
+        return id >= 0 && transitive.get(id);
+    }
 
-        if (predicate.equals(RDF.TYPE)) {
-            resolveTypes((IRI) object)
-                .stream()
-                .peek(inferredType -> {
-                    if (fastRdfsForwardChainingSail.sesameCompliant && inferredType.equals(RDFS.CLASS)) {
-                        addInferredStatement(subject, RDFS.SUBCLASSOF, RDFS.RESOURCE, resources);
-                    }
-                    inferRdfTypeSubject[0] = true;
-                })
-                .forEach(inferredType -> addInferredStatement(subject, RDF.TYPE, inferredType, resources));
+    /**
+     * The contexts a closure in the given inference context is read from: the inference context and the contexts
+     * inferred into it.
+     */
+    private Resource[] transitiveContexts(Resource context) {
+        Resource[] sources = fastRdfsForwardChainingSail.sourceContexts(context);
+        if (sources.length == 0 || Arrays.asList(sources).contains(context)) {
+            return sources;
         }
 
-        resolveProperties(predicate)
-            .forEach(inferredProperty -> addInferredStatement(subject, inferredProperty, object, resources));
+        Resource[] contexts = Arrays.copyOf(sources, sources.length + 1);
+        contexts[sources.length] = context;
+        return contexts;
+    }
 
+    private static Resource[] contextsOrDefault(Resource[] contexts) {
+        return contexts.length == 0 ? new Resource[]{null} : contexts;
+    }
 
-        if (object instanceof Resource) {
-            resolveRangeTypes(predicate)
-                .stream()
-                .peek(inferredType -> {
-                    if (fastRdfsForwardChainingSail.sesameCompliant && inferredType.equals(RDFS.CLASS)) {
-                        addInferredStatement(((Resource) object), RDFS.SUBCLASSOF, RDFS.RESOURCE, resources);
-                    }
-                    inferRdfTypeObject[0] = true;
+    // Schema index extras found in this transaction, added to the sail's when it commits. When everything is
+    // inferred again the sail's extras are replaced instead.
+    private final Set<List<Value>> pendingSchemaIndexExtras = ConcurrentHashMap.newKeySet();
+    private boolean schemaIndexReset = false;
+
+    // Set when this transaction made the index incomplete. When it commits the sail's index is marked incomplete too.
+    private volatile boolean schemaIndexIncomplete = false;
+
+    /**
+     * Records a stored statement with a schema predicate that the schema index doesn't describe, for instance one in a
+     * named graph or about a blank node, so that it can be served alongside the index. The fast path is turned off
+     * when there are too many of them, and turned on again when everything is inferred from scratch, since every
+     * statement is checked again then.
+     */
+    private void checkSchemaIndex(Resource subject, IRI predicate, Value object, Resource[] contexts, boolean explicit) {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
+
+        for (Resource context : contexts.length == 0 ? new Resource[]{null} : contexts) {
+            // without a schema repository explicit schema statements are added to the index when the transaction is flushed
+            boolean indexed = context == null && subject instanceof IRI && object instanceof IRI
+                && (explicit && sail.schema == null || tables.index.contains(subject, predicate, object));
+
+            if (indexed || schemaIndexIncomplete) {
+                continue;
+            }
 
-                })
-                .forEach(inferredType -> addInferredStatement(((Resource) object), RDF.TYPE, inferredType, resources));
+            int extras = schemaIndexReset ? 0 : sail.schemaIndexExtras.size();
+            if (extras + pendingSchemaIndexExtras.size() < FastRdfsForwardChainingSail.SCHEMA_INDEX_EXTRAS_LIMIT) {
+                pendingSchemaIndexExtras.add(Arrays.asList(subject, predicate, object, context));
+            } else {
+                schemaIndexIncomplete = true;
+            }
         }
+    }
 
+    /**
+     * A removed extra may still be stored, explicitly or in another way, so the fast path is turned off instead.
+     */
+    private void checkSchemaIndexRemoval(Resource subject, IRI predicate, Value object, Resource... contexts) {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
 
-        resolveDomainTypes((IRI) predicate)
-            .stream()
-            .peek(inferredType -> {
-                if (fastRdfsForwardChainingSail.sesameCompliant && inferredType.equals(RDFS.CLASS)) {
-                    addInferredStatement(subject, RDFS.SUBCLASSOF, RDFS.RESOURCE, resources);
-                }
-                inferRdfTypeSubject[0] = true;
+        if (predicate != null && !SchemaIndex.isSchemaPredicate(predicate)) {
+            return;
+        }
 
-            })
-            .forEach(inferredType -> addInferredStatement((subject), RDF.TYPE, inferredType, resources));
+        if (Stream.concat(sail.schemaIndexExtras.stream(), pendingSchemaIndexExtras.stream()).anyMatch(extra -> matches(extra, subject, predicate, object, contexts))) {
+            schemaIndexIncomplete = true;
+        }
+    }
 
-        if (inferRdfTypeSubject[0]) {
-            addInferredStatement(subject, RDF.TYPE, RDFS.RESOURCE, resources);
+    private static boolean matches(List<Value> extra, Resource subject, IRI predicate, Value object, Resource[] contexts) {
+        return (subject == null || subject.equals(extra.get(0)))
+            && (predicate == null || predicate.equals(extra.get(1)))
+            && (object == null || object.equals(extra.get(2)))
+            && (contexts.length == 0 || Arrays.asList(contexts).contains(extra.get(3)));
+    }
+
+    private boolean servedBySchemaIndex(IRI predicate, boolean includeInferred) throws SailException {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
 
+        if (!includeInferred || predicate == null || !SchemaIndex.isSchemaPredicate(predicate) || sail.schemaIndexIncomplete) {
+            return false;
         }
 
-        if (inferRdfTypeObject[0]) {
-            addInferredStatement(((Resource) object), RDF.TYPE, RDFS.RESOURCE, resources);
+        // the index describes the default context, which only holds the closure when it is inferred there
+        if (sail.inferenceContext(null) != null) {
+            return false;
+        }
+
+        // the index is rebuilt and the extras recorded when pending statements are inferred
+        flushUpdates();
+
+        if (!active) {
+            return !sail.schemaIndexIncomplete;
+        }
+
+        // a snapshot only matches the published extras as long as nothing else was committed
+        return !sail.schemaIndexIncomplete && !schemaIndexIncomplete && !schemaStale && !schemaIndexReset
+            && (!isolationLevel.isCompatibleWith(IsolationLevels.SNAPSHOT_READ) || sail.commits.get() == commitsAtBegin);
+    }
+
+    /**
+     * The index holds the default context, the extras the rest. Extras in the default context are skipped when a
+     * later rebuild of the index added them to it.
+     */
+    private Stream<Statement> schemaIndexStatements(Resource subject, IRI predicate, Value object, Resource[] contexts) {
+        FastRdfsForwardChainingSail sail = fastRdfsForwardChainingSail;
+        SchemaIndex schemaIndex = readTables().index;
+        ValueFactory valueFactory = sail.getValueFactory();
+
+        Stream<Statement> indexed = contexts.length == 0 || Arrays.asList(contexts).contains(null)
+            ? schemaIndex.statements(subject, predicate, object, valueFactory)
+            : Stream.empty();
+
+        if (sail.schemaIndexExtras.isEmpty() && pendingSchemaIndexExtras.isEmpty()) {
+            return indexed;
+        }
+
+        // a linear scan, which is why the number of extras is limited
+        Stream<Statement> extras = Stream.concat(sail.schemaIndexExtras.stream(), pendingSchemaIndexExtras.stream())
+            .distinct()
+            .filter(extra -> matches(extra, subject, predicate, object, contexts))
+            .filter(extra -> extra.get(3) != null || !schemaIndex.contains((Resource) extra.get(0), predicate, extra.get(2)))
+            .map(extra -> extra.get(3) == null
+                ? valueFactory.createStatement((Resource) extra.get(0), predicate, extra.get(2))
+                : valueFactory.createStatement((Resource) extra.get(0), predicate, extra.get(2), (Resource) extra.get(3)));
+
+        return Stream.concat(indexed, extras);
+    }
+
+    /**
+     * The sequence number of the last commit of this connection that queued statements in asynchronous inference
+     * mode, see FastRdfsForwardChainingSail.awaitInferred. 0 before the first such commit.
+     */
+    public long getCommitSequence() {
+        return commitSequence;
+    }
+
+    public long getInferredStatementCacheHits() {
+        return inferredStatementCache.hits();
+    }
+
+    public long getInferredStatementCacheMisses() {
+        return inferredStatementCache.misses();
+    }
+
+    /**
+     * @return the share of inferred statements that were skipped because they had just been written
+     */
+    public double getInferredStatementCacheHitRate() {
+        return inferredStatementCache.hitRate();
+    }
+
+    /**
+     * Only reads the schema tables, so it can be called from several threads as long as each has its own sink and
+     * counters. The counters may be null when the statements are not going to be written.
+     */
+    void infer(Resource subject, IRI predicate, Value object, Resource[] resources, InferenceSink sink, InferenceCounters counters) throws SailException {
+        infer(tables, subject, predicate, object, resources, sink, counters);
+    }
+
+    void infer(SchemaTables tables, Resource subject, IRI predicate, Value object, Resource[] resources, InferenceSink sink, InferenceCounters counters) throws SailException {
+        inferInto(tables, subject, predicate, object, fastRdfsForwardChainingSail.inferenceContexts(resources), sink, counters);
+    }
+
+    /**
+     * Like infer, with the contexts the inferred statements go to instead of the contexts of the statement.
+     */
+    private void inferInto(SchemaTables tables, Resource subject, IRI predicate, Value object, Resource[] resources, InferenceSink sink, InferenceCounters counters) throws SailException {
+        // the rule profile is compiled into these flags and the plans
+        boolean allResourceTypes = tables.resourceTypes;
+        boolean typedResourceTypes = tables.typedResourceTypes;
+        boolean objectIsResource = object instanceof Resource;
+        SchemaDictionary dictionary = tables.dictionary;
+
+        int resourceTypes = 0;
+        int typedResources = 0;
+        int classSubClassOfResource = 0;
+
+        if (allResourceTypes) {
+            sink.accept(subject, tables.type, tables.resource, resources);
+            resourceTypes++;
+
+            if (objectIsResource) {
+                sink.accept((Resource) object, tables.type, tables.resource, resources);
+                resourceTypes++;
+
+            }
+        }
+
+        int predicateId = dictionary.id(predicate);
+        PredicatePlan plan = tables.predicatePlan(predicateId, predicate, objectIsResource);
+
+        if (plan.containerMembership) {
+            sink.accept(subject, tables.member, object, resources);
+
+            if (allResourceTypes || typedResourceTypes) {
+                sink.accept(predicate, tables.type, tables.resource, resources);
+            }
+            sink.accept(predicate, tables.type, tables.containerMembershipProperty, resources);
+            sink.accept(predicate, tables.type, tables.property, resources);
+            sink.accept(predicate, tables.subPropertyOf, predicate, resources);
+            sink.accept(predicate, tables.subPropertyOf, tables.member, resources);
+        }
+
+        boolean inferRdfTypeSubject = false;
+        int typeId = -1;
+        int types = 0;
+
+        // the interned IRI goes first, a SimpleIRI compared to a MemIRI builds the string of the MemIRI every time
+        if (tables.type.equals(predicate)) {
+            typeId = dictionary.id(object);
+            TypePlan typePlan = tables.typePlan(typeId);
+
+            for (IRI inferredType : typePlan.types) {
+                sink.accept(subject, tables.type, inferredType, resources);
+            }
+            types = typePlan.types.length;
+
+            if (typePlan.includesClass) {
+                sink.accept(subject, tables.subClassOf, tables.resource, resources);
+                classSubClassOfResource++;
+            }
+
+            inferRdfTypeSubject = typePlan.types.length > 0;
+        }
+
+        for (IRI inferredProperty : plan.superProperties) {
+            sink.accept(subject, inferredProperty, object, resources);
+        }
+
+        // only the plans for resource objects have inverse properties
+        for (IRI inferredProperty : plan.inverseProperties) {
+            sink.accept((Resource) object, inferredProperty, subject, resources);
+        }
+
+        int rangeTypes = 0;
+
+        if (objectIsResource && plan.rangeTypes.length > 0) {
+            Resource resourceObject = (Resource) object;
+
+            for (IRI inferredType : plan.rangeTypes) {
+                sink.accept(resourceObject, tables.type, inferredType, resources);
+            }
+            rangeTypes = plan.rangeTypes.length;
+
+            if (plan.rangeIncludesClass) {
+                sink.accept(resourceObject, tables.subClassOf, tables.resource, resources);
+                classSubClassOfResource++;
+            }
+
+            if (typedResourceTypes) {
+                sink.accept(resourceObject, tables.type, tables.resource, resources);
+                typedResources++;
+            }
+        }
+
+        if (plan.domainTypes.length > 0) {
+            for (IRI inferredType : plan.domainTypes) {
+                sink.accept(subject, tables.type, inferredType, resources);
+            }
+
+            if (plan.domainIncludesClass) {
+                sink.accept(subject, tables.subClassOf, tables.resource, resources);
+                classSubClassOfResource++;
+            }
+
+            inferRdfTypeSubject = true;
+        }
+
+        if (inferRdfTypeSubject && typedResourceTypes) {
+            sink.accept(subject, tables.type, tables.resource, resources);
+            typedResources++;
+        }
+
+        if (counters != null) {
+            if (SchemaIndex.isSchemaPredicate(predicate)) {
+                checkSchemaIndex(subject, predicate, object, resources, true);
+            }
+
+            long[] rules = counters.rules;
+            rules[InferenceRule.RESOURCE_TYPE.ordinal()] += resourceTypes;
+            rules[InferenceRule.TYPED_RESOURCE_TYPE.ordinal()] += typedResources;
+            rules[InferenceRule.CLASS_SUB_CLASS_OF_RESOURCE.ordinal()] += classSubClassOfResource;
+            rules[InferenceRule.SUB_CLASS_OF.ordinal()] += types;
+            rules[InferenceRule.SUB_PROPERTY_OF.ordinal()] += plan.superProperties.length;
+            rules[InferenceRule.INVERSE_OF.ordinal()] += plan.inverseProperties.length;
+            rules[InferenceRule.DOMAIN.ordinal()] += plan.domainTypes.length;
+            rules[InferenceRule.RANGE.ordinal()] += rangeTypes;
+            if (plan.containerMembership) {
+                rules[InferenceRule.CONTAINER_MEMBERSHIP.ordinal()] += allResourceTypes || typedResourceTypes ? 6 : 5;
+            }
 
+            counters.statements++;
+            counters.term(predicateId, plan.superProperties.length + plan.inverseProperties.length + plan.domainTypes.length + rangeTypes);
+            counters.term(typeId, types);
         }
 
     }
@@ -0,0 +1,241 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JDK Flight Recorder events for schema compilation, inferencing and commits. Java 8 runtimes without JFR are still
+ * supported: the events are only loaded when jdk.jfr is available, otherwise begin returns null and end does nothing.
+ */
+final class FlightRecorderEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorderEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Object beginSchemaCompilation() {
+        return AVAILABLE ? Events.beginSchemaCompilation() : null;
+    }
+
+    static void endSchemaCompilation(Object event, int terms, int classes, int properties, boolean loaded) {
+        if (event != null) {
+            Events.endSchemaCompilation(event, terms, classes, properties, loaded);
+        }
+    }
+
+    static Object beginInferencing() {
+        return AVAILABLE ? Events.beginInferencing() : null;
+    }
+
+    static void endInferencing(Object event, boolean everything, long statements) {
+        if (event != null) {
+            Events.endInferencing(event, everything, statements);
+        }
+    }
+
+    static Object beginCommit() {
+        return AVAILABLE ? Events.beginCommit() : null;
+    }
+
+    static void endCommit(Object event, InferenceCounters counters, SchemaDictionary dictionary) {
+        if (event != null) {
+            Events.endCommit(event, counters, dictionary);
+        }
+    }
+
+    // only loaded when AVAILABLE, since it links against jdk.jfr
+    private static final class Events {
+
+        static Object beginSchemaCompilation() {
+            SchemaCompilation event = new SchemaCompilation();
+            event.begin();
+            return event;
+        }
+
+        static Object beginInferencing() {
+            Inferencing event = new Inferencing();
+            event.begin();
+            return event;
+        }
+
+        static Object beginCommit() {
+            Commit event = new Commit();
+            event.begin();
+            return event;
+        }
+
+        static void endSchemaCompilation(Object event, int terms, int classes, int properties, boolean loaded) {
+            SchemaCompilation schemaCompilation = (SchemaCompilation) event;
+            schemaCompilation.end();
+            if (schemaCompilation.shouldCommit()) {
+                schemaCompilation.terms = terms;
+                schemaCompilation.classes = classes;
+                schemaCompilation.properties = properties;
+                schemaCompilation.loaded = loaded;
+                schemaCompilation.commit();
+            }
+        }
+
+        static void endInferencing(Object event, boolean everything, long statements) {
+            Inferencing inferencing = (Inferencing) event;
+            inferencing.end();
+            if (inferencing.shouldCommit()) {
+                inferencing.everything = everything;
+                inferencing.statements = statements;
+                inferencing.commit();
+            }
+        }
+
+        static void endCommit(Object event, InferenceCounters counters, SchemaDictionary dictionary) {
+            Commit commit = (Commit) event;
+            commit.end();
+            if (!commit.shouldCommit()) {
+                return;
+            }
+
+            commit.statements = counters.statements;
+            commit.written = counters.written;
+            commit.duplicates = counters.duplicates;
+            commit.cached = counters.cached;
+            commit.subClassOf = counters.rules[InferenceRule.SUB_CLASS_OF.ordinal()];
+            commit.subPropertyOf = counters.rules[InferenceRule.SUB_PROPERTY_OF.ordinal()];
+            commit.domain = counters.rules[InferenceRule.DOMAIN.ordinal()];
+            commit.range = counters.rules[InferenceRule.RANGE.ordinal()];
+            commit.containerMembership = counters.rules[InferenceRule.CONTAINER_MEMBERSHIP.ordinal()];
+            commit.resourceType = counters.rules[InferenceRule.RESOURCE_TYPE.ordinal()] + counters.rules[InferenceRule.TYPED_RESOURCE_TYPE.ordinal()];
+            commit.inverseOf = counters.rules[InferenceRule.INVERSE_OF.ordinal()];
+            commit.transitive = counters.rules[InferenceRule.TRANSITIVE.ordinal()];
+
+            for (int i = 0; i < counters.touchedTerms(); i++) {
+                int id = counters.touchedTerm(i);
+                if (counters.termCount(id) > commit.topTermInferences && id < dictionary.size()) {
+                    commit.topTerm = dictionary.get(id).stringValue();
+                    commit.topTermInferences = counters.termCount(id);
+                }
+            }
+
+            commit.commit();
+        }
+
+    }
+
+    @Name("com.fluffyelephant.SchemaCompilation")
+    @Label("Schema Compilation")
+    @Category("FastRdfsForwardChainingSail")
+    @Description("Computing the closures and inference plans from the schema")
+    static final class SchemaCompilation extends Event {
+
+        @Label("Schema Terms")
+        int terms;
+
+        @Label("Classes")
+        int classes;
+
+        @Label("Properties")
+        int properties;
+
+        @Label("Loaded")
+        @Description("The tables were mapped from the snapshot in the data directory instead of being computed")
+        boolean loaded;
+
+    }
+
+    @Name("com.fluffyelephant.Inferencing")
+    @Label("Inferencing")
+    @Category("FastRdfsForwardChainingSail")
+    @Description("Inferring the statements of a transaction before it is committed or read")
+    static final class Inferencing extends Event {
+
+        @Label("Everything")
+        @Description("Every explicit statement was inferred again")
+        boolean everything;
+
+        @Label("Statements Inferred From")
+        long statements;
+
+    }
+
+    @Name("com.fluffyelephant.Commit")
+    @Label("Commit")
+    @Category("FastRdfsForwardChainingSail")
+    @Description("A committed transaction and the inferred statements it wrote")
+    static final class Commit extends Event {
+
+        @Label("Statements Inferred From")
+        long statements;
+
+        @Label("Inferred Statements Written")
+        long written;
+
+        @Label("Duplicate Inferred Statements")
+        long duplicates;
+
+        @Label("Inferred Statements Skipped By Cache")
+        long cached;
+
+        @Label("rdfs9 subClassOf")
+        long subClassOf;
+
+        @Label("rdfs7 subPropertyOf")
+        long subPropertyOf;
+
+        @Label("rdfs2 domain")
+        long domain;
+
+        @Label("rdfs3 range")
+        long range;
+
+        @Label("rdfs12 Container Membership")
+        long containerMembership;
+
+        @Label("rdfs4a/rdfs4b Resource Type")
+        long resourceType;
+
+        @Label("prp-inv/prp-symp Inverse Of")
+        long inverseOf;
+
+        @Label("prp-trp Transitive")
+        long transitive;
+
+        @Label("Top Inferring Term")
+        @Description("The schema term that inferred the most statements in the transaction")
+        String topTerm;
+
+        @Label("Top Inferring Term Inferences")
+        long topTermInferences;
+
+    }
+
+}
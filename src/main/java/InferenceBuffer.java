@@ -0,0 +1,110 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Value;
+
+import java.util.Arrays;
+
+/**
+ * Inferred statements kept in parallel arrays until they are written, one entry per context.
+ */
+final class InferenceBuffer implements InferenceSink {
+
+    private Resource[] subjects;
+    private IRI[] predicates;
+    private Value[] objects;
+    private Resource[] contexts;
+    private int size;
+    private long skipped;
+
+    // statements this buffer's producer already emitted, may be null
+    private final InferredStatementCache cache;
+
+    InferenceBuffer(int capacity, InferredStatementCache cache) {
+        this.cache = cache;
+        subjects = new Resource[capacity];
+        predicates = new IRI[capacity];
+        objects = new Value[capacity];
+        contexts = new Resource[capacity];
+    }
+
+    @Override
+    public void accept(Resource subject, IRI predicate, Value object, Resource... contexts) {
+        if (contexts.length == 0) {
+            add(subject, predicate, object, null);
+        }
+        for (Resource context : contexts) {
+            add(subject, predicate, object, context);
+        }
+    }
+
+    private void add(Resource subject, IRI predicate, Value object, Resource context) {
+        if (cache != null && !cache.add(subject, predicate, object, context)) {
+            skipped++;
+            return;
+        }
+
+        if (size == subjects.length) {
+            int capacity = Math.max(16, size * 2);
+            subjects = Arrays.copyOf(subjects, capacity);
+            predicates = Arrays.copyOf(predicates, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+            contexts = Arrays.copyOf(contexts, capacity);
+        }
+
+        subjects[size] = subject;
+        predicates[size] = predicate;
+        objects[size] = object;
+        contexts[size] = context;
+        size++;
+    }
+
+    /**
+     * @return how many statements the cache kept out of this buffer
+     */
+    long skipped() {
+        return skipped;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Resource subject(int i) {
+        return subjects[i];
+    }
+
+    IRI predicate(int i) {
+        return predicates[i];
+    }
+
+    Value object(int i) {
+        return objects[i];
+    }
+
+    Resource context(int i) {
+        return contexts[i];
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import java.util.Arrays;
+
+/**
+ * Counts for a single thread, added to the sail's InferenceMetrics in bulk so that inferring a statement only has to
+ * increment a few plain longs.
+ */
+final class InferenceCounters {
+
+    final long[] rules = new long[InferenceRule.values().length];
+
+    // explicit statements inferred from
+    long statements;
+
+    // inferred statements that were new to the store, already in the store, or skipped by a cache
+    long written;
+    long duplicates;
+    long cached;
+
+    // statements inferred through each schema term, indexed by the id in the schema dictionary
+    private long[] terms = new long[0];
+    private int[] touched = new int[16];
+    private int touchedSize;
+
+    void term(int id, long count) {
+        if (id < 0 || count == 0) {
+            return;
+        }
+        if (id >= terms.length) {
+            terms = Arrays.copyOf(terms, Math.max(id + 1, terms.length * 2));
+        }
+        if (terms[id] == 0) {
+            if (touchedSize == touched.length) {
+                touched = Arrays.copyOf(touched, touchedSize * 2);
+            }
+            touched[touchedSize++] = id;
+        }
+        terms[id] += count;
+    }
+
+    int touchedTerms() {
+        return touchedSize;
+    }
+
+    int touchedTerm(int i) {
+        return touched[i];
+    }
+
+    long termCount(int id) {
+        return terms[id];
+    }
+
+    /**
+     * Adds counts that were made with the same schema dictionary.
+     */
+    void add(InferenceCounters other) {
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] += other.rules[i];
+        }
+        statements += other.statements;
+        written += other.written;
+        duplicates += other.duplicates;
+        cached += other.cached;
+
+        for (int i = 0; i < other.touchedSize; i++) {
+            int id = other.touched[i];
+            term(id, other.terms[id]);
+        }
+    }
+
+    void clearTerms() {
+        for (int i = 0; i < touchedSize; i++) {
+            terms[touched[i]] = 0;
+        }
+        touchedSize = 0;
+    }
+
+    void clear() {
+        Arrays.fill(rules, 0);
+        statements = 0;
+        written = 0;
+        duplicates = 0;
+        cached = 0;
+        clearTerms();
+    }
+
+}
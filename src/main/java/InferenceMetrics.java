@@ -0,0 +1,264 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.openrdf.model.IRI;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals for the whole sail, collected from the InferenceCounters of every connection.
+ */
+final class InferenceMetrics implements InferenceMetricsMXBean {
+
+    private static final int TOP_TERMS = 20;
+
+    private final LongAdder[] rules = new LongAdder[InferenceRule.values().length];
+    private final LongAdder statements = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder cached = new LongAdder();
+    private final Map<IRI, LongAdder> terms = new ConcurrentHashMap<>();
+
+    final Timing schemaCompilation = new Timing();
+    final Timing inferencing = new Timing();
+    final Timing commit = new Timing();
+
+    InferenceMetrics() {
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds the counts and clears them.
+     */
+    void add(InferenceCounters counters, SchemaDictionary dictionary) {
+        for (int i = 0; i < rules.length; i++) {
+            if (counters.rules[i] != 0) {
+                rules[i].add(counters.rules[i]);
+            }
+        }
+        statements.add(counters.statements);
+        written.add(counters.written);
+        duplicates.add(counters.duplicates);
+        cached.add(counters.cached);
+        addTerms(counters, dictionary);
+
+        counters.clear();
+    }
+
+    /**
+     * Adds and clears only the term counts, before the ids they are indexed by are replaced by a new dictionary.
+     */
+    void addTerms(InferenceCounters counters, SchemaDictionary dictionary) {
+        for (int i = 0; i < counters.touchedTerms(); i++) {
+            int id = counters.touchedTerm(i);
+            if (id >= dictionary.size()) {
+                // counted by another connection against a dictionary that has since been replaced
+                continue;
+            }
+            terms.computeIfAbsent(dictionary.get(id), k -> new LongAdder()).add(counters.termCount(id));
+        }
+        counters.clearTerms();
+    }
+
+    private long rule(InferenceRule rule) {
+        return rules[rule.ordinal()].sum();
+    }
+
+    @Override
+    public long getStatementsInferredFrom() {
+        return statements.sum();
+    }
+
+    @Override
+    public long getSubClassOfInferences() {
+        return rule(InferenceRule.SUB_CLASS_OF);
+    }
+
+    @Override
+    public long getSubPropertyOfInferences() {
+        return rule(InferenceRule.SUB_PROPERTY_OF);
+    }
+
+    @Override
+    public long getDomainInferences() {
+        return rule(InferenceRule.DOMAIN);
+    }
+
+    @Override
+    public long getRangeInferences() {
+        return rule(InferenceRule.RANGE);
+    }
+
+    @Override
+    public long getContainerMembershipInferences() {
+        return rule(InferenceRule.CONTAINER_MEMBERSHIP);
+    }
+
+    @Override
+    public long getResourceTypeInferences() {
+        return rule(InferenceRule.RESOURCE_TYPE) + rule(InferenceRule.TYPED_RESOURCE_TYPE);
+    }
+
+    @Override
+    public long getClassSubClassOfResourceInferences() {
+        return rule(InferenceRule.CLASS_SUB_CLASS_OF_RESOURCE);
+    }
+
+    @Override
+    public long getInverseOfInferences() {
+        return rule(InferenceRule.INVERSE_OF);
+    }
+
+    @Override
+    public long getTransitiveInferences() {
+        return rule(InferenceRule.TRANSITIVE);
+    }
+
+    @Override
+    public long getInferredStatementsWritten() {
+        return written.sum();
+    }
+
+    @Override
+    public long getInferredStatementDuplicates() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public long getInferredStatementsSkippedByCache() {
+        return cached.sum();
+    }
+
+    @Override
+    public double getWriteAmplification() {
+        long statements = this.statements.sum();
+        return statements == 0 ? 0 : (double) written.sum() / statements;
+    }
+
+    @Override
+    public Map<String, Long> getTopInferringTerms() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        terms.forEach((term, count) -> counts.put(term.stringValue(), count.sum()));
+
+        Map<String, Long> top = new LinkedHashMap<>();
+        counts.entrySet().stream()
+            .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+            .limit(TOP_TERMS)
+            .forEach(e -> top.put(e.getKey(), e.getValue()));
+        return top;
+    }
+
+    @Override
+    public long getSchemaCompilations() {
+        return schemaCompilation.count.sum();
+    }
+
+    @Override
+    public double getSchemaCompilationTotalMillis() {
+        return schemaCompilation.totalMillis();
+    }
+
+    @Override
+    public double getSchemaCompilationMaxMillis() {
+        return schemaCompilation.maxMillis();
+    }
+
+    @Override
+    public long getInferencings() {
+        return inferencing.count.sum();
+    }
+
+    @Override
+    public double getInferencingTotalMillis() {
+        return inferencing.totalMillis();
+    }
+
+    @Override
+    public double getInferencingMaxMillis() {
+        return inferencing.maxMillis();
+    }
+
+    @Override
+    public long getCommits() {
+        return commit.count.sum();
+    }
+
+    @Override
+    public double getCommitTotalMillis() {
+        return commit.totalMillis();
+    }
+
+    @Override
+    public double getCommitMaxMillis() {
+        return commit.maxMillis();
+    }
+
+    @Override
+    public void resetStatistics() {
+        for (LongAdder rule : rules) {
+            rule.reset();
+        }
+        statements.reset();
+        written.reset();
+        duplicates.reset();
+        cached.reset();
+        terms.clear();
+        schemaCompilation.reset();
+        inferencing.reset();
+        commit.reset();
+    }
+
+    static final class Timing {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        double totalMillis() {
+            return totalNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        double maxMillis() {
+            return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import java.util.Map;
+
+/**
+ * What the inferencer has done since the sail was initialized or the statistics were reset. Registered with the
+ * platform MBean server as com.fluffyelephant:type=FastRdfsForwardChainingSail.
+ */
+public interface InferenceMetricsMXBean {
+
+    long getStatementsInferredFrom();
+
+    long getSubClassOfInferences();
+
+    long getSubPropertyOfInferences();
+
+    long getDomainInferences();
+
+    long getRangeInferences();
+
+    long getContainerMembershipInferences();
+
+    long getResourceTypeInferences();
+
+    long getClassSubClassOfResourceInferences();
+
+    /**
+     * @return statements inferred through owl:inverseOf and owl:SymmetricProperty
+     */
+    long getInverseOfInferences();
+
+    /**
+     * @return statements inferred through owl:TransitiveProperty
+     */
+    long getTransitiveInferences();
+
+    long getInferredStatementsWritten();
+
+    long getInferredStatementDuplicates();
+
+    long getInferredStatementsSkippedByCache();
+
+    /**
+     * @return inferred statements written per explicit statement inferred from
+     */
+    double getWriteAmplification();
+
+    /**
+     * @return the schema terms (properties and classes) that inferred the most statements, with their counts
+     */
+    Map<String, Long> getTopInferringTerms();
+
+    long getSchemaCompilations();
+
+    double getSchemaCompilationTotalMillis();
+
+    double getSchemaCompilationMaxMillis();
+
+    long getInferencings();
+
+    double getInferencingTotalMillis();
+
+    double getInferencingMaxMillis();
+
+    long getCommits();
+
+    double getCommitTotalMillis();
+
+    double getCommitMaxMillis();
+
+    void resetStatistics();
+
+}
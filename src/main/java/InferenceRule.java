@@ -0,0 +1,45 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+/**
+ * The RDFS rules, and the OWL 2 RL rules for inverse, symmetric and transitive properties, applied in addStatement. A
+ * RuleProfile selects which of them are applied, and the metrics count how many statements each of them infers.
+ */
+public enum InferenceRule {
+
+    SUB_CLASS_OF("rdfs9"),
+    SUB_PROPERTY_OF("rdfs7"),
+    DOMAIN("rdfs2"),
+    RANGE("rdfs3"),
+    CONTAINER_MEMBERSHIP("rdfs12"),
+    RESOURCE_TYPE("rdfs4a/rdfs4b"),
+    // rdfs4a/rdfs4b only for the resources that are given a type, which is implied by RESOURCE_TYPE
+    TYPED_RESOURCE_TYPE("rdfs4a/rdfs4b"),
+    CLASS_SUB_CLASS_OF_RESOURCE("rdfs8"),
+    INVERSE_OF("prp-inv1/prp-inv2/prp-symp"),
+    TRANSITIVE("prp-trp");
+
+    final String rdfsRule;
+
+    InferenceRule(String rdfsRule) {
+        this.rdfsRule = rdfsRule;
+    }
+
+}
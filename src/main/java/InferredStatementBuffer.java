@@ -0,0 +1,663 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+import org.openrdf.model.BNode;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.sail.SailException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the inferred statements of a transaction so that they reach the store sorted by subject, predicate, object
+ * and context, without duplicates and all at once, instead of one random write per inferred statement. The statements
+ * in memory are kept off the heap as tuples of four term ids (16 bytes each), and only their distinct terms are kept
+ * on the heap. When the limit is reached the tuples are sorted and spilled to a file with their terms, the ids are
+ * handed out again from scratch, and the files are merged when the statements are written. So the limit bounds the
+ * terms on the heap as well as the tuples.
+ * <p>
+ * The store's own ids aren't visible through the Sail API, so the terms are ordered by kind and value. The ids only
+ * stand in for the values while the statements in memory are sorted.
+ */
+final class InferredStatementBuffer {
+
+    // subject, predicate, object, context
+    static final Comparator<Statement> ORDER = Comparator
+        .comparing(Statement::getSubject, InferredStatementBuffer::compare)
+        .thenComparing(Statement::getPredicate, InferredStatementBuffer::compare)
+        .thenComparing(Statement::getObject, InferredStatementBuffer::compare)
+        .thenComparing(Statement::getContext, InferredStatementBuffer::compare);
+
+    private static final byte NULL = 0;
+    private static final byte IRI_TERM = 1;
+    private static final byte BNODE_TERM = 2;
+    private static final byte LITERAL_TERM = 3;
+    private static final byte LANGUAGE_LITERAL_TERM = 4;
+
+    private static final int TUPLE_INTS = 4;
+    private static final int TUPLE_BYTES = TUPLE_INTS * Integer.BYTES;
+
+    // the most statements one buffer can stage
+    static final int MAX_SIZE = Integer.MAX_VALUE / TUPLE_BYTES;
+
+    // the tuples start out this large and grow up to the limit
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // spilled files of the same size that are merged into one larger file
+    private static final int FAN_IN = 16;
+
+    private final int limit;
+    private final ValueFactory valueFactory;
+    private final File directory;
+
+    // the terms of the statements in memory, id 0 is the null context
+    private final Map<Value, Integer> ids = new HashMap<>();
+    private final List<Value> terms = new ArrayList<>();
+
+    // kept for the following transactions
+    private IntBuffer tuples;
+    private int size = 0;
+
+    private final List<Run> runs = new ArrayList<>();
+
+    // duplicates left out while spilling
+    private long duplicates = 0;
+
+    /**
+     * @param directory where the spilled statements are written, or null for the temporary directory
+     */
+    InferredStatementBuffer(int limit, ValueFactory valueFactory, File directory) {
+        if (limit > MAX_SIZE) {
+            throw new IllegalArgumentException("A write buffer holds at most " + MAX_SIZE + " statements, was " + limit);
+        }
+        this.limit = limit;
+        this.valueFactory = valueFactory;
+        this.directory = directory;
+        terms.add(null);
+    }
+
+    void add(Resource subject, IRI predicate, Value object, Resource context) throws SailException {
+        if (tuples == null || size * TUPLE_INTS == tuples.capacity()) {
+            grow();
+        }
+
+        int offset = size * TUPLE_INTS;
+        tuples.put(offset, id(subject));
+        tuples.put(offset + 1, id(predicate));
+        tuples.put(offset + 2, id(object));
+        tuples.put(offset + 3, context == null ? 0 : id(context));
+        size++;
+
+        if (size == limit) {
+            spill();
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0 && runs.isEmpty();
+    }
+
+    /**
+     * Passes every collected statement once to the sink, in order, and empties the buffer.
+     *
+     * @return how many duplicates were left out
+     */
+    long drain(InferenceSink sink) throws SailException {
+        try (Sorted sorted = sorted()) {
+            for (Statement statement = sorted.next(); statement != null; statement = sorted.next()) {
+                if (statement.getContext() == null) {
+                    sink.accept(statement.getSubject(), statement.getPredicate(), statement.getObject());
+                } else {
+                    sink.accept(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+                }
+            }
+            return sorted.duplicates();
+        }
+    }
+
+    /**
+     * Every collected statement once, in order. Closing it empties the buffer.
+     */
+    Sorted sorted() throws SailException {
+        sort();
+
+        List<Cursor> cursors = new ArrayList<>(runs.size() + 1);
+        cursors.add(new BufferCursor());
+        try {
+            for (Run run : runs) {
+                cursors.add(new RunCursor(run));
+            }
+            return new Sorted(cursors);
+        } catch (IOException | RuntimeException e) {
+            close(cursors);
+            clear();
+            throw e instanceof IOException ? new SailException(e) : (RuntimeException) e;
+        }
+    }
+
+    /**
+     * Drops the collected statements and deletes the spilled ones.
+     */
+    void clear() {
+        size = 0;
+        for (Run run : runs) {
+            run.file.delete();
+        }
+        runs.clear();
+        duplicates = 0;
+        clearTerms();
+    }
+
+    private void clearTerms() {
+        ids.clear();
+        terms.subList(1, terms.size()).clear();
+    }
+
+    private int id(Value value) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = terms.size();
+            terms.add(value);
+            ids.put(value, id);
+        }
+        return id;
+    }
+
+    private void grow() {
+        int capacity = tuples == null ? Math.min(limit, INITIAL_CAPACITY) : (int) Math.min(limit, 2L * size);
+        IntBuffer grown = ByteBuffer.allocateDirect(capacity * TUPLE_BYTES).asIntBuffer();
+        if (tuples != null) {
+            tuples.clear();
+            grown.put(tuples);
+            grown.clear();
+        }
+        tuples = grown;
+    }
+
+    /**
+     * Renumbers the terms in value order, so that sorting the tuples by id sorts them by value.
+     */
+    private void sort() {
+        List<Value> sorted = new ArrayList<>(terms.subList(1, terms.size()));
+        sorted.sort(InferredStatementBuffer::compare);
+
+        int[] rank = new int[terms.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            rank[ids.get(sorted.get(i))] = i + 1;
+        }
+        for (int i = 0; i < size * TUPLE_INTS; i++) {
+            tuples.put(i, rank[tuples.get(i)]);
+        }
+
+        clearTerms();
+        for (Value value : sorted) {
+            ids.put(value, terms.size());
+            terms.add(value);
+        }
+
+        sort(0, size - 1);
+    }
+
+    private void spill() throws SailException {
+        sort();
+
+        try {
+            File file = File.createTempFile("inferred", ".run", directory);
+            long written = 0;
+
+            try (DataOutputStream out = output(file)) {
+                for (int i = 0; i < size; i++) {
+                    if (i > 0 && compare(i, i - 1) == 0) {
+                        duplicates++;
+                        continue;
+                    }
+                    int offset = i * TUPLE_INTS;
+                    for (int j = 0; j < TUPLE_INTS; j++) {
+                        write(out, terms.get(tuples.get(offset + j)));
+                    }
+                    written++;
+                }
+            } catch (IOException | RuntimeException e) {
+                file.delete();
+                throw e;
+            }
+
+            runs.add(new Run(file, written, 0));
+            compactRuns(0);
+        } catch (IOException e) {
+            throw new SailException(e);
+        }
+
+        size = 0;
+        clearTerms();
+    }
+
+    /**
+     * Merges the runs of a level into one of the next level once there are enough of them, so that draining doesn't
+     * need to open too many files and every statement is merged only a few times.
+     */
+    private void compactRuns(int level) throws IOException {
+        List<Run> merging = new ArrayList<>(FAN_IN);
+        for (Run run : runs) {
+            if (run.level == level) {
+                merging.add(run);
+            }
+        }
+        if (merging.size() < FAN_IN) {
+            return;
+        }
+
+        File file = File.createTempFile("inferred", ".run", directory);
+        List<Cursor> cursors = new ArrayList<>(merging.size());
+        long written = 0;
+        long merged;
+
+        try (DataOutputStream out = output(file)) {
+            for (Run run : merging) {
+                cursors.add(new RunCursor(run));
+            }
+            Merge merge = new Merge(cursors);
+            for (Statement statement = merge.next(); statement != null; statement = merge.next()) {
+                write(out, statement);
+                written++;
+            }
+            merged = merge.duplicates;
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        } finally {
+            close(cursors);
+        }
+
+        for (Run run : merging) {
+            run.file.delete();
+        }
+        runs.removeAll(merging);
+        runs.add(new Run(file, written, level + 1));
+        duplicates += merged;
+
+        compactRuns(level + 1);
+    }
+
+    private static DataOutputStream output(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    private static void close(List<Cursor> cursors) {
+        for (Cursor cursor : cursors) {
+            cursor.close();
+        }
+    }
+
+    private static int compare(Value a, Value b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+
+        int kind = Integer.compare(kind(a), kind(b));
+        if (kind != 0) {
+            return kind;
+        }
+
+        int value = a.stringValue().compareTo(b.stringValue());
+        if (value != 0 || !(a instanceof Literal)) {
+            return value;
+        }
+
+        Literal left = (Literal) a;
+        Literal right = (Literal) b;
+        int datatype = left.getDatatype().stringValue().compareTo(right.getDatatype().stringValue());
+        if (datatype != 0) {
+            return datatype;
+        }
+        return left.getLanguage().orElse("").compareTo(right.getLanguage().orElse(""));
+    }
+
+    private static int kind(Value value) {
+        return value instanceof IRI ? 0 : value instanceof BNode ? 1 : 2;
+    }
+
+    private static void write(DataOutputStream out, Statement statement) throws IOException {
+        write(out, statement.getSubject());
+        write(out, statement.getPredicate());
+        write(out, statement.getObject());
+        write(out, statement.getContext());
+    }
+
+    private static void write(DataOutputStream out, Value value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof IRI) {
+            out.writeByte(IRI_TERM);
+            writeString(out, value.stringValue());
+        } else if (value instanceof BNode) {
+            out.writeByte(BNODE_TERM);
+            writeString(out, ((BNode) value).getID());
+        } else {
+            Literal literal = (Literal) value;
+            if (literal.getLanguage().isPresent()) {
+                out.writeByte(LANGUAGE_LITERAL_TERM);
+                writeString(out, literal.getLabel());
+                writeString(out, literal.getLanguage().get());
+            } else {
+                out.writeByte(LITERAL_TERM);
+                writeString(out, literal.getLabel());
+                writeString(out, literal.getDatatype().stringValue());
+            }
+        }
+    }
+
+    private Value read(DataInputStream in) throws IOException {
+        byte term = in.readByte();
+        switch (term) {
+            case NULL:
+                return null;
+            case IRI_TERM:
+                return valueFactory.createIRI(readString(in));
+            case BNODE_TERM:
+                return valueFactory.createBNode(readString(in));
+            case LITERAL_TERM:
+                return valueFactory.createLiteral(readString(in), valueFactory.createIRI(readString(in)));
+            case LANGUAGE_LITERAL_TERM:
+                return valueFactory.createLiteral(readString(in), readString(in));
+            default:
+                throw new IOException("Unknown term " + term + " in spilled statements");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int compare(int a, int b) {
+        int left = a * TUPLE_INTS;
+        int right = b * TUPLE_INTS;
+        for (int i = 0; i < TUPLE_INTS; i++) {
+            int difference = Integer.compare(tuples.get(left + i), tuples.get(right + i));
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    private int compare(int index, int[] tuple) {
+        int offset = index * TUPLE_INTS;
+        for (int i = 0; i < TUPLE_INTS; i++) {
+            int difference = Integer.compare(tuples.get(offset + i), tuple[i]);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+
+    // Quicksort of the tuples in place, so that sorting doesn't copy them to the heap.
+    private void sort(int low, int high) {
+        int[] pivot = new int[TUPLE_INTS];
+
+        while (high - low > 16) {
+            read((low + high) >>> 1, pivot);
+
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (compare(i, pivot) < 0) {
+                    i++;
+                }
+                while (compare(j, pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+
+            // the smaller side recursively, so that the stack stays shallow
+            if (j - low < high - i) {
+                sort(low, j);
+                low = i;
+            } else {
+                sort(i, high);
+                high = j;
+            }
+        }
+
+        int[] tuple = pivot;
+        for (int i = low + 1; i <= high; i++) {
+            read(i, tuple);
+            int j = i - 1;
+            while (j >= low && compare(j, tuple) > 0) {
+                copy(j, j + 1);
+                j--;
+            }
+            write(j + 1, tuple);
+        }
+    }
+
+    private void read(int index, int[] tuple) {
+        int offset = index * TUPLE_INTS;
+        for (int i = 0; i < TUPLE_INTS; i++) {
+            tuple[i] = tuples.get(offset + i);
+        }
+    }
+
+    private void write(int index, int[] tuple) {
+        int offset = index * TUPLE_INTS;
+        for (int i = 0; i < TUPLE_INTS; i++) {
+            tuples.put(offset + i, tuple[i]);
+        }
+    }
+
+    private void copy(int from, int to) {
+        int source = from * TUPLE_INTS;
+        int target = to * TUPLE_INTS;
+        for (int i = 0; i < TUPLE_INTS; i++) {
+            tuples.put(target + i, tuples.get(source + i));
+        }
+    }
+
+    private void swap(int a, int b) {
+        int left = a * TUPLE_INTS;
+        int right = b * TUPLE_INTS;
+        for (int i = 0; i < TUPLE_INTS; i++) {
+            int value = tuples.get(left + i);
+            tuples.put(left + i, tuples.get(right + i));
+            tuples.put(right + i, value);
+        }
+    }
+
+    /**
+     * The statements of sorted(), merged from memory and the spilled files.
+     */
+    final class Sorted implements AutoCloseable {
+
+        private final List<Cursor> cursors;
+        private final Merge merge;
+
+        private Sorted(List<Cursor> cursors) throws IOException {
+            this.cursors = cursors;
+            merge = new Merge(cursors);
+        }
+
+        /**
+         * @return null after the last statement
+         */
+        Statement next() throws SailException {
+            try {
+                return merge.next();
+            } catch (IOException e) {
+                throw new SailException(e);
+            }
+        }
+
+        /**
+         * @return how many duplicates were left out so far
+         */
+        long duplicates() {
+            return duplicates + merge.duplicates;
+        }
+
+        @Override
+        public void close() {
+            InferredStatementBuffer.close(cursors);
+            clear();
+        }
+
+    }
+
+    /**
+     * Merges sorted cursors, leaving out duplicates.
+     */
+    private static final class Merge {
+
+        private final PriorityQueue<Cursor> queue;
+        private Statement previous;
+        long duplicates = 0;
+
+        Merge(List<Cursor> cursors) throws IOException {
+            queue = new PriorityQueue<>(Math.max(1, cursors.size()), (a, b) -> ORDER.compare(a.head, b.head));
+            for (Cursor cursor : cursors) {
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        }
+
+        Statement next() throws IOException {
+            while (!queue.isEmpty()) {
+                Cursor cursor = queue.poll();
+                Statement statement = cursor.head;
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+
+                if (previous != null && ORDER.compare(previous, statement) == 0) {
+                    duplicates++;
+                } else {
+                    previous = statement;
+                    return statement;
+                }
+            }
+            return null;
+        }
+
+    }
+
+    private static final class Run {
+
+        final File file;
+        final long size;
+        final int level;
+
+        Run(File file, long size, int level) {
+            this.file = file;
+            this.size = size;
+            this.level = level;
+        }
+
+    }
+
+    private abstract static class Cursor {
+
+        Statement head;
+
+        abstract boolean advance() throws IOException;
+
+        void close() {
+        }
+
+    }
+
+    private final class BufferCursor extends Cursor {
+
+        private int next = 0;
+
+        @Override
+        boolean advance() {
+            if (next == size) {
+                return false;
+            }
+            int offset = next++ * TUPLE_INTS;
+            head = valueFactory.createStatement((Resource) terms.get(tuples.get(offset)), (IRI) terms.get(tuples.get(offset + 1)),
+                terms.get(tuples.get(offset + 2)), (Resource) terms.get(tuples.get(offset + 3)));
+            return true;
+        }
+
+    }
+
+    private final class RunCursor extends Cursor {
+
+        private final DataInputStream in;
+        private long remaining;
+
+        RunCursor(Run run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), 1 << 16));
+            remaining = run.size;
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            head = valueFactory.createStatement((Resource) read(in), (IRI) read(in), read(in), (Resource) read(in));
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+    }
+
+}
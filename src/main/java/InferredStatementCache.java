@@ -0,0 +1,120 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Value;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the inferred statements that were recently written, so that the same statement inferred over and over
+ * (rdf:type rdfs:Resource for every subject, the domain types for every triple with the same subject, ...) only
+ * reaches the store once. It is a direct mapped cache: a statement evicts whatever was in its slot, so it never grows
+ * and never allocates.
+ */
+final class InferredStatementCache {
+
+    private final Resource[] subjects;
+    private final IRI[] predicates;
+    private final Value[] objects;
+    private final Resource[] contexts;
+
+    // a slot is only valid if its stamp is the current epoch, which makes clear() constant time
+    private final int[] stamps;
+    private int epoch = 1;
+
+    private final int mask;
+
+    private long hits;
+    private long misses;
+
+    InferredStatementCache(int size) {
+        int capacity = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+
+        subjects = new Resource[capacity];
+        predicates = new IRI[capacity];
+        objects = new Value[capacity];
+        contexts = new Resource[capacity];
+        stamps = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return false if the statement was recently added, otherwise it is remembered and true is returned
+     */
+    boolean add(Resource subject, IRI predicate, Value object, Resource context) {
+        int hash = subject.hashCode();
+        hash = hash * 31 + predicate.hashCode();
+        hash = hash * 31 + object.hashCode();
+        if (context != null) {
+            hash = hash * 31 + context.hashCode();
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+
+        if (stamps[slot] == epoch
+            && same(subjects[slot], subject)
+            && same(predicates[slot], predicate)
+            && same(objects[slot], object)
+            && (contexts[slot] == null ? context == null : same(contexts[slot], context))) {
+            hits++;
+            return false;
+        }
+
+        subjects[slot] = subject;
+        predicates[slot] = predicate;
+        objects[slot] = object;
+        contexts[slot] = context;
+        stamps[slot] = epoch;
+        misses++;
+        return true;
+    }
+
+    private static boolean same(Value cached, Value value) {
+        return cached == value || cached.equals(value);
+    }
+
+    /**
+     * Forgets every statement, for when inferred statements may have been removed from the store.
+     */
+    void clear() {
+        epoch++;
+        if (epoch == 0) {
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+}
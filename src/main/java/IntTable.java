@@ -0,0 +1,110 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import java.nio.IntBuffer;
+
+/**
+ * An immutable table of sorted int rows stored as two flat buffers (compressed sparse rows). Row i is
+ * values[offsets[i]] until values[offsets[i + 1]]. The buffers are either heap arrays or slices of a memory-mapped
+ * schema snapshot.
+ */
+final class IntTable {
+
+    static final IntTable EMPTY = of(IntBuffer.wrap(new int[]{0}), IntBuffer.wrap(new int[0]));
+
+    private final IntBuffer offsets;
+    private final IntBuffer values;
+    private final int rows;
+
+    private IntTable(IntBuffer offsets, IntBuffer values) {
+        this.offsets = offsets;
+        this.values = values;
+        this.rows = offsets.limit() - 1;
+    }
+
+    /**
+     * Uses the buffers from their current position without copying them.
+     */
+    static IntTable of(IntBuffer offsets, IntBuffer values) {
+        return new IntTable(offsets.slice(), values.slice());
+    }
+
+    static IntTable of(int[][] rows) {
+        int[] offsets = new int[rows.length + 1];
+        for (int i = 0; i < rows.length; i++) {
+            offsets[i + 1] = offsets[i] + (rows[i] != null ? rows[i].length : 0);
+        }
+
+        int[] values = new int[offsets[rows.length]];
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] != null) {
+                System.arraycopy(rows[i], 0, values, offsets[i], rows[i].length);
+            }
+        }
+
+        return new IntTable(IntBuffer.wrap(offsets), IntBuffer.wrap(values));
+    }
+
+    IntBuffer offsets() {
+        return offsets.asReadOnlyBuffer();
+    }
+
+    IntBuffer values() {
+        return values.asReadOnlyBuffer();
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    int size(int row) {
+        if (row < 0 || row >= rows) {
+            return 0;
+        }
+        return offsets.get(row + 1) - offsets.get(row);
+    }
+
+    int get(int row, int index) {
+        return values.get(offsets.get(row) + index);
+    }
+
+    boolean contains(int row, int value) {
+        if (row < 0 || row >= rows) {
+            return false;
+        }
+
+        int low = offsets.get(row);
+        int high = offsets.get(row + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int v = values.get(mid);
+            if (v < value) {
+                low = mid + 1;
+            } else if (v > value) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
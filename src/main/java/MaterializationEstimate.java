@@ -0,0 +1,288 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.sail.SailException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What materializing a dataset with the compiled schema would add, estimated from how often each predicate and class
+ * occurs or from a sample of the data, without writing anything. The inferred statements are counted before
+ * duplicates are left out, so the total is an upper bound; with a sample the statements that would actually be new
+ * are counted as well, leaving out the ones in the sample or already in the store.
+ */
+public final class MaterializationEstimate {
+
+    private static final Resource[] NO_CONTEXTS = new Resource[0];
+
+    private final long statements;
+    private final long inferredStatements;
+    private final long newStatements;
+    private final List<FanOut> fanOuts;
+
+    private MaterializationEstimate(long statements, long inferredStatements, long newStatements, List<FanOut> fanOuts) {
+        this.statements = statements;
+        this.inferredStatements = inferredStatements;
+        this.newStatements = newStatements;
+        this.fanOuts = Collections.unmodifiableList(fanOuts);
+    }
+
+    /**
+     * rdf:type statements are counted per class, so rdf:type in predicateCounts is left out. Objects are assumed to
+     * be resources, which get range types.
+     */
+    static MaterializationEstimate fromCounts(FastRdfsForwardChainingSailConnetion connection, SchemaTables tables, Map<IRI, Long> predicateCounts, Map<IRI, Long> classCounts) throws SailException {
+        BNode subject = SimpleValueFactory.getInstance().createBNode();
+        BNode object = SimpleValueFactory.getInstance().createBNode();
+        Counter counter = new Counter();
+
+        Map<Term, long[]> counts = new LinkedHashMap<>();
+        for (Map.Entry<IRI, Long> entry : predicateCounts.entrySet()) {
+            if (!entry.getKey().equals(RDF.TYPE)) {
+                counter.count = 0;
+                connection.infer(tables, subject, entry.getKey(), object, NO_CONTEXTS, counter, null);
+                counts.put(new Term(entry.getKey(), false), new long[]{entry.getValue(), counter.count * entry.getValue()});
+            }
+        }
+        for (Map.Entry<IRI, Long> entry : classCounts.entrySet()) {
+            counter.count = 0;
+            connection.infer(tables, subject, RDF.TYPE, entry.getKey(), NO_CONTEXTS, counter, null);
+            counts.put(new Term(entry.getKey(), true), new long[]{entry.getValue(), counter.count * entry.getValue()});
+        }
+
+        return of(counts, 1, -1);
+    }
+
+    /**
+     * @param datasetSize the number of statements in the whole dataset, which the counts are scaled up to
+     */
+    static MaterializationEstimate fromSample(FastRdfsForwardChainingSailConnetion connection, SchemaTables tables, Iterable<? extends Statement> sample, long datasetSize) throws SailException {
+        Set<List<Value>> explicit = new HashSet<>();
+        Set<List<Value>> inferred = new HashSet<>();
+        Counter counter = new Counter();
+        InferenceSink sink = (subject, predicate, object, contexts) -> {
+            counter.count += Math.max(1, contexts.length);
+            if (contexts.length == 0) {
+                inferred.add(Arrays.asList(subject, predicate, object, null));
+            }
+            for (Resource context : contexts) {
+                inferred.add(Arrays.asList(subject, predicate, object, context));
+            }
+        };
+
+        Map<Term, long[]> counts = new HashMap<>();
+        for (Statement statement : sample) {
+            explicit.add(Arrays.asList(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext()));
+
+            Resource[] contexts = statement.getContext() == null ? NO_CONTEXTS : new Resource[]{statement.getContext()};
+            counter.count = 0;
+            connection.infer(tables, statement.getSubject(), statement.getPredicate(), statement.getObject(), contexts, sink, null);
+
+            boolean type = statement.getPredicate().equals(RDF.TYPE) && statement.getObject() instanceof IRI;
+            long[] termCounts = counts.computeIfAbsent(new Term(type ? (IRI) statement.getObject() : statement.getPredicate(), type), t -> new long[2]);
+            termCounts[0]++;
+            termCounts[1] += counter.count;
+        }
+
+        inferred.removeAll(explicit);
+        inferred.removeIf(statement -> connection.hasStatement((Resource) statement.get(0), (IRI) statement.get(1), statement.get(2), true, (Resource) statement.get(3)));
+
+        long sampleSize = counts.values().stream().mapToLong(termCounts -> termCounts[0]).sum();
+        double scale = sampleSize == 0 || datasetSize <= 0 ? 1 : (double) datasetSize / sampleSize;
+
+        return of(counts, scale, Math.round(inferred.size() * scale));
+    }
+
+    private static MaterializationEstimate of(Map<Term, long[]> counts, double scale, long newStatements) {
+        List<FanOut> fanOuts = new ArrayList<>(counts.size());
+        long statements = 0;
+        long inferredStatements = 0;
+
+        for (Map.Entry<Term, long[]> entry : counts.entrySet()) {
+            FanOut fanOut = new FanOut(entry.getKey().iri, entry.getKey().type, Math.round(entry.getValue()[0] * scale), Math.round(entry.getValue()[1] * scale), (double) entry.getValue()[1] / entry.getValue()[0]);
+            fanOuts.add(fanOut);
+            statements += fanOut.statements;
+            inferredStatements += fanOut.inferredStatements;
+        }
+
+        fanOuts.sort(Comparator.comparingLong(FanOut::getInferredStatements).reversed().thenComparing(fanOut -> fanOut.term.stringValue()));
+
+        return new MaterializationEstimate(statements, inferredStatements, newStatements, fanOuts);
+    }
+
+    /**
+     * @return the explicit statements the estimate is for
+     */
+    public long getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return the statements inference would produce, duplicates included
+     */
+    public long getInferredStatements() {
+        return inferredStatements;
+    }
+
+    /**
+     * @return the inferred statements that would be new, scaled up from the sample, or -1 when estimated from counts
+     */
+    public long getNewStatements() {
+        return newStatements;
+    }
+
+    /**
+     * @return explicit plus inferred statements, using the new statements when they are known
+     */
+    public long getMaterializedSize() {
+        return statements + (newStatements >= 0 ? newStatements : inferredStatements);
+    }
+
+    /**
+     * @return every predicate and class counted, the ones that infer the most first
+     */
+    public List<FanOut> getFanOuts() {
+        return fanOuts;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(statements).append(" statements infer ").append(inferredStatements).append(" statements");
+        if (newStatements >= 0) {
+            report.append(", ").append(newStatements).append(" of them new");
+        }
+        report.append(", ").append(getMaterializedSize()).append(" statements materialized\n");
+
+        for (FanOut fanOut : fanOuts) {
+            report.append(fanOut).append('\n');
+        }
+        return report.toString();
+    }
+
+    /**
+     * What the statements with a given predicate, or rdf:type statements with a given class, infer.
+     */
+    public static final class FanOut {
+
+        private final IRI term;
+        private final boolean type;
+        private final long statements;
+        private final long inferredStatements;
+        private final double perStatement;
+
+        private FanOut(IRI term, boolean type, long statements, long inferredStatements, double perStatement) {
+            this.term = term;
+            this.type = type;
+            this.statements = statements;
+            this.inferredStatements = inferredStatements;
+            this.perStatement = perStatement;
+        }
+
+        /**
+         * @return the predicate, or the class for rdf:type statements
+         */
+        public IRI getTerm() {
+            return term;
+        }
+
+        public boolean isClass() {
+            return type;
+        }
+
+        public long getStatements() {
+            return statements;
+        }
+
+        public long getInferredStatements() {
+            return inferredStatements;
+        }
+
+        /**
+         * @return the statements inferred per statement, duplicates included
+         */
+        public double getPerStatement() {
+            return perStatement;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s%s adds %.2f statements per triple, %d for %d triples",
+                type ? "rdf:type " : "", term, perStatement, inferredStatements, statements);
+        }
+
+    }
+
+    private static final class Counter implements InferenceSink {
+
+        long count;
+
+        @Override
+        public void accept(Resource subject, IRI predicate, Value object, Resource... contexts) {
+            count += Math.max(1, contexts.length);
+        }
+
+    }
+
+    private static final class Term {
+
+        final IRI iri;
+        final boolean type;
+
+        Term(IRI iri, boolean type) {
+            this.iri = iri;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Term)) {
+                return false;
+            }
+            Term term = (Term) o;
+            return type == term.type && iri.equals(term.iri);
+        }
+
+        @Override
+        public int hashCode() {
+            return iri.hashCode() * 31 + (type ? 1 : 0);
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Everything that has to be inferred from a triple with a given predicate, compiled from the schema so that
+ * addStatement only needs a single lookup and some array iteration.
+ */
+final class PredicatePlan {
+
+    private static final IRI[] NONE = new IRI[0];
+
+    static final PredicatePlan EMPTY = new PredicatePlan(NONE, NONE, NONE, NONE, NONE, NONE, false, false);
+    static final PredicatePlan CONTAINER_MEMBERSHIP = new PredicatePlan(NONE, NONE, NONE, NONE, NONE, NONE, false, true);
+
+    // for (s p o): (s q o) for the super properties and (o q s) for the inverse properties, including the symmetric
+    // ones, reached through each other
+    final IRI[] superProperties;
+    final IRI[] inverseProperties;
+
+    // the types of the subject and the object, from the domains and ranges of all of those properties
+    final IRI[] domainTypes;
+    final IRI[] rangeTypes;
+
+    // the transitive properties among p and its super properties, and among the inverse properties
+    final IRI[] transitiveProperties;
+    final IRI[] inverseTransitiveProperties;
+
+    // the subject or the object is a class and gets rdfs:subClassOf rdfs:Resource, when the profile includes rdfs8
+    final boolean domainIncludesClass;
+    final boolean rangeIncludesClass;
+
+    // rdfs12, when the profile includes it
+    final boolean containerMembership;
+
+    private PredicatePlan(IRI[] superProperties, IRI[] inverseProperties, IRI[] domainTypes, IRI[] rangeTypes,
+                          IRI[] transitiveProperties, IRI[] inverseTransitiveProperties, boolean classSubClassOfResource, boolean containerMembership) {
+        this.superProperties = superProperties;
+        this.inverseProperties = inverseProperties;
+        this.domainTypes = domainTypes;
+        this.rangeTypes = rangeTypes;
+        this.transitiveProperties = transitiveProperties;
+        this.inverseTransitiveProperties = inverseTransitiveProperties;
+        this.domainIncludesClass = classSubClassOfResource && contains(domainTypes, RDFS.CLASS);
+        this.rangeIncludesClass = classSubClassOfResource && contains(rangeTypes, RDFS.CLASS);
+        this.containerMembership = containerMembership;
+    }
+
+    static PredicatePlan compile(IRI predicate, IRI[] superProperties, IRI[] inverseProperties, IRI[] domainTypes, IRI[] rangeTypes,
+                                 IRI[] transitiveProperties, IRI[] inverseTransitiveProperties, RuleProfile profile) {
+        boolean containerMembership = profile.includes(InferenceRule.CONTAINER_MEMBERSHIP) && isContainerMembershipProperty(predicate);
+
+        if (superProperties.length == 0 && inverseProperties.length == 0 && domainTypes.length == 0 && rangeTypes.length == 0
+            && transitiveProperties.length == 0 && inverseTransitiveProperties.length == 0) {
+            return containerMembership ? CONTAINER_MEMBERSHIP : EMPTY;
+        }
+
+        return new PredicatePlan(superProperties, inverseProperties, domainTypes, rangeTypes, transitiveProperties, inverseTransitiveProperties,
+            profile.includes(InferenceRule.CLASS_SUB_CLASS_OF_RESOURCE), containerMembership);
+    }
+
+    boolean transitive() {
+        return transitiveProperties.length > 0 || inverseTransitiveProperties.length > 0;
+    }
+
+    /**
+     * True for rdf:_1, rdf:_2, ... without allocating substrings or parsing numbers.
+     */
+    static boolean isContainerMembershipProperty(IRI predicate) {
+        String iri = predicate.stringValue();
+        int prefixLength = RDF.NAMESPACE.length();
+
+        if (iri.length() <= prefixLength + 1 || iri.charAt(prefixLength) != '_' || !iri.startsWith(RDF.NAMESPACE)) {
+            return false;
+        }
+
+        boolean positive = false;
+        for (int i = prefixLength + 1; i < iri.length(); i++) {
+            char c = iri.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+            positive |= c != '0';
+        }
+
+        return positive;
+    }
+
+    boolean sameAs(PredicatePlan other) {
+        return containerMembership == other.containerMembership
+            && sameIris(superProperties, other.superProperties)
+            && sameIris(inverseProperties, other.inverseProperties)
+            && sameIris(domainTypes, other.domainTypes)
+            && sameIris(rangeTypes, other.rangeTypes)
+            && sameIris(transitiveProperties, other.transitiveProperties)
+            && sameIris(inverseTransitiveProperties, other.inverseTransitiveProperties);
+    }
+
+    /**
+     * Compares two arrays as sets, since the order depends on the ids in the dictionary they were compiled with.
+     */
+    static boolean sameIris(IRI[] a, IRI[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        if (a.length <= 16) {
+            for (IRI iri : a) {
+                if (!contains(b, iri)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return new HashSet<>(Arrays.asList(a)).containsAll(Arrays.asList(b));
+    }
+
+    static boolean contains(IRI[] iris, IRI iri) {
+        for (IRI i : iris) {
+            if (i.equals(iri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
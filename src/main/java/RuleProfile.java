@@ -0,0 +1,111 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The rules the sail applies to the data. The schema tables are compiled with the profile, so a rule that is left out
+ * isn't checked for each statement, and nothing it would infer is stored or inferred from. The closure of the schema
+ * itself, rdfs:subClassOf and rdfs:subPropertyOf between classes and properties, and the RDFS axioms are always
+ * stored.
+ */
+public final class RuleProfile {
+
+    /**
+     * rdfs2, rdfs3, rdfs7 and rdfs9: domains, ranges, super properties and super classes.
+     */
+    public static final RuleProfile MINIMAL = new RuleProfile("minimal", EnumSet.of(InferenceRule.DOMAIN, InferenceRule.RANGE,
+        InferenceRule.SUB_PROPERTY_OF, InferenceRule.SUB_CLASS_OF));
+
+    /**
+     * The minimal rules, rdfs12 and rdf:type rdfs:Resource for the resources that are given a type. This is what the
+     * sail applies when it isn't sesameCompliant.
+     */
+    public static final RuleProfile RDFS = new RuleProfile("rdfs", with(MINIMAL, InferenceRule.CONTAINER_MEMBERSHIP,
+        InferenceRule.TYPED_RESOURCE_TYPE));
+
+    /**
+     * The RDFS rules with rdfs4a and rdfs4b for every resource and rdfs8, which is what the sail applies when it is
+     * sesameCompliant. Sesame's ForwardChainingRDFSInferencer applies more rules, such as rdf1 and rdfs6 for every
+     * predicate, so the two don't infer the same statements.
+     */
+    public static final RuleProfile SESAME = new RuleProfile("sesame", EnumSet.complementOf(EnumSet.of(InferenceRule.INVERSE_OF,
+        InferenceRule.TRANSITIVE)));
+
+    /**
+     * The RDFS rules and the OWL property rules for owl:inverseOf, owl:SymmetricProperty and owl:TransitiveProperty.
+     */
+    public static final RuleProfile RDFS_PLUS = new RuleProfile("rdfs-plus", with(RDFS, InferenceRule.INVERSE_OF,
+        InferenceRule.TRANSITIVE));
+
+    private final String name;
+    private final Set<InferenceRule> rules;
+
+    private RuleProfile(String name, Set<InferenceRule> rules) {
+        this.name = name;
+        this.rules = Collections.unmodifiableSet(rules);
+    }
+
+    public static RuleProfile of(InferenceRule... rules) {
+        EnumSet<InferenceRule> set = EnumSet.noneOf(InferenceRule.class);
+        Collections.addAll(set, rules);
+        return new RuleProfile("custom", set);
+    }
+
+    private static EnumSet<InferenceRule> with(RuleProfile profile, InferenceRule... rules) {
+        EnumSet<InferenceRule> set = EnumSet.copyOf(profile.rules);
+        Collections.addAll(set, rules);
+        return set;
+    }
+
+    public boolean includes(InferenceRule rule) {
+        return rules.contains(rule);
+    }
+
+    public Set<InferenceRule> getRules() {
+        return rules;
+    }
+
+    /**
+     * rdf:type rdfs:Resource for every subject and object, or for the ones that are given a type.
+     */
+    boolean typesResources() {
+        return includes(InferenceRule.RESOURCE_TYPE) || includes(InferenceRule.TYPED_RESOURCE_TYPE);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof RuleProfile && rules.equals(((RuleProfile) o).rules);
+    }
+
+    @Override
+    public int hashCode() {
+        return rules.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name + rules;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+
+import java.util.Arrays;
+
+/**
+ * Maps the IRIs used in the schema to dense int ids (0, 1, 2, ...) using open addressing, so that the
+ * closure tables can be stored as primitive arrays indexed by id.
+ * <p>
+ * The IRIs are created with the value factory of the store the inferred statements are written to, so that the store
+ * gets its own values back instead of converting the same schema IRIs for every inferred statement.
+ */
+final class SchemaDictionary {
+
+    private final ValueFactory valueFactory;
+
+    private IRI[] values = new IRI[16];
+    private int size = 0;
+
+    private IRI[] keys = new IRI[32];
+    private int[] ids = new int[32];
+
+    SchemaDictionary(ValueFactory valueFactory) {
+        this.valueFactory = valueFactory;
+    }
+
+    int add(IRI iri) {
+        int slot = slot(iri);
+        if (keys[slot] != null) {
+            return ids[slot];
+        }
+        iri = valueFactory.createIRI(iri.stringValue());
+
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        int id = size++;
+        values[id] = iri;
+        keys[slot] = iri;
+        ids[slot] = id;
+
+        if (size * 2 > keys.length) {
+            rehash();
+        }
+
+        return id;
+    }
+
+    /**
+     * @return the id of the value, or -1 if it is not in the dictionary
+     */
+    int id(Value value) {
+        if (!(value instanceof IRI)) {
+            return -1;
+        }
+
+        int slot = slot(value);
+        return keys[slot] != null ? ids[slot] : -1;
+    }
+
+    IRI get(int id) {
+        return values[id];
+    }
+
+    /**
+     * @return the IRI from the dictionary if it has one, otherwise one created with the same value factory
+     */
+    IRI intern(IRI iri) {
+        int slot = slot(iri);
+        return keys[slot] != null ? keys[slot] : valueFactory.createIRI(iri.stringValue());
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int slot(Value value) {
+        int mask = keys.length - 1;
+        int h = value.hashCode();
+        int slot = (h ^ (h >>> 16)) & mask;
+
+        while (keys[slot] != null && !keys[slot].equals(value)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private void rehash() {
+        IRI[] oldKeys = keys;
+        int[] oldIds = ids;
+
+        keys = new IRI[oldKeys.length * 2];
+        ids = new int[oldKeys.length * 2];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDFS;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Answers rdfs:subClassOf, rdfs:subPropertyOf, rdfs:domain and rdfs:range patterns from the compiled schema, with
+ * inverse tables for patterns where only the object is bound. The hierarchies are the closure plus the reflexive
+ * statements, which the sail infers into the default context whatever context the schema statements are in. Domain
+ * and range are the statements asserted in the default context. Together that is what the store holds for these
+ * predicates in the default context, anything else is served as an extra by the connection.
+ */
+final class SchemaIndex {
+
+    private final SchemaDictionary dictionary;
+    private final Relation subClassOf;
+    private final Relation subPropertyOf;
+    private final Relation domain;
+    private final Relation range;
+
+    private SchemaIndex(SchemaDictionary dictionary, Relation subClassOf, Relation subPropertyOf, Relation domain, Relation range) {
+        this.dictionary = dictionary;
+        this.subClassOf = subClassOf;
+        this.subPropertyOf = subPropertyOf;
+        this.domain = domain;
+        this.range = range;
+    }
+
+    /**
+     * @param classSubClassOfResource every class is also stored as a subclass of rdfs:Resource (rdfs8)
+     */
+    static SchemaIndex build(CompiledSchema compiled, SchemaStatements schemaStatements, boolean classSubClassOfResource) {
+        SchemaDictionary dictionary = compiled.dictionary;
+        int size = dictionary.size();
+        int resource = classSubClassOfResource ? dictionary.id(RDFS.RESOURCE) : -1;
+
+        return new SchemaIndex(dictionary,
+            new Hierarchy(compiled.calculatedTypes, invert(compiled.calculatedTypes, size), compiled.reflexiveClasses, resource),
+            new Hierarchy(compiled.calculatedProperties, invert(compiled.calculatedProperties, size), compiled.reflexiveProperties, -1),
+            Pairs.of(schemaStatements.domain, dictionary),
+            Pairs.of(schemaStatements.range, dictionary));
+    }
+
+    static boolean isSchemaPredicate(IRI predicate) {
+        return predicate.equals(RDFS.SUBCLASSOF) || predicate.equals(RDFS.SUBPROPERTYOF) || predicate.equals(RDFS.DOMAIN) || predicate.equals(RDFS.RANGE);
+    }
+
+    private Relation relation(IRI predicate) {
+        if (predicate.equals(RDFS.SUBCLASSOF)) {
+            return subClassOf;
+        } else if (predicate.equals(RDFS.SUBPROPERTYOF)) {
+            return subPropertyOf;
+        } else if (predicate.equals(RDFS.DOMAIN)) {
+            return domain;
+        } else if (predicate.equals(RDFS.RANGE)) {
+            return range;
+        }
+        throw new IllegalArgumentException(predicate.stringValue());
+    }
+
+    boolean contains(Resource subject, IRI predicate, Value object) {
+        int s = dictionary.id(subject);
+        int o = dictionary.id(object);
+        return s >= 0 && o >= 0 && relation(predicate).contains(s, o);
+    }
+
+    /**
+     * @param subject null for any subject
+     * @param object  null for any object
+     */
+    Stream<Statement> statements(Resource subject, IRI predicate, Value object, ValueFactory valueFactory) {
+        Relation relation = relation(predicate);
+
+        int s = subject != null ? dictionary.id(subject) : -1;
+        int o = object != null ? dictionary.id(object) : -1;
+
+        if (subject != null && s < 0 || object != null && o < 0) {
+            return Stream.empty();
+        }
+
+        if (subject != null && object != null) {
+            return relation.contains(s, o) ? Stream.of(valueFactory.createStatement(dictionary.get(s), predicate, dictionary.get(o))) : Stream.empty();
+        }
+
+        if (subject != null) {
+            IRI subjectIri = dictionary.get(s);
+            return relation.objects(s).mapToObj(id -> valueFactory.createStatement(subjectIri, predicate, dictionary.get(id)));
+        }
+
+        if (object != null) {
+            IRI objectIri = dictionary.get(o);
+            return relation.subjects(o).mapToObj(id -> valueFactory.createStatement(dictionary.get(id), predicate, objectIri));
+        }
+
+        return relation.subjects().boxed().flatMap(id -> {
+            IRI subjectIri = dictionary.get(id);
+            return relation.objects(id).mapToObj(objectId -> valueFactory.createStatement(subjectIri, predicate, dictionary.get(objectId)));
+        });
+    }
+
+    private static IntTable invert(IntTable table, int size) {
+        int[] counts = new int[size];
+        for (int row = 0; row < table.rows(); row++) {
+            for (int i = 0; i < table.size(row); i++) {
+                counts[table.get(row, i)]++;
+            }
+        }
+
+        int[][] rows = new int[size][];
+        for (int id = 0; id < size; id++) {
+            rows[id] = new int[counts[id]];
+            counts[id] = 0;
+        }
+
+        // rows are visited in order, so the inverted rows come out sorted
+        for (int row = 0; row < table.rows(); row++) {
+            for (int i = 0; i < table.size(row); i++) {
+                int value = table.get(row, i);
+                rows[value][counts[value]++] = row;
+            }
+        }
+
+        return IntTable.of(rows);
+    }
+
+    private interface Relation {
+
+        boolean contains(int subject, int object);
+
+        IntStream objects(int subject);
+
+        IntStream subjects(int object);
+
+        IntStream subjects();
+
+    }
+
+    /**
+     * The closure of rdfs:subClassOf or rdfs:subPropertyOf plus the reflexive statements, and optionally a top element
+     * that every reflexive member is a subclass of.
+     */
+    private static final class Hierarchy implements Relation {
+
+        private final IntTable closure;
+        private final IntTable inverse;
+        private final BitSet reflexive;
+        private final int top;
+
+        Hierarchy(IntTable closure, IntTable inverse, BitSet reflexive, int top) {
+            this.closure = closure;
+            this.inverse = inverse;
+            this.reflexive = reflexive;
+            this.top = top;
+        }
+
+        @Override
+        public boolean contains(int subject, int object) {
+            if (subject == object && reflexive.get(subject)) {
+                return true;
+            }
+            if (object == top && top >= 0 && reflexive.get(subject)) {
+                return true;
+            }
+            return closure.contains(subject, object);
+        }
+
+        @Override
+        public IntStream objects(int subject) {
+            IntStream objects = withSelf(closure, subject);
+            if (top >= 0 && top != subject && reflexive.get(subject) && !closure.contains(subject, top)) {
+                return IntStream.concat(objects, IntStream.of(top));
+            }
+            return objects;
+        }
+
+        @Override
+        public IntStream subjects(int object) {
+            if (object == top && top >= 0) {
+                return IntStream.range(0, Math.max(reflexive.length(), inverse.rows()))
+                    .filter(id -> reflexive.get(id) || id < closure.rows() && closure.contains(id, top));
+            }
+            return withSelf(inverse, object);
+        }
+
+        @Override
+        public IntStream subjects() {
+            return reflexive.stream();
+        }
+
+        private IntStream withSelf(IntTable table, int id) {
+            IntStream row = row(table, id);
+            if (reflexive.get(id) && !table.contains(id, id)) {
+                return IntStream.concat(IntStream.of(id), row);
+            }
+            return row;
+        }
+
+    }
+
+    /**
+     * The rdfs:domain or rdfs:range statements asserted in the default context.
+     */
+    private static final class Pairs implements Relation {
+
+        private final IntTable forward;
+        private final IntTable inverse;
+
+        Pairs(IntTable forward, IntTable inverse) {
+            this.forward = forward;
+            this.inverse = inverse;
+        }
+
+        static Pairs of(List<Statement> statements, SchemaDictionary dictionary) {
+            int size = dictionary.size();
+            List<List<Integer>> rows = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                rows.add(null);
+            }
+
+            for (Statement statement : statements) {
+                if (statement.getContext() != null) {
+                    continue;
+                }
+                int subject = dictionary.id(statement.getSubject());
+                int object = dictionary.id(statement.getObject());
+                if (subject < 0 || object < 0) {
+                    continue;
+                }
+                if (rows.get(subject) == null) {
+                    rows.set(subject, new ArrayList<>(2));
+                }
+                rows.get(subject).add(object);
+            }
+
+            int[][] forward = new int[size][];
+            for (int i = 0; i < size; i++) {
+                if (rows.get(i) != null) {
+                    forward[i] = rows.get(i).stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+                }
+            }
+
+            IntTable table = IntTable.of(forward);
+            return new Pairs(table, invert(table, size));
+        }
+
+        @Override
+        public boolean contains(int subject, int object) {
+            return forward.contains(subject, object);
+        }
+
+        @Override
+        public IntStream objects(int subject) {
+            return row(forward, subject);
+        }
+
+        @Override
+        public IntStream subjects(int object) {
+            return row(inverse, object);
+        }
+
+        @Override
+        public IntStream subjects() {
+            return IntStream.range(0, forward.rows()).filter(id -> forward.size(id) > 0);
+        }
+
+    }
+
+    private static IntStream row(IntTable table, int row) {
+        return IntStream.range(0, table.size(row)).map(i -> table.get(row, i));
+    }
+
+}
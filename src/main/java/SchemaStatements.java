@@ -0,0 +1,107 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The statements the schema tables are compiled from, grouped by the kind of schema information they carry.
+ */
+final class SchemaStatements {
+
+    final List<Statement> subClassOf = new ArrayList<>();
+    final List<Statement> properties = new ArrayList<>();
+    final List<Statement> subPropertyOf = new ArrayList<>();
+    final List<Statement> range = new ArrayList<>();
+    final List<Statement> domain = new ArrayList<>();
+    final List<Statement> inverseOf = new ArrayList<>();
+    final List<Statement> transitive = new ArrayList<>();
+    final List<Statement> symmetric = new ArrayList<>();
+
+    static boolean isSchemaStatement(IRI predicate, Value object) {
+        return predicate.equals(RDFS.SUBCLASSOF)
+            || predicate.equals(RDF.TYPE) && (object.equals(RDF.PROPERTY) || object.equals(OWL.TRANSITIVEPROPERTY) || object.equals(OWL.SYMMETRICPROPERTY))
+            || predicate.equals(RDFS.SUBPROPERTYOF)
+            || predicate.equals(RDFS.RANGE)
+            || predicate.equals(RDFS.DOMAIN)
+            || predicate.equals(OWL.INVERSEOF);
+    }
+
+    /**
+     * @return true if the statement is part of the schema
+     */
+    boolean add(Statement statement) {
+        Value object = statement.getObject();
+        IRI predicate = statement.getPredicate();
+
+        if (predicate.equals(RDFS.SUBCLASSOF)) {
+            subClassOf.add(statement);
+        } else if (predicate.equals(RDF.TYPE) && object.equals(RDF.PROPERTY)) {
+            properties.add(statement);
+        } else if (predicate.equals(RDFS.SUBPROPERTYOF)) {
+            subPropertyOf.add(statement);
+        } else if (predicate.equals(RDFS.RANGE)) {
+            range.add(statement);
+        } else if (predicate.equals(RDFS.DOMAIN)) {
+            domain.add(statement);
+        } else if (predicate.equals(OWL.INVERSEOF)) {
+            inverseOf.add(statement);
+        } else if (predicate.equals(RDF.TYPE) && object.equals(OWL.TRANSITIVEPROPERTY)) {
+            transitive.add(statement);
+        } else if (predicate.equals(RDF.TYPE) && object.equals(OWL.SYMMETRICPROPERTY)) {
+            symmetric.add(statement);
+        } else {
+            return false;
+        }
+
+        return true;
+    }
+
+    void addAll(SchemaStatements other) {
+        subClassOf.addAll(other.subClassOf);
+        properties.addAll(other.properties);
+        subPropertyOf.addAll(other.subPropertyOf);
+        range.addAll(other.range);
+        domain.addAll(other.domain);
+        inverseOf.addAll(other.inverseOf);
+        transitive.addAll(other.transitive);
+        symmetric.addAll(other.symmetric);
+    }
+
+    SchemaStatements copy() {
+        SchemaStatements copy = new SchemaStatements();
+        copy.addAll(this);
+        return copy;
+    }
+
+    boolean isEmpty() {
+        return subClassOf.isEmpty() && properties.isEmpty() && subPropertyOf.isEmpty() && range.isEmpty() && domain.isEmpty()
+            && inverseOf.isEmpty() && transitive.isEmpty() && symmetric.isEmpty();
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.Statement;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The compiled schema and everything derived from it. A transaction infers with the tables that were current when it
+ * began, and one that changes the schema builds new tables and publishes them when it commits, so tables are never
+ * modified once they have been built and can be read without locking.
+ */
+final class SchemaTables {
+
+    static final SchemaTables EMPTY = of(new SchemaStatements(), CompiledSchema.compile(new SchemaStatements(), SimpleValueFactory.getInstance()), false, RuleProfile.RDFS);
+
+    // the statements the tables were compiled from, copied before more are added
+    final SchemaStatements statements;
+
+    final SchemaDictionary dictionary;
+    final BitSet classes;
+    final BitSet properties;
+
+    // everything that gets a reflexive rdfs:subClassOf or rdfs:subPropertyOf statement
+    final BitSet reflexiveClasses;
+    final BitSet reflexiveProperties;
+
+    final IntTable calculatedTypes;
+    final IntTable calculatedProperties;
+    final IntTable calculatedRange;
+    final IntTable calculatedDomain;
+
+    // empty unless the profile includes prp-trp
+    final BitSet transitiveProperties;
+
+    // rdf:type rdfs:Resource for every subject and resource object, or only for the ones that are given a type, as
+    // the profile and the virtual entailments have it
+    final boolean resourceTypes;
+    final boolean typedResourceTypes;
+
+    final boolean containerMembership;
+
+    // the vocabulary of the inferred statements, from the same value factory as the dictionary
+    final IRI type;
+    final IRI resource;
+    final IRI subClassOf;
+    final IRI subPropertyOf;
+    final IRI member;
+    final IRI containerMembershipProperty;
+    final IRI property;
+
+    // the plans for statements with a resource as object, and the ones for literal objects, which can't have inverse
+    // statements. Both are the same object for properties without inverse or symmetric properties.
+    final PredicatePlan[] predicatePlans;
+    final PredicatePlan[] literalPredicatePlans;
+    final TypePlan[] typePlans;
+
+    // answers schema patterns in getStatements
+    final SchemaIndex index;
+
+    private SchemaTables(SchemaStatements statements, CompiledSchema compiled, RuleProfile profile, boolean virtualResourceTypes,
+                         PredicatePlan[] predicatePlans, PredicatePlan[] literalPredicatePlans, TypePlan[] typePlans, SchemaIndex index) {
+        this.statements = statements;
+        this.dictionary = compiled.dictionary;
+        this.classes = compiled.classes;
+        this.properties = compiled.properties;
+        this.reflexiveClasses = compiled.reflexiveClasses;
+        this.reflexiveProperties = compiled.reflexiveProperties;
+        this.calculatedTypes = compiled.calculatedTypes;
+        this.calculatedProperties = compiled.calculatedProperties;
+        this.calculatedRange = compiled.calculatedRange;
+        this.calculatedDomain = compiled.calculatedDomain;
+        this.transitiveProperties = profile.includes(InferenceRule.TRANSITIVE) ? compiled.transitiveProperties : new BitSet();
+        this.resourceTypes = profile.includes(InferenceRule.RESOURCE_TYPE) && !virtualResourceTypes;
+        this.typedResourceTypes = profile.includes(InferenceRule.TYPED_RESOURCE_TYPE) && !profile.includes(InferenceRule.RESOURCE_TYPE);
+        this.containerMembership = profile.includes(InferenceRule.CONTAINER_MEMBERSHIP);
+        this.type = dictionary.intern(RDF.TYPE);
+        this.resource = dictionary.intern(RDFS.RESOURCE);
+        this.subClassOf = dictionary.intern(RDFS.SUBCLASSOF);
+        this.subPropertyOf = dictionary.intern(RDFS.SUBPROPERTYOF);
+        this.member = dictionary.intern(RDFS.MEMBER);
+        this.containerMembershipProperty = dictionary.intern(RDFS.CONTAINERMEMBERSHIPPROPERTY);
+        this.property = dictionary.intern(RDF.PROPERTY);
+        this.predicatePlans = predicatePlans;
+        this.literalPredicatePlans = literalPredicatePlans;
+        this.typePlans = typePlans;
+        this.index = index;
+    }
+
+    /**
+     * @param virtualResourceTypes leave rdfs:Resource out of the plans, since VirtualEntailments produces those types
+     * @param profile the rules the plans apply. The plans of a profile without rdfs7 or rdfs9 take the domains and
+     * ranges without going through super properties or super classes.
+     */
+    static SchemaTables of(SchemaStatements statements, CompiledSchema compiled, boolean virtualResourceTypes, RuleProfile profile) {
+        SchemaDictionary dictionary = compiled.dictionary;
+        int size = dictionary.size();
+
+        // the axioms make rdfs:Resource a super class of most classes, which is left to VirtualEntailments
+        int virtualType = virtualResourceTypes ? dictionary.id(RDFS.RESOURCE) : -1;
+
+        boolean subPropertyOf = profile.includes(InferenceRule.SUB_PROPERTY_OF);
+        boolean subClassOf = profile.includes(InferenceRule.SUB_CLASS_OF);
+        IntTable superProperties = subPropertyOf ? compiled.calculatedProperties : IntTable.EMPTY;
+        IntTable domains = IntTable.EMPTY;
+        IntTable ranges = IntTable.EMPTY;
+        if (profile.includes(InferenceRule.DOMAIN)) {
+            domains = subPropertyOf && subClassOf ? compiled.calculatedDomain : inherit(statements.domain, compiled, superProperties, subClassOf);
+        }
+        if (profile.includes(InferenceRule.RANGE)) {
+            ranges = subPropertyOf && subClassOf ? compiled.calculatedRange : inherit(statements.range, compiled, superProperties, subClassOf);
+        }
+        Rules rules = new Rules(profile, superProperties, domains, ranges,
+            profile.includes(InferenceRule.TRANSITIVE) ? compiled.transitiveProperties : new BitSet(), virtualType);
+
+        PredicatePlan[] predicatePlans = new PredicatePlan[size];
+        PredicatePlan[] literalPredicatePlans = new PredicatePlan[size];
+        for (int p = compiled.properties.nextSetBit(0); p >= 0; p = compiled.properties.nextSetBit(p + 1)) {
+            predicatePlans[p] = compilePlan(p, compiled, rules, true);
+            literalPredicatePlans[p] = predicatePlans[p].inverseProperties.length == 0 ? predicatePlans[p] : compilePlan(p, compiled, rules, false);
+        }
+
+        TypePlan[] typePlans = new TypePlan[size];
+        if (subClassOf) {
+            boolean classSubClassOfResource = profile.includes(InferenceRule.CLASS_SUB_CLASS_OF_RESOURCE);
+            for (int c = compiled.classes.nextSetBit(0); c >= 0; c = compiled.classes.nextSetBit(c + 1)) {
+                typePlans[c] = TypePlan.compile(toIris(compiled.calculatedTypes, c, dictionary, virtualType), classSubClassOfResource);
+            }
+        }
+
+        return new SchemaTables(statements, compiled, profile, virtualResourceTypes, predicatePlans, literalPredicatePlans, typePlans,
+            SchemaIndex.build(compiled, statements, profile.includes(InferenceRule.CLASS_SUB_CLASS_OF_RESOURCE)));
+    }
+
+    /**
+     * The domains or ranges of every property for a profile that leaves out rdfs7 or rdfs9.
+     */
+    private static IntTable inherit(List<Statement> statements, CompiledSchema compiled, IntTable superProperties, boolean subClassOf) {
+        SchemaDictionary dictionary = compiled.dictionary;
+        int[] pairs = new int[statements.size() * 2];
+        for (int i = 0; i < statements.size(); i++) {
+            Statement statement = statements.get(i);
+            pairs[i * 2] = dictionary.id(statement.getSubject());
+            pairs[i * 2 + 1] = dictionary.id(statement.getObject());
+            if (pairs[i * 2 + 1] < 0) {
+                // a domain or range that isn't an IRI
+                pairs[i * 2] = -1;
+            }
+        }
+
+        return ClosureEngine.inherit(pairs, compiled.properties, superProperties, subClassOf ? compiled.calculatedTypes : IntTable.EMPTY, dictionary.size());
+    }
+
+    /**
+     * The parts of the compiled schema the plans of a profile are built from.
+     */
+    private static final class Rules {
+
+        final RuleProfile profile;
+        final IntTable superProperties;
+        final IntTable domains;
+        final IntTable ranges;
+        final BitSet transitiveProperties;
+        final int virtualType;
+
+        Rules(RuleProfile profile, IntTable superProperties, IntTable domains, IntTable ranges, BitSet transitiveProperties, int virtualType) {
+            this.profile = profile;
+            this.superProperties = superProperties;
+            this.domains = domains;
+            this.ranges = ranges;
+            this.transitiveProperties = transitiveProperties;
+            this.virtualType = virtualType;
+        }
+    }
+
+    /**
+     * Follows rdfs:subPropertyOf, owl:inverseOf and owl:SymmetricProperty from p until nothing new is reached. The
+     * properties that (s p o) entails as (s q o) end up in forward and the ones it entails as (o q s) in inverse, so
+     * that inference is one lookup however the properties are combined.
+     *
+     * @param resourceObject false for statements with a literal object, which have no inverse
+     */
+    private static PredicatePlan compilePlan(int p, CompiledSchema compiled, Rules rules, boolean resourceObject) {
+        SchemaDictionary dictionary = compiled.dictionary;
+        boolean inverseOf = resourceObject && rules.profile.includes(InferenceRule.INVERSE_OF);
+
+        BitSet forward = new BitSet();
+        BitSet inverse = new BitSet();
+        forward.set(p);
+
+        boolean changed = true;
+        while (changed) {
+            int reached = forward.cardinality() + inverse.cardinality();
+
+            addSuperProperties(forward, rules.superProperties);
+            if (inverseOf) {
+                addInverses(forward, inverse, compiled);
+                addSuperProperties(inverse, rules.superProperties);
+                addInverses(inverse, forward, compiled);
+            }
+
+            changed = forward.cardinality() + inverse.cardinality() != reached;
+        }
+
+        BitSet domainTypes = new BitSet();
+        BitSet rangeTypes = new BitSet();
+        union(forward, rules.domains, domainTypes);
+        union(forward, rules.ranges, rangeTypes);
+        union(inverse, rules.ranges, domainTypes);
+        union(inverse, rules.domains, rangeTypes);
+        if (rules.virtualType >= 0) {
+            domainTypes.clear(rules.virtualType);
+            rangeTypes.clear(rules.virtualType);
+        }
+
+        BitSet transitive = (BitSet) forward.clone();
+        transitive.and(rules.transitiveProperties);
+        BitSet inverseTransitive = (BitSet) inverse.clone();
+        inverseTransitive.and(rules.transitiveProperties);
+
+        // p itself is only a super property of its own when it is on a cycle
+        if (!rules.superProperties.contains(p, p)) {
+            forward.clear(p);
+        }
+
+        return PredicatePlan.compile(dictionary.get(p), toIris(forward, dictionary), toIris(inverse, dictionary),
+            toIris(domainTypes, dictionary), toIris(rangeTypes, dictionary), toIris(transitive, dictionary), toIris(inverseTransitive, dictionary),
+            rules.profile);
+    }
+
+    private static void addSuperProperties(BitSet properties, IntTable superProperties) {
+        union(properties, superProperties, properties);
+    }
+
+    /**
+     * Adds the inverses of the properties in from, and the symmetric ones themselves, to to.
+     */
+    private static void addInverses(BitSet from, BitSet to, CompiledSchema compiled) {
+        union(from, compiled.inverseProperties, to);
+        for (int q = from.nextSetBit(0); q >= 0; q = from.nextSetBit(q + 1)) {
+            if (compiled.symmetricProperties.get(q)) {
+                to.set(q);
+            }
+        }
+    }
+
+    private static void union(BitSet rows, IntTable table, BitSet into) {
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            for (int i = 0; i < table.size(row); i++) {
+                into.set(table.get(row, i));
+            }
+        }
+    }
+
+    private static IRI[] toIris(BitSet ids, SchemaDictionary dictionary) {
+        IRI[] iris = new IRI[ids.cardinality()];
+        int j = 0;
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            iris[j++] = dictionary.get(id);
+        }
+        return iris;
+    }
+
+    private static IRI[] toIris(IntTable table, int row, SchemaDictionary dictionary, int omit) {
+        int size = table.size(row);
+        boolean omitted = omit >= 0 && table.contains(row, omit);
+
+        IRI[] iris = new IRI[omitted ? size - 1 : size];
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            int id = table.get(row, i);
+            if (id != omit) {
+                iris[j++] = dictionary.get(id);
+            }
+        }
+        return iris;
+    }
+
+    PredicatePlan predicatePlan(int id, IRI predicate, boolean resourceObject) {
+        PredicatePlan plan = id >= 0 ? (resourceObject ? predicatePlans : literalPredicatePlans)[id] : null;
+
+        if (plan != null) {
+            return plan;
+        }
+
+        return containerMembership && PredicatePlan.isContainerMembershipProperty(predicate) ? PredicatePlan.CONTAINER_MEMBERSHIP : PredicatePlan.EMPTY;
+    }
+
+    TypePlan typePlan(int id) {
+        TypePlan plan = id >= 0 ? typePlans[id] : null;
+
+        return plan != null ? plan : TypePlan.EMPTY;
+    }
+
+}
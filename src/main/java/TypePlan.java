@@ -0,0 +1,50 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.openrdf.model.IRI;
+import org.openrdf.model.vocabulary.RDFS;
+
+/**
+ * The types to infer for the subject of an rdf:type triple with a given class as object.
+ */
+final class TypePlan {
+
+    static final TypePlan EMPTY = new TypePlan(new IRI[0], false);
+
+    final IRI[] types;
+
+    // the subject is a class and gets rdfs:subClassOf rdfs:Resource, when the profile includes rdfs8
+    final boolean includesClass;
+
+    private TypePlan(IRI[] types, boolean classSubClassOfResource) {
+        this.types = types;
+        this.includesClass = classSubClassOfResource && PredicatePlan.contains(types, RDFS.CLASS);
+    }
+
+    boolean sameAs(TypePlan other) {
+        return PredicatePlan.sameIris(types, other.types);
+    }
+
+    static TypePlan compile(IRI[] types, boolean classSubClassOfResource) {
+        return types.length == 0 ? EMPTY : new TypePlan(types, classSubClassOfResource);
+    }
+
+}
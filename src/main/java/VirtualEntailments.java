@@ -0,0 +1,401 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+import info.aduna.iteration.EmptyIteration;
+import info.aduna.iteration.ExceptionConvertingIteration;
+import info.aduna.iteration.LookAheadIteration;
+import info.aduna.iteration.UnionIteration;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
+import org.openrdf.query.algebra.evaluation.TripleSource;
+import org.openrdf.query.algebra.evaluation.federation.FederatedServiceResolver;
+import org.openrdf.query.algebra.evaluation.impl.*;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.sail.SailConnection;
+import org.openrdf.sail.SailException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Produces the entailments that aren't stored when the sail keeps them virtual: rdf:type rdfs:Resource for everything
+ * that is used in an explicit statement, the reflexive rdfs:subClassOf and rdfs:subPropertyOf statements and the
+ * schema hierarchy. They are calculated from the explicit statements and the compiled schema when read, and left out
+ * if the store already holds the same statement.
+ */
+final class VirtualEntailments {
+
+    private final FastRdfsForwardChainingSail sail;
+    private final SailConnection store;
+
+    VirtualEntailments(FastRdfsForwardChainingSail sail, SailConnection store) {
+        this.sail = sail;
+        this.store = store;
+    }
+
+    CloseableIteration<Statement, SailException> getStatements(SchemaTables tables, Resource subject, IRI predicate, Value object, Resource... contexts) {
+        List<CloseableIteration<? extends Statement, SailException>> statements = new ArrayList<>(2);
+
+        if (sail.virtualResourceTypes()
+            && (predicate == null || predicate.equals(RDF.TYPE))
+            && (object == null || object.equals(RDFS.RESOURCE))) {
+
+            statements.add(new ResourceTypes(subject, contexts));
+        }
+
+        // the hierarchy is inferred from the schema in the default context
+        Resource hierarchyContext = sail.inferenceContext(null);
+
+        if ((sail.virtualSchemaHierarchy || sail.virtualTrivialEntailments) && includesContext(contexts, hierarchyContext)) {
+            SchemaDictionary dictionary = tables.dictionary;
+
+            Stream<Statement> hierarchy = Stream.concat(
+                hierarchy(subject, predicate, object, RDFS.SUBCLASSOF, tables.classes, tables.reflexiveClasses, tables.calculatedTypes, dictionary, hierarchyContext),
+                hierarchy(subject, predicate, object, RDFS.SUBPROPERTYOF, tables.properties, tables.reflexiveProperties, tables.calculatedProperties, dictionary, hierarchyContext)
+            ).filter(statement -> !store.hasStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(), true, hierarchyContext));
+
+            statements.add(new CloseableIteratorIteration<>(hierarchy.iterator()));
+        }
+
+        if (statements.isEmpty()) {
+            return new EmptyIteration<>();
+        }
+        return statements.size() == 1 ? cast(statements.get(0)) : new UnionIteration<>(statements);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CloseableIteration<Statement, SailException> cast(CloseableIteration<? extends Statement, SailException> iteration) {
+        return (CloseableIteration<Statement, SailException>) iteration;
+    }
+
+    private static boolean includesContext(Resource[] contexts, Resource context) {
+        return contexts.length == 0 || Arrays.asList(contexts).contains(context);
+    }
+
+    private Stream<Statement> hierarchy(Resource subject, IRI predicate, Value object, IRI hierarchyPredicate,
+                                        BitSet ids, BitSet reflexive, IntTable closure, SchemaDictionary dictionary,
+                                        Resource context) {
+
+        if (predicate != null && !predicate.equals(hierarchyPredicate)) {
+            return Stream.empty();
+        }
+
+        int objectId = object != null ? dictionary.id(object) : -1;
+        if (object != null && objectId < 0) {
+            return Stream.empty();
+        }
+
+        IntStream subjects;
+        if (subject != null) {
+            int subjectId = dictionary.id(subject);
+            subjects = subjectId >= 0 && reflexive.get(subjectId) ? IntStream.of(subjectId) : IntStream.empty();
+        } else {
+            subjects = reflexive.stream();
+        }
+
+        ValueFactory valueFactory = sail.getValueFactory();
+        boolean virtualClosure = sail.virtualSchemaHierarchy;
+        boolean virtualReflexive = sail.virtualTrivialEntailments;
+
+        return subjects.boxed().flatMap(sub -> {
+            IRI subIri = dictionary.get(sub);
+            List<Statement> statements = new ArrayList<>();
+
+            if (virtualClosure && ids.get(sub)) {
+                for (int i = 0; i < closure.size(sub); i++) {
+                    int sup = closure.get(sub, i);
+                    if (objectId < 0 || sup == objectId) {
+                        statements.add(valueFactory.createStatement(subIri, hierarchyPredicate, dictionary.get(sup), context));
+                    }
+                }
+            }
+
+            // a cycle puts the class itself in its closure, in which case it was added above
+            boolean inClosure = virtualClosure && ids.get(sub) && closure.contains(sub, sub);
+            if (virtualReflexive && !inClosure && (objectId < 0 || sub == objectId)) {
+                statements.add(valueFactory.createStatement(subIri, hierarchyPredicate, subIri, context));
+            }
+
+            return statements.stream();
+        });
+    }
+
+    /**
+     * The contexts the statements inferred into the given contexts come from, or none for all of them.
+     */
+    private Resource[] sourceContexts(Resource[] contexts) {
+        if (sail.infersIntoSourceContexts()) {
+            return contexts;
+        }
+
+        Set<Resource> sources = new HashSet<>();
+        for (Resource context : contexts) {
+            Resource[] sourceContexts = sail.sourceContexts(context);
+            if (sourceContexts.length == 0) {
+                return sourceContexts;
+            }
+            sources.addAll(Arrays.asList(sourceContexts));
+        }
+        return sources.toArray(new Resource[0]);
+    }
+
+    /**
+     * Evaluates a query against the statements of the given connection, so that the query sees the virtual
+     * statements as well. The optimizers are the ones the Sesame stores use.
+     */
+    CloseableIteration<? extends BindingSet, QueryEvaluationException> evaluate(SailConnection connection, TupleExpr tupleExpr,
+                                                                                Dataset dataset, BindingSet bindings,
+                                                                                FederatedServiceResolver federatedServiceResolver) {
+        tupleExpr = tupleExpr.clone();
+        if (!(tupleExpr instanceof QueryRoot)) {
+            tupleExpr = new QueryRoot(tupleExpr);
+        }
+
+        ValueFactory valueFactory = sail.getValueFactory();
+
+        TripleSource tripleSource = new TripleSource() {
+            @Override
+            public CloseableIteration<? extends Statement, QueryEvaluationException> getStatements(Resource subject, IRI predicate, Value object, Resource... contexts) {
+                return new ExceptionConvertingIteration<Statement, QueryEvaluationException>(connection.getStatements(subject, predicate, object, true, contexts)) {
+                    @Override
+                    protected QueryEvaluationException convert(Exception e) {
+                        return e instanceof QueryEvaluationException ? (QueryEvaluationException) e : new QueryEvaluationException(e);
+                    }
+                };
+            }
+
+            @Override
+            public ValueFactory getValueFactory() {
+                return valueFactory;
+            }
+        };
+
+        EvaluationStrategy strategy = new SimpleEvaluationStrategy(tripleSource, dataset, federatedServiceResolver);
+
+        new BindingAssigner().optimize(tupleExpr, dataset, bindings);
+        new ConstantOptimizer(strategy).optimize(tupleExpr, dataset, bindings);
+        new CompareOptimizer().optimize(tupleExpr, dataset, bindings);
+        new ConjunctiveConstraintSplitter().optimize(tupleExpr, dataset, bindings);
+        new DisjunctiveConstraintOptimizer().optimize(tupleExpr, dataset, bindings);
+        new SameTermFilterOptimizer().optimize(tupleExpr, dataset, bindings);
+        new QueryModelNormalizer().optimize(tupleExpr, dataset, bindings);
+        new QueryJoinOptimizer(new EvaluationStatistics()).optimize(tupleExpr, dataset, bindings);
+        new IterativeEvaluationOptimizer().optimize(tupleExpr, dataset, bindings);
+        new FilterOptimizer().optimize(tupleExpr, dataset, bindings);
+        new OrderLimitOptimizer().optimize(tupleExpr, dataset, bindings);
+
+        return strategy.evaluate(tupleExpr, EmptyBindingSet.getInstance());
+    }
+
+    /**
+     * rdf:type rdfs:Resource for the subjects, resource objects and container membership predicates of the explicit
+     * statements, once per resource and inference context. These are the statements addStatement would have stored
+     * with rdfs4a/rdfs4b in the rule profile.
+     * <p>
+     * With a bound subject only the statements that mention it are read, and the few candidates are looked up in the
+     * store. Otherwise every explicit statement is read, so the candidates and the stored rdf:type rdfs:Resource
+     * statements are both sorted in a buffer that spills to disk, and compared in one pass, instead of keeping every
+     * resource on the heap and looking each one up.
+     */
+    private final class ResourceTypes extends LookAheadIteration<Statement, SailException> {
+
+        // statements sorted in memory before spilling, when the sail has no write buffer size
+        private static final int SORT_BUFFER_SIZE = 1 << 16;
+
+        private final Resource subject;
+        private final Resource[] requestedContexts;
+        private final Set<Resource> contexts;
+        private final ValueFactory valueFactory = sail.getValueFactory();
+
+        private final List<CloseableIteration<? extends Statement, SailException>> sources = new ArrayList<>(3);
+        private int source = 0;
+
+        // with a bound subject
+        private final Set<Resource> seen = new HashSet<>();
+        private final ArrayDeque<Statement> pending = new ArrayDeque<>(3);
+
+        // without one
+        private InferredStatementBuffer.Sorted candidates;
+        private InferredStatementBuffer.Sorted stored;
+        private Statement storedHead;
+
+        ResourceTypes(Resource subject, Resource... contexts) {
+            this.subject = subject;
+            this.requestedContexts = contexts;
+            this.contexts = new HashSet<>(Arrays.asList(contexts));
+            contexts = sourceContexts(contexts);
+
+            if (subject == null) {
+                sources.add(store.getStatements(null, null, null, false, contexts));
+            } else {
+                sources.add(store.getStatements(subject, null, null, false, contexts));
+                sources.add(store.getStatements(null, null, subject, false, contexts));
+                if (subject instanceof IRI && PredicatePlan.isContainerMembershipProperty((IRI) subject)) {
+                    sources.add(store.getStatements(null, (IRI) subject, null, false, contexts));
+                }
+            }
+        }
+
+        @Override
+        protected Statement getNextElement() throws SailException {
+            if (subject == null) {
+                return nextSorted();
+            }
+
+            while (pending.isEmpty()) {
+                if (source == sources.size()) {
+                    return null;
+                }
+
+                CloseableIteration<? extends Statement, SailException> statements = sources.get(source);
+                if (!statements.hasNext()) {
+                    statements.close();
+                    source++;
+                    continue;
+                }
+
+                visit(statements.next(), (resource, context) -> {
+                    if (subject.equals(resource) && seen.add(context)
+                        && !store.hasStatement(resource, RDF.TYPE, RDFS.RESOURCE, true, context)) {
+
+                        pending.add(valueFactory.createStatement(resource, RDF.TYPE, RDFS.RESOURCE, context));
+                    }
+                });
+            }
+
+            return pending.poll();
+        }
+
+        private Statement nextSorted() throws SailException {
+            if (candidates == null) {
+                sort();
+            }
+
+            for (Statement candidate = candidates.next(); candidate != null; candidate = candidates.next()) {
+                while (storedHead != null && InferredStatementBuffer.ORDER.compare(storedHead, candidate) < 0) {
+                    storedHead = stored.next();
+                }
+                if (storedHead == null || InferredStatementBuffer.ORDER.compare(storedHead, candidate) != 0) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        private void sort() throws SailException {
+            int limit = sail.writeBufferSize > 0 ? sail.writeBufferSize : SORT_BUFFER_SIZE;
+            InferredStatementBuffer candidateBuffer = new InferredStatementBuffer(limit, valueFactory, sail.getDataDir());
+            InferredStatementBuffer storedBuffer = new InferredStatementBuffer(limit, valueFactory, sail.getDataDir());
+
+            try {
+                try (CloseableIteration<? extends Statement, SailException> statements = sources.get(0)) {
+                    source++;
+                    while (statements.hasNext()) {
+                        visit(statements.next(), (resource, context) -> candidateBuffer.add(resource, RDF.TYPE, RDFS.RESOURCE, context));
+                    }
+                }
+
+                try (CloseableIteration<? extends Statement, SailException> statements = store.getStatements(null, RDF.TYPE, RDFS.RESOURCE, true, requestedContexts)) {
+                    while (statements.hasNext()) {
+                        Statement statement = statements.next();
+                        storedBuffer.add(statement.getSubject(), RDF.TYPE, RDFS.RESOURCE, statement.getContext());
+                    }
+                }
+
+                candidates = candidateBuffer.sorted();
+                stored = storedBuffer.sorted();
+                storedHead = stored.next();
+            } catch (RuntimeException e) {
+                if (candidates != null) {
+                    candidates.close();
+                    candidates = null;
+                }
+                candidateBuffer.clear();
+                storedBuffer.clear();
+                throw e;
+            }
+        }
+
+        private void visit(Statement statement, TypeSink sink) throws SailException {
+            Resource context = sail.inferenceContext(statement.getContext());
+            if (!contexts.isEmpty() && !contexts.contains(context)) {
+                return;
+            }
+
+            sink.accept(statement.getSubject(), context);
+            if (statement.getObject() instanceof Resource) {
+                sink.accept((Resource) statement.getObject(), context);
+            }
+            if (PredicatePlan.isContainerMembershipProperty(statement.getPredicate())) {
+                sink.accept(statement.getPredicate(), context);
+            }
+        }
+
+        @Override
+        protected void handleClose() throws SailException {
+            try {
+                for (int i = source; i < sources.size(); i++) {
+                    sources.get(i).close();
+                }
+            } finally {
+                try {
+                    if (candidates != null) {
+                        candidates.close();
+                    }
+                    if (stored != null) {
+                        stored.close();
+                    }
+                } finally {
+                    super.handleClose();
+                }
+            }
+        }
+
+    }
+
+    private interface TypeSink {
+
+        void accept(Resource resource, Resource context) throws SailException;
+
+    }
+
+}
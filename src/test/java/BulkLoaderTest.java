@@ -0,0 +1,182 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import info.aduna.iteration.CloseableIteration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.rio.RDFFormat;
+import org.openrdf.rio.Rio;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Loads more statements than fit in a batch, committing several times along the way and with a schema statement
+ * halfway through, and compares the result with the same statements added in one transaction.
+ */
+public class BulkLoaderTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+
+    // statements per transaction, less than a batch
+    private static final long COMMIT_SIZE = BulkLoader.BATCH_SIZE / 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadNTriplesFile() throws Exception {
+        File file = folder.newFile("data.nt");
+        try (OutputStream out = new FileOutputStream(file)) {
+            Rio.write(statements(), out, RDFFormat.NTRIPLES);
+        }
+
+        FastRdfsForwardChainingSail sail = sail();
+        try {
+            sail.load(file, RDFFormat.NTRIPLES, "", 4);
+            assertEquals(reference(), statements(sail));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void loadStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Rio.write(statements(), out, RDFFormat.NTRIPLES);
+
+        FastRdfsForwardChainingSail sail = sail();
+        try {
+            sail.load(new ByteArrayInputStream(out.toByteArray()), RDFFormat.NTRIPLES, "");
+            assertEquals(reference(), statements(sail));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void bulkLoad() throws Exception {
+        FastRdfsForwardChainingSail sail = sail();
+        try {
+            sail.bulkLoad(statements().iterator(), 4);
+            assertEquals(reference(), statements(sail));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    private static FastRdfsForwardChainingSail sail() throws SailException {
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        sail.setJmxEnabled(false);
+        sail.setLoadCommitSize(COMMIT_SIZE);
+        // small, so that workers evict and infer the same statements again
+        sail.setInferredStatementCacheSize(64);
+        sail.initialize();
+        return sail;
+    }
+
+    private static Set<String> reference() throws SailException {
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        sail.setJmxEnabled(false);
+        sail.initialize();
+        try {
+            FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+            try {
+                connection.begin();
+                for (Statement statement : statements()) {
+                    connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+                }
+                connection.commit();
+            } finally {
+                connection.close();
+            }
+            return statements(sail);
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    /**
+     * Pets and their owners, with the schema split around the middle so that the later half is inferred with a
+     * schema that a commit during the load changed.
+     */
+    private static List<Statement> statements() {
+        List<Statement> statements = new ArrayList<>();
+        statements.add(statement("Dog", RDFS.SUBCLASSOF, iri("Animal")));
+        statements.add(statement("hasPet", RDFS.DOMAIN, iri("Owner")));
+
+        int size = BulkLoader.BATCH_SIZE;
+        for (int i = 0; i < size; i++) {
+            if (i == size / 2) {
+                statements.add(statement("hasPet", RDFS.RANGE, iri("Pet")));
+                statements.add(statement("Pet", RDFS.SUBCLASSOF, iri("Animal")));
+            }
+            IRI pet = iri("pet" + i);
+            statements.add(vf.createStatement(pet, RDF.TYPE, iri("Dog")));
+            statements.add(vf.createStatement(iri("person" + i % 100), iri("hasPet"), pet));
+            statements.add(vf.createStatement(pet, RDFS.LABEL, vf.createLiteral("pet " + i)));
+        }
+        return statements;
+    }
+
+    private static Set<String> statements(FastRdfsForwardChainingSail sail) throws SailException {
+        Set<String> formatted = new TreeSet<>();
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, null, null, true)) {
+            while (statements.hasNext()) {
+                Statement statement = statements.next();
+                formatted.add(statement.getSubject() + " " + statement.getPredicate() + " " + statement.getObject() + " " + statement.getContext());
+            }
+        } finally {
+            connection.close();
+        }
+        return formatted;
+    }
+
+    private static Statement statement(String subject, IRI predicate, Value object) {
+        return vf.createStatement(iri(subject), predicate, object);
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import info.aduna.iteration.Iterations;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.IsolationLevels;
+import org.openrdf.model.IRI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Restarts a persistent store to check that the compiled schema snapshot is mapped again instead of rewritten, and
+ * only replaced by a schema change that commits.
+ */
+public class CompiledSchemaTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotIsReusedAfterRestart() throws Exception {
+        File storeDir = folder.newFolder("store");
+        File dataDir = folder.newFolder("schema");
+        File snapshot = new File(dataDir, CompiledSchema.FILE_NAME);
+
+        FastRdfsForwardChainingSail sail = sail(storeDir, dataDir);
+        try {
+            FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+            try {
+                connection.begin();
+                connection.addStatement(iri("Dog"), RDFS.SUBCLASSOF, iri("Animal"));
+                connection.addStatement(iri("rex"), RDF.TYPE, iri("Dog"));
+                connection.commit();
+            } finally {
+                connection.close();
+            }
+        } finally {
+            sail.shutDown();
+        }
+
+        assertTrue(snapshot.isFile());
+        Object written = fileKey(snapshot);
+
+        sail = sail(storeDir, dataDir);
+        try {
+            assertEquals("mapped again after a restart", written, fileKey(snapshot));
+            assertTrue(hasStatement(sail, iri("rex"), RDF.TYPE, iri("Animal")));
+
+            FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+            try {
+                // without isolation the store may keep what a rolled back transaction wrote
+                connection.begin(IsolationLevels.READ_COMMITTED);
+                connection.addStatement(iri("Animal"), RDFS.SUBCLASSOF, iri("LivingThing"));
+                connection.rollback();
+            } finally {
+                connection.close();
+            }
+            assertEquals("a rolled back schema isn't written", written, fileKey(snapshot));
+
+            connection = sail.getConnection();
+            try {
+                connection.begin();
+                connection.addStatement(iri("Animal"), RDFS.SUBCLASSOF, iri("Organism"));
+                connection.commit();
+            } finally {
+                connection.close();
+            }
+        } finally {
+            sail.shutDown();
+        }
+
+        assertNotEquals("a changed schema is written", written, fileKey(snapshot));
+        written = fileKey(snapshot);
+
+        sail = sail(storeDir, dataDir);
+        try {
+            assertEquals("mapped again after a restart", written, fileKey(snapshot));
+            assertTrue(hasStatement(sail, iri("rex"), RDF.TYPE, iri("Organism")));
+            assertFalse(hasStatement(sail, iri("rex"), RDF.TYPE, iri("LivingThing")));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    private static FastRdfsForwardChainingSail sail(File storeDir, File dataDir) throws SailException {
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(storeDir), false);
+        sail.setJmxEnabled(false);
+        sail.setDataDir(dataDir);
+        sail.initialize();
+        return sail;
+    }
+
+    private static boolean hasStatement(FastRdfsForwardChainingSail sail, IRI subject, IRI predicate, IRI object) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            return !Iterations.asList(connection.getStatements(subject, predicate, object, true)).isEmpty();
+        } finally {
+            connection.close();
+        }
+    }
+
+    // the file is replaced by moving a new one in place, so a rewritten snapshot is another file
+    private static Object fileKey(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        return attributes.fileKey() != null ? attributes.fileKey() : attributes.lastModifiedTime();
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import info.aduna.iteration.CloseableIteration;
+import org.junit.Test;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the inferred statements end up in the configured inference contexts and nowhere else, and are retracted
+ * from there.
+ */
+public class InferenceContextTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+
+    private static final IRI graph1 = iri("graph1");
+
+    @Test
+    public void inferenceContext() throws SailException {
+        IRI inferred = iri("inferred");
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        sail.setJmxEnabled(false);
+        sail.setInferenceContext(inferred);
+        sail.initialize();
+        try {
+            add(sail, statements());
+
+            assertEquals(new HashSet<>(Arrays.asList(inferred)), inferredContexts(sail));
+            assertTrue(hasStatement(sail, iri("pet1"), RDF.TYPE, iri("Animal"), inferred));
+            assertTrue(hasStatement(sail, iri("pet2"), RDF.TYPE, iri("Animal"), inferred));
+            assertFalse(hasStatement(sail, iri("pet2"), RDF.TYPE, iri("Animal"), graph1));
+
+            remove(sail, vf.createStatement(iri("pet2"), RDF.TYPE, iri("Dog"), graph1));
+            assertFalse(hasStatement(sail, iri("pet2"), RDF.TYPE, iri("Animal"), inferred));
+            assertTrue(hasStatement(sail, iri("pet1"), RDF.TYPE, iri("Animal"), inferred));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void inferenceGraphSuffix() throws SailException {
+        IRI graph1Inferred = vf.createIRI(graph1 + "#inferred");
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        sail.setJmxEnabled(false);
+        sail.setInferenceGraphSuffix("#inferred");
+        sail.initialize();
+        try {
+            add(sail, statements());
+
+            // the default context has no graph name to add the suffix to, so what it infers stays there
+            assertEquals(new HashSet<>(Arrays.asList(null, graph1Inferred)), inferredContexts(sail));
+            assertTrue(hasStatement(sail, iri("pet1"), RDF.TYPE, iri("Animal"), (Resource) null));
+            assertTrue(hasStatement(sail, iri("pet2"), RDF.TYPE, iri("Animal"), graph1Inferred));
+            assertFalse(hasStatement(sail, iri("pet2"), RDF.TYPE, iri("Animal"), graph1));
+            assertTrue(hasStatement(sail, iri("person2"), RDF.TYPE, iri("Person"), graph1Inferred));
+
+            remove(sail, vf.createStatement(iri("pet2"), RDF.TYPE, iri("Dog"), graph1));
+            assertFalse(hasStatement(sail, iri("pet2"), RDF.TYPE, iri("Animal"), graph1Inferred));
+            assertTrue(hasStatement(sail, iri("person2"), RDF.TYPE, iri("Person"), graph1Inferred));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    private static List<Statement> statements() {
+        return Arrays.asList(
+            vf.createStatement(iri("Dog"), RDFS.SUBCLASSOF, iri("Animal")),
+            vf.createStatement(iri("hasPet"), RDFS.DOMAIN, iri("Person")),
+            vf.createStatement(iri("pet1"), RDF.TYPE, iri("Dog")),
+            vf.createStatement(iri("pet2"), RDF.TYPE, iri("Dog"), graph1),
+            vf.createStatement(iri("person2"), iri("hasPet"), iri("pet2"), graph1));
+    }
+
+    /**
+     * The contexts of the statements that are only there with the inferred ones.
+     */
+    private static Set<Resource> inferredContexts(FastRdfsForwardChainingSail sail) throws SailException {
+        Set<Resource> contexts = new HashSet<>();
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            Set<Statement> explicit = new HashSet<>(statements(connection, false));
+            for (Statement statement : statements(connection, true)) {
+                if (!explicit.contains(statement)) {
+                    contexts.add(statement.getContext());
+                }
+            }
+        } finally {
+            connection.close();
+        }
+        return contexts;
+    }
+
+    private static List<Statement> statements(FastRdfsForwardChainingSailConnetion connection, boolean includeInferred) throws SailException {
+        List<Statement> statements = new ArrayList<>();
+        try (CloseableIteration<? extends Statement, SailException> iteration = connection.getStatements(null, null, null, includeInferred)) {
+            while (iteration.hasNext()) {
+                statements.add(iteration.next());
+            }
+        }
+        return statements;
+    }
+
+    private static boolean hasStatement(FastRdfsForwardChainingSail sail, Resource subject, IRI predicate, Value object, Resource context) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            return connection.hasStatement(subject, predicate, object, true, context);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void add(FastRdfsForwardChainingSail sail, List<Statement> statements) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            connection.begin();
+            for (Statement statement : statements) {
+                if (statement.getContext() == null) {
+                    connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+                } else {
+                    connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+                }
+            }
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void remove(FastRdfsForwardChainingSail sail, Statement statement) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            connection.begin();
+            connection.removeStatements(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import info.aduna.iteration.CloseableIteration;
+import org.junit.Test;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Statement;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the counters against what a small transaction infers, and that they are registered as an MXBean while the
+ * sail is initialized.
+ */
+public class InferenceMetricsTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+
+    @Test
+    public void counters() throws Exception {
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        sail.setJmxEnabled(false);
+        sail.initialize();
+        try {
+            add(sail, Arrays.asList(
+                vf.createStatement(iri("Dog"), RDFS.SUBCLASSOF, iri("Animal")),
+                vf.createStatement(iri("hasPet"), RDFS.DOMAIN, iri("Person"))));
+
+            InferenceMetricsMXBean metrics = sail.getMetrics();
+            metrics.resetStatistics();
+            long before = size(sail);
+
+            add(sail, Arrays.asList(
+                vf.createStatement(iri("pet1"), RDF.TYPE, iri("Dog")),
+                vf.createStatement(iri("person1"), iri("hasPet"), iri("pet1"))));
+
+            assertEquals(2, metrics.getStatementsInferredFrom());
+            assertEquals(1, metrics.getSubClassOfInferences());
+            assertEquals(1, metrics.getDomainInferences());
+            assertEquals(0, metrics.getRangeInferences());
+            assertEquals(1, metrics.getCommits());
+            // every new inferred statement counts as written once
+            assertEquals(size(sail) - before - 2, metrics.getInferredStatementsWritten());
+            assertTrue(metrics.getTopInferringTerms().containsKey(iri("Dog").stringValue()));
+
+            metrics.resetStatistics();
+            assertEquals(0, metrics.getStatementsInferredFrom());
+            assertEquals(0, metrics.getSubClassOfInferences());
+            assertEquals(0, metrics.getCommits());
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void registeredWhileInitialized() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        ObjectName name = new ObjectName("com.fluffyelephant:type=FastRdfsForwardChainingSail,id=" + System.identityHashCode(sail));
+        assertFalse(server.isRegistered(name));
+
+        sail.initialize();
+        try {
+            assertTrue(server.isRegistered(name));
+            add(sail, Arrays.asList(
+                vf.createStatement(iri("Dog"), RDFS.SUBCLASSOF, iri("Animal")),
+                vf.createStatement(iri("pet1"), RDF.TYPE, iri("Dog"))));
+            assertEquals(sail.getMetrics().getSubClassOfInferences(), server.getAttribute(name, "SubClassOfInferences"));
+        } finally {
+            sail.shutDown();
+        }
+        assertFalse(server.isRegistered(name));
+
+        sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        name = new ObjectName("com.fluffyelephant:type=FastRdfsForwardChainingSail,id=" + System.identityHashCode(sail));
+        sail.setJmxEnabled(false);
+        sail.initialize();
+        try {
+            assertFalse(server.isRegistered(name));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    private static long size(FastRdfsForwardChainingSail sail) throws SailException {
+        long size = 0;
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, null, null, true)) {
+            while (statements.hasNext()) {
+                statements.next();
+                size++;
+            }
+        } finally {
+            connection.close();
+        }
+        return size;
+    }
+
+    private static void add(FastRdfsForwardChainingSail sail, List<Statement> statements) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            connection.begin();
+            for (Statement statement : statements) {
+                connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+            }
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+}
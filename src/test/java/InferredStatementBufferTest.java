@@ -0,0 +1,111 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.sail.SailException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the buffer hands back every statement once and in value order, whether it stayed in memory or was
+ * spilled and merged.
+ */
+public class InferredStatementBufferTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void inMemory() throws SailException {
+        check(1_000_000, 500);
+    }
+
+    @Test
+    public void spilled() throws SailException {
+        // enough spilled files to merge some of them while adding
+        check(7, 2000);
+    }
+
+    private void check(int limit, int statements) throws SailException {
+        Random random = new Random(42);
+        List<Statement> added = new ArrayList<>();
+        for (int i = 0; i < statements; i++) {
+            added.add(vf.createStatement(resource(random), random.nextBoolean() ? RDF.TYPE : RDFS.SUBCLASSOF, value(random),
+                random.nextInt(3) == 0 ? null : vf.createIRI("http://example.org/graph" + random.nextInt(2))));
+        }
+        added.addAll(added.subList(0, statements / 4));
+        Collections.shuffle(added, random);
+
+        InferredStatementBuffer buffer = new InferredStatementBuffer(limit, vf, folder.getRoot());
+        for (Statement statement : added) {
+            buffer.add(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+        }
+
+        List<Statement> drained = new ArrayList<>();
+        long duplicates = buffer.drain((subject, predicate, object, contexts) ->
+            drained.add(vf.createStatement(subject, predicate, object, contexts.length == 0 ? null : contexts[0])));
+
+        TreeSet<Statement> expected = new TreeSet<>(InferredStatementBuffer.ORDER);
+        expected.addAll(added);
+        assertEquals(new ArrayList<>(expected), drained);
+        assertEquals(added.size() - expected.size(), duplicates);
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    private static Resource resource(Random random) {
+        int i = random.nextInt(60);
+        return i % 5 == 0 ? vf.createBNode("b" + i) : vf.createIRI("http://example.org/r" + i);
+    }
+
+    private static Value value(Random random) {
+        int i = random.nextInt(80);
+        switch (i % 4) {
+            case 0:
+                return vf.createLiteral("l" + i % 8, XMLSchema.STRING);
+            case 1:
+                return vf.createLiteral("l" + i % 8, "en");
+            default:
+                return resource(random);
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import info.aduna.iteration.CloseableIteration;
+import org.junit.Test;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Statement;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the estimates on a small schema with what materializing the data actually adds.
+ */
+public class MaterializationEstimateTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+
+    private static final int SIZE = 10;
+
+    @Test
+    public void sampleMatchesMaterialization() throws SailException {
+        FastRdfsForwardChainingSail sail = sail();
+        try {
+            MaterializationEstimate estimate = sail.estimateMaterialization(data(), data().size());
+            assertEquals(data().size(), estimate.getStatements());
+
+            long before = size(sail);
+            add(sail, data());
+            long added = size(sail) - before - data().size();
+
+            assertEquals(added, estimate.getNewStatements());
+            assertEquals(data().size() + added, estimate.getMaterializedSize());
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void countsMatchSample() throws SailException {
+        FastRdfsForwardChainingSail sail = sail();
+        try {
+            Map<IRI, Long> predicateCounts = new HashMap<>();
+            predicateCounts.put(iri("hasPet"), (long) SIZE);
+            Map<IRI, Long> classCounts = new HashMap<>();
+            classCounts.put(iri("Dog"), (long) SIZE);
+
+            MaterializationEstimate counts = sail.estimateMaterialization(predicateCounts, classCounts);
+            MaterializationEstimate sample = sail.estimateMaterialization(data(), data().size());
+
+            assertEquals(sample.getStatements(), counts.getStatements());
+            assertEquals(sample.getInferredStatements(), counts.getInferredStatements());
+            assertEquals(-1, counts.getNewStatements());
+            assertEquals(perStatement(sample), perStatement(counts));
+
+            // Animal, LivingThing and rdfs:Resource for a dog
+            assertEquals(3.0, perStatement(counts).get("rdf:type " + iri("Dog")), 0);
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void sampleIsScaledUp() throws SailException {
+        FastRdfsForwardChainingSail sail = sail();
+        try {
+            MaterializationEstimate full = sail.estimateMaterialization(data(), data().size());
+            MaterializationEstimate half = sail.estimateMaterialization(data().subList(0, data().size() / 2), data().size());
+
+            assertEquals(full.getStatements(), half.getStatements());
+            assertEquals(full.getInferredStatements(), half.getInferredStatements());
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    private static Map<String, Double> perStatement(MaterializationEstimate estimate) {
+        Map<String, Double> perStatement = new HashMap<>();
+        for (MaterializationEstimate.FanOut fanOut : estimate.getFanOuts()) {
+            perStatement.put((fanOut.isClass() ? "rdf:type " : "") + fanOut.getTerm(), fanOut.getPerStatement());
+        }
+        return perStatement;
+    }
+
+    private static FastRdfsForwardChainingSail sail() throws SailException {
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        sail.setJmxEnabled(false);
+        sail.initialize();
+        add(sail, Arrays.asList(
+            vf.createStatement(iri("Dog"), RDFS.SUBCLASSOF, iri("Animal")),
+            vf.createStatement(iri("Animal"), RDFS.SUBCLASSOF, iri("LivingThing")),
+            vf.createStatement(iri("hasPet"), RDFS.DOMAIN, iri("Person")),
+            vf.createStatement(iri("hasPet"), RDFS.RANGE, iri("Animal"))));
+        return sail;
+    }
+
+    /**
+     * Pets with one owner each, alternating so that half of the statements is a representative sample.
+     */
+    private static List<Statement> data() {
+        List<Statement> statements = new ArrayList<>();
+        for (int i = 0; i < SIZE; i++) {
+            statements.add(vf.createStatement(iri("pet" + i), RDF.TYPE, iri("Dog")));
+            statements.add(vf.createStatement(iri("person" + i), iri("hasPet"), iri("pet" + i)));
+        }
+        return statements;
+    }
+
+    private static long size(FastRdfsForwardChainingSail sail) throws SailException {
+        long size = 0;
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, null, null, true)) {
+            while (statements.hasNext()) {
+                statements.next();
+                size++;
+            }
+        } finally {
+            connection.close();
+        }
+        return size;
+    }
+
+    private static void add(FastRdfsForwardChainingSail sail, List<Statement> statements) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            connection.begin();
+            for (Statement statement : statements) {
+                connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+            }
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+}
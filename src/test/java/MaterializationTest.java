@@ -0,0 +1,487 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import info.aduna.iteration.CloseableIteration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.openrdf.IsolationLevel;
+import org.openrdf.IsolationLevels;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.sail.SailConflictException;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the same changes against each way the sail can be configured and compares what it ends up storing with a fresh
+ * sail that infers everything from the same explicit statements in one go. None of the explicit statements the tests
+ * write can also be inferred, since Sesame doesn't keep an explicit statement that an isolated transaction removes and
+ * infers again.
+ */
+@RunWith(Parameterized.class)
+public class MaterializationTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+
+    private static final IRI graph1 = iri("graph1");
+
+    // the patterns the schema index answers
+    private static final IRI[] SCHEMA_PREDICATES = {RDFS.SUBCLASSOF, RDFS.SUBPROPERTYOF, RDFS.DOMAIN, RDFS.RANGE};
+    private static final Resource[] SUBJECTS = {null, iri("Dog"), iri("Cat"), iri("hasPet"), iri("owns"), iri("nothing")};
+    private static final Value[] OBJECTS = {null, iri("Animal"), iri("Pet"), iri("Owner"), iri("Person")};
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> modes() {
+        return Arrays.asList(
+            mode(new Mode("none")),
+            mode(new Mode("read committed").isolation(IsolationLevels.READ_COMMITTED)),
+            mode(new Mode("snapshot read").isolation(IsolationLevels.SNAPSHOT_READ)),
+            mode(new Mode("snapshot").isolation(IsolationLevels.SNAPSHOT)),
+            mode(new Mode("sesame compliant").sesameCompliant()),
+            mode(new Mode("rdfs plus").ruleProfile(RuleProfile.RDFS_PLUS)),
+            mode(new Mode("rdfs plus, snapshot").ruleProfile(RuleProfile.RDFS_PLUS).isolation(IsolationLevels.SNAPSHOT)),
+            mode(new Mode("write buffer").writeBuffer(8)),
+            mode(new Mode("write buffer, read committed").writeBuffer(8).isolation(IsolationLevels.READ_COMMITTED)),
+            mode(new Mode("async").async()),
+            mode(new Mode("async, rdfs plus, snapshot read").async().ruleProfile(RuleProfile.RDFS_PLUS).isolation(IsolationLevels.SNAPSHOT_READ)),
+            mode(new Mode("async, write buffer").async().writeBuffer(8))
+        );
+    }
+
+    private static Object[] mode(Mode mode) {
+        return new Object[]{mode};
+    }
+
+    private final Mode mode;
+
+    // the explicit statements the sail should hold, by format(statement)
+    private final Map<String, Statement> explicit = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public MaterializationTest(Mode mode) {
+        this.mode = mode;
+    }
+
+    @Test(timeout = 60_000)
+    public void retraction() throws Exception {
+        FastRdfsForwardChainingSail sail = mode.sail();
+        try {
+            write(sail, schema(), Collections.emptyList());
+            write(sail, data("a", 12), Collections.emptyList());
+            compare(sail, "added");
+
+            write(sail, Collections.emptyList(), Arrays.asList(
+                statement("a-pet3", RDF.TYPE, iri("Dog")),
+                statement("a-person5", iri("hasPet"), iri("a-pet5")),
+                statement("a-pet6", iri("partOf"), iri("a-pet7")),
+                vf.createStatement(iri("a-pet2"), RDF.TYPE, iri("Cat"), graph1)));
+            compare(sail, "removed data");
+
+            write(sail, data("b", 4), Collections.singletonList(statement("Dog", RDFS.SUBCLASSOF, iri("Animal"))));
+            compare(sail, "removed schema");
+
+            write(sail, Collections.singletonList(statement("Dog", RDFS.SUBCLASSOF, iri("Animal"))), data("b", 4));
+            compare(sail, "restored schema");
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void concurrentWriters() throws Exception {
+        FastRdfsForwardChainingSail sail = mode.sail();
+        try {
+            write(sail, schema(), Collections.emptyList());
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> writers = new ArrayList<>();
+                for (int thread = 0; thread < 4; thread++) {
+                    String prefix = "t" + thread;
+                    Random random = new Random(thread);
+                    writers.add(executor.submit(() -> {
+                        List<Statement> candidates = data(prefix, 6);
+                        for (int i = 0; i < 25; i++) {
+                            List<Statement> added = new ArrayList<>();
+                            List<Statement> removed = new ArrayList<>();
+                            for (int j = 1 + random.nextInt(3); j > 0; j--) {
+                                Statement statement = candidates.get(random.nextInt(candidates.size()));
+                                boolean present = explicit.containsKey(format(statement));
+                                if (!added.contains(statement) && !removed.contains(statement)) {
+                                    (present ? removed : added).add(statement);
+                                }
+                            }
+                            try {
+                                write(sail, added, removed);
+                            } catch (SailConflictException e) {
+                                // a snapshot transaction that lost the race, the next one reads the new state
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> writer : writers) {
+                    writer.get();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            compare(sail, "concurrent writers");
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void snapshotStaysTheSame() throws Exception {
+        FastRdfsForwardChainingSail sail = mode.sail();
+        try {
+            write(sail, schema(), Collections.emptyList());
+            write(sail, data("a", 5), Collections.emptyList());
+            sail.awaitInferred();
+            Set<String> before = statements(sail, null, null, null, true);
+
+            FastRdfsForwardChainingSailConnetion reader = sail.getConnection();
+            try {
+                reader.begin(IsolationLevels.SNAPSHOT);
+                assertEquals(before, statements(reader, null, null, null, true));
+
+                // removals and transitive properties would wait for the reader to end
+                List<Statement> added = new ArrayList<>();
+                for (Statement statement : data("b", 5)) {
+                    if (!statement.getPredicate().equals(iri("partOf"))) {
+                        added.add(statement);
+                    }
+                }
+                write(sail, added, Collections.emptyList());
+                sail.awaitInferred();
+
+                assertEquals(before, statements(reader, null, null, null, true));
+                reader.commit();
+            } finally {
+                reader.close();
+            }
+
+            compare(sail, "after the snapshot");
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void schemaIndex() throws Exception {
+        FastRdfsForwardChainingSail sail = mode.sail();
+        try {
+            write(sail, schema(), Collections.emptyList());
+            write(sail, data("a", 4), Collections.emptyList());
+            compare(sail, "added");
+
+            write(sail, Arrays.asList(
+                statement("Cat", RDFS.SUBCLASSOF, iri("Pet")),
+                vf.createStatement(iri("Dog"), RDFS.SUBCLASSOF, iri("Pet"), graph1),
+                vf.createStatement(iri("hasPet"), RDFS.DOMAIN, iri("Owner"), graph1),
+                statement("owns", RDFS.RANGE, iri("Property"))), Collections.emptyList(),
+                connection -> compareWithScan(connection, "schema added, in the transaction"));
+            compare(sail, "schema added");
+
+            write(sail, Collections.emptyList(), Arrays.asList(
+                statement("Animal", RDFS.SUBCLASSOF, iri("LivingThing")),
+                vf.createStatement(iri("hasPet"), RDFS.DOMAIN, iri("Owner"), graph1)),
+                connection -> compareWithScan(connection, "schema removed, in the transaction"));
+            compare(sail, "schema removed");
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    /**
+     * Compares every statement, and the schema predicates the schema index answers, with a fresh materialization of
+     * the explicit statements.
+     */
+    private void compare(FastRdfsForwardChainingSail sail, String step) throws Exception {
+        sail.awaitInferred();
+
+        List<Statement> schema = new ArrayList<>();
+        List<Statement> data = new ArrayList<>();
+        for (Statement statement : explicit.values()) {
+            (SchemaStatements.isSchemaStatement(statement.getPredicate(), statement.getObject()) ? schema : data).add(statement);
+        }
+
+        FastRdfsForwardChainingSail reference = new FastRdfsForwardChainingSail(new MemoryStore(), mode.sesameCompliant);
+        reference.setJmxEnabled(false);
+        reference.setRuleProfile(mode.ruleProfile);
+        reference.initialize();
+        try {
+            FastRdfsForwardChainingSailConnetion connection = reference.getConnection();
+            try {
+                connection.begin();
+                add(connection, schema);
+                connection.commit();
+
+                connection.begin();
+                add(connection, data);
+                connection.commit();
+            } finally {
+                connection.close();
+            }
+
+            assertEquals(step + ", explicit", statements(reference, null, null, null, false), statements(sail, null, null, null, false));
+            assertEquals(step, statements(reference, null, null, null, true), statements(sail, null, null, null, true));
+
+            for (IRI predicate : SCHEMA_PREDICATES) {
+                for (Resource subject : SUBJECTS) {
+                    for (Value object : OBJECTS) {
+                        String pattern = step + ": " + subject + " " + predicate + " " + object;
+                        assertEquals(pattern, statements(reference, subject, predicate, object, true), statements(sail, subject, predicate, object, true));
+                    }
+                }
+            }
+        } finally {
+            reference.shutDown();
+        }
+    }
+
+    /**
+     * Compares the schema predicates, which the schema index answers, with a scan of everything the connection sees.
+     */
+    private static void compareWithScan(FastRdfsForwardChainingSailConnetion connection, String step) throws SailException {
+        List<Statement> all = new ArrayList<>();
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, null, null, true)) {
+            while (statements.hasNext()) {
+                all.add(statements.next());
+            }
+        }
+
+        for (IRI predicate : SCHEMA_PREDICATES) {
+            for (Resource subject : SUBJECTS) {
+                for (Value object : OBJECTS) {
+                    Set<String> expected = new TreeSet<>();
+                    for (Statement statement : all) {
+                        if ((subject == null || subject.equals(statement.getSubject())) && predicate.equals(statement.getPredicate())
+                            && (object == null || object.equals(statement.getObject()))) {
+                            expected.add(format(statement));
+                        }
+                    }
+                    assertEquals(step + ": " + subject + " " + predicate + " " + object, expected, statements(connection, subject, predicate, object, true));
+                }
+            }
+        }
+    }
+
+    private void write(FastRdfsForwardChainingSail sail, List<Statement> added, List<Statement> removed) throws SailException {
+        write(sail, added, removed, connection -> {
+        });
+    }
+
+    /**
+     * @param beforeCommit checks what the connection sees before it commits
+     */
+    private void write(FastRdfsForwardChainingSail sail, List<Statement> added, List<Statement> removed, ConnectionCheck beforeCommit) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            connection.begin(mode.isolationLevel);
+            for (Statement statement : removed) {
+                connection.removeStatements(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+            }
+            add(connection, added);
+            beforeCommit.check(connection);
+            connection.commit();
+
+            for (Statement statement : removed) {
+                explicit.remove(format(statement));
+            }
+            for (Statement statement : added) {
+                explicit.put(format(statement), statement);
+            }
+        } finally {
+            if (connection.isActive()) {
+                connection.rollback();
+            }
+            connection.close();
+        }
+    }
+
+    private static void add(FastRdfsForwardChainingSailConnetion connection, List<Statement> statements) throws SailException {
+        for (Statement statement : statements) {
+            if (statement.getContext() == null) {
+                connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+            } else {
+                connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+            }
+        }
+    }
+
+    private static Set<String> statements(FastRdfsForwardChainingSail sail, Resource subject, IRI predicate, Value object, boolean includeInferred) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            return statements(connection, subject, predicate, object, includeInferred);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static Set<String> statements(FastRdfsForwardChainingSailConnetion connection, Resource subject, IRI predicate, Value object, boolean includeInferred) throws SailException {
+        Set<String> formatted = new TreeSet<>();
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(subject, predicate, object, includeInferred)) {
+            while (statements.hasNext()) {
+                formatted.add(format(statements.next()));
+            }
+        }
+        return formatted;
+    }
+
+    private static List<Statement> schema() {
+        return Arrays.asList(
+            statement("Dog", RDFS.SUBCLASSOF, iri("Animal")),
+            statement("Cat", RDFS.SUBCLASSOF, iri("Animal")),
+            statement("Animal", RDFS.SUBCLASSOF, iri("LivingThing")),
+            statement("hasPet", RDFS.SUBPROPERTYOF, iri("owns")),
+            statement("owns", RDFS.DOMAIN, iri("Person")),
+            statement("owns", RDFS.RANGE, iri("Animal")),
+            statement("ownedBy", OWL.INVERSEOF, iri("owns")),
+            statement("partOf", RDF.TYPE, OWL.TRANSITIVEPROPERTY));
+    }
+
+    /**
+     * Pets with their owners, and a chain of rdfs:partOf edges between the pets. Only leaf classes and properties are
+     * asserted, and the chain has no shortcuts, so none of these are inferred from the others.
+     */
+    private static List<Statement> data(String prefix, int size) {
+        List<Statement> statements = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            IRI pet = iri(prefix + "-pet" + i);
+            statements.add(vf.createStatement(pet, RDF.TYPE, iri(i % 2 == 0 ? "Dog" : "Cat")));
+            statements.add(vf.createStatement(iri(prefix + "-person" + i), iri("hasPet"), pet));
+            statements.add(vf.createStatement(pet, RDFS.LABEL, vf.createLiteral(prefix + " pet " + i)));
+            if (i + 1 < size) {
+                statements.add(vf.createStatement(pet, iri("partOf"), iri(prefix + "-pet" + (i + 1))));
+            }
+            if (i % 3 == 2) {
+                statements.add(vf.createStatement(pet, RDF.TYPE, iri("Cat"), graph1));
+            }
+        }
+        return statements;
+    }
+
+    private static Statement statement(String subject, IRI predicate, Value object) {
+        return vf.createStatement(iri(subject), predicate, object);
+    }
+
+    private static String format(Statement statement) {
+        return statement.getSubject() + " " + statement.getPredicate() + " " + statement.getObject() + " " + statement.getContext();
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+    private interface ConnectionCheck {
+
+        void check(FastRdfsForwardChainingSailConnetion connection) throws SailException;
+
+    }
+
+    static final class Mode {
+
+        final String name;
+        IsolationLevel isolationLevel = IsolationLevels.NONE;
+        boolean sesameCompliant = false;
+        RuleProfile ruleProfile = RuleProfile.RDFS;
+        int writeBufferSize = 0;
+        boolean asyncInference = false;
+
+        Mode(String name) {
+            this.name = name;
+        }
+
+        Mode isolation(IsolationLevel isolationLevel) {
+            this.isolationLevel = isolationLevel;
+            return this;
+        }
+
+        Mode sesameCompliant() {
+            sesameCompliant = true;
+            ruleProfile = RuleProfile.SESAME;
+            return this;
+        }
+
+        Mode ruleProfile(RuleProfile ruleProfile) {
+            this.ruleProfile = ruleProfile;
+            return this;
+        }
+
+        // small enough that the data spills to disk
+        Mode writeBuffer(int writeBufferSize) {
+            this.writeBufferSize = writeBufferSize;
+            return this;
+        }
+
+        Mode async() {
+            asyncInference = true;
+            return this;
+        }
+
+        FastRdfsForwardChainingSail sail() throws SailException {
+            FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), sesameCompliant);
+            sail.setJmxEnabled(false);
+            sail.setRuleProfile(ruleProfile);
+            sail.setWriteBufferSize(writeBufferSize);
+            if (asyncInference) {
+                sail.setAsyncInference(true);
+                sail.setAsyncInferenceBatchSize(5);
+                sail.setAsyncInferenceQueueSize(20);
+            }
+            sail.initialize();
+            return sail;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.junit.Test;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which statements each rule profile stores, on data that every rule applies to.
+ */
+public class RuleProfileTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+
+    private static final IRI MEMBER_1 = vf.createIRI(RDF.NAMESPACE, "_1");
+
+    @Test
+    public void minimal() throws SailException {
+        FastRdfsForwardChainingSail sail = sail(RuleProfile.MINIMAL);
+        try {
+            assertTrue(hasStatement(sail, iri("pet1"), RDF.TYPE, iri("Animal")));
+            assertTrue(hasStatement(sail, iri("person1"), RDF.TYPE, iri("Person")));
+            assertTrue(hasStatement(sail, iri("pet1"), RDF.TYPE, iri("Pet")));
+
+            // rdfs4a/rdfs4b, rdfs8 and rdfs12
+            assertFalse(hasStatement(sail, iri("pet1"), RDF.TYPE, RDFS.RESOURCE));
+            assertFalse(hasStatement(sail, iri("person1"), RDF.TYPE, RDFS.RESOURCE));
+            assertFalse(hasStatement(sail, iri("poodle"), RDFS.SUBCLASSOF, RDFS.RESOURCE));
+            assertFalse(hasStatement(sail, MEMBER_1, RDFS.SUBPROPERTYOF, RDFS.MEMBER));
+
+            assertFalse(hasStatement(sail, iri("pet1"), iri("ownedBy"), iri("person1")));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void sesame() throws SailException {
+        // the data triggers the rules MINIMAL leaves out
+        FastRdfsForwardChainingSail sail = sail(RuleProfile.SESAME);
+        try {
+            assertTrue(hasStatement(sail, iri("pet1"), RDF.TYPE, RDFS.RESOURCE));
+            assertTrue(hasStatement(sail, iri("person1"), RDF.TYPE, RDFS.RESOURCE));
+            assertTrue(hasStatement(sail, iri("poodle"), RDFS.SUBCLASSOF, RDFS.RESOURCE));
+            assertTrue(hasStatement(sail, MEMBER_1, RDFS.SUBPROPERTYOF, RDFS.MEMBER));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void rdfsPlus() throws SailException {
+        FastRdfsForwardChainingSail sail = sail(RuleProfile.RDFS_PLUS);
+        try {
+            assertTrue(hasStatement(sail, iri("pet1"), RDF.TYPE, iri("Animal")));
+            assertTrue(hasStatement(sail, iri("pet1"), iri("ownedBy"), iri("person1")));
+            assertTrue(hasStatement(sail, iri("pet1"), iri("partOf"), iri("pack")));
+        } finally {
+            sail.shutDown();
+        }
+
+        sail = sail(RuleProfile.RDFS);
+        try {
+            assertFalse(hasStatement(sail, iri("pet1"), iri("ownedBy"), iri("person1")));
+            assertFalse(hasStatement(sail, iri("pet1"), iri("partOf"), iri("pack")));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test
+    public void custom() throws SailException {
+        FastRdfsForwardChainingSail sail = sail(RuleProfile.of(InferenceRule.SUB_CLASS_OF));
+        try {
+            assertTrue(hasStatement(sail, iri("pet1"), RDF.TYPE, iri("Animal")));
+            assertFalse(hasStatement(sail, iri("person1"), RDF.TYPE, iri("Person")));
+            assertFalse(hasStatement(sail, iri("pet1"), RDF.TYPE, iri("Pet")));
+            assertFalse(hasStatement(sail, iri("pet1"), RDF.TYPE, RDFS.RESOURCE));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    private static FastRdfsForwardChainingSail sail(RuleProfile profile) throws SailException {
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        sail.setJmxEnabled(false);
+        sail.setRuleProfile(profile);
+        sail.initialize();
+
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            connection.begin();
+            for (Statement statement : statements()) {
+                connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+            }
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+        return sail;
+    }
+
+    private static List<Statement> statements() {
+        return Arrays.asList(
+            statement(iri("Breed"), RDFS.SUBCLASSOF, RDFS.CLASS),
+            statement(iri("poodle"), RDF.TYPE, iri("Breed")),
+            statement(iri("Dog"), RDFS.SUBCLASSOF, iri("Animal")),
+            statement(iri("hasPet"), RDFS.DOMAIN, iri("Person")),
+            statement(iri("hasPet"), RDFS.RANGE, iri("Pet")),
+            statement(iri("ownedBy"), OWL.INVERSEOF, iri("hasPet")),
+            statement(iri("partOf"), RDF.TYPE, OWL.TRANSITIVEPROPERTY),
+            statement(iri("pet1"), RDF.TYPE, iri("Dog")),
+            statement(iri("person1"), iri("hasPet"), iri("pet1")),
+            statement(iri("pet1"), iri("partOf"), iri("litter")),
+            statement(iri("litter"), iri("partOf"), iri("pack")),
+            statement(iri("pets"), MEMBER_1, iri("pet1")));
+    }
+
+    private static boolean hasStatement(FastRdfsForwardChainingSail sail, Resource subject, IRI predicate, Value object) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            return connection.hasStatement(subject, predicate, object, true);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static Statement statement(Resource subject, IRI predicate, Value object) {
+        return vf.createStatement(subject, predicate, object);
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import info.aduna.iteration.CloseableIteration;
+import org.junit.Test;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.sail.SailConnection;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Compares what the schema index answers with a full scan of the same connection, which the index doesn't serve.
+ */
+public class SchemaIndexTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+    private static final IRI[] SCHEMA_PREDICATES = {RDFS.SUBCLASSOF, RDFS.SUBPROPERTYOF, RDFS.DOMAIN, RDFS.RANGE};
+
+    private static final IRI graph1 = iri("graph1");
+    private static final IRI graph2 = iri("graph2");
+
+    @Test
+    public void namedGraphsSesameCompliant() throws SailException {
+        namedGraphs(true);
+    }
+
+    @Test
+    public void namedGraphs() throws SailException {
+        namedGraphs(false);
+    }
+
+    private void namedGraphs(boolean sesameCompliant) throws SailException {
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), sesameCompliant);
+        sail.setJmxEnabled(false);
+        sail.initialize();
+        try {
+            FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+            try {
+                connection.begin();
+                connection.addStatement(iri("Dog"), RDFS.SUBCLASSOF, iri("Animal"));
+                connection.addStatement(iri("hasPet"), RDFS.SUBPROPERTYOF, iri("owns"));
+                connection.addStatement(iri("owns"), RDFS.DOMAIN, iri("Person"));
+                connection.addStatement(iri("owns"), RDFS.RANGE, iri("Animal"));
+                connection.commit();
+
+                connection.begin();
+                connection.addStatement(iri("rex"), RDF.TYPE, iri("Dog"));
+                connection.addStatement(iri("alice"), iri("hasPet"), iri("rex"));
+                connection.commit();
+            } finally {
+                connection.close();
+            }
+            compare(sail, "initial");
+
+            connection = sail.getConnection();
+            try {
+                connection.begin();
+                connection.addStatement(iri("owns"), RDFS.DOMAIN, iri("Owner"), graph1);
+                connection.addStatement(iri("hasPet"), RDFS.RANGE, iri("Pet"), graph1);
+                connection.addStatement(iri("Cat"), RDFS.SUBCLASSOF, iri("Animal"), graph1);
+                compare(connection, "named graph add, in the transaction");
+                connection.commit();
+            } finally {
+                connection.close();
+            }
+            assertFalse(sail.schemaIndexIncomplete);
+            compare(sail, "named graph add");
+
+            connection = sail.getConnection();
+            try {
+                connection.begin();
+                connection.addStatement(iri("owns"), RDFS.DOMAIN, iri("Agent"), graph2);
+                connection.addStatement(iri("Dog"), RDFS.SUBCLASSOF, iri("Pet"), graph2);
+                connection.rollback();
+            } finally {
+                connection.close();
+            }
+            compare(sail, "rollback");
+
+            connection = sail.getConnection();
+            try {
+                connection.begin();
+                connection.clear(graph1);
+                compare(connection, "clear, in the transaction");
+                connection.commit();
+            } finally {
+                connection.close();
+            }
+            compare(sail, "clear");
+
+            connection = sail.getConnection();
+            try {
+                connection.begin();
+                connection.addStatement(iri("owns"), RDFS.RANGE, iri("Thing"), graph2);
+                connection.commit();
+
+                connection.begin();
+                connection.clearInferred();
+                connection.commit();
+            } finally {
+                connection.close();
+            }
+            compare(sail, "clearInferred");
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    private static void compare(FastRdfsForwardChainingSail sail, String step) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            compare(connection, step);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void compare(SailConnection connection, String step) throws SailException {
+        List<Statement> all = new ArrayList<>();
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(null, null, null, true)) {
+            while (statements.hasNext()) {
+                all.add(statements.next());
+            }
+        }
+
+        Set<Value> terms = new LinkedHashSet<>();
+        terms.add(null);
+        for (Statement statement : all) {
+            terms.add(statement.getSubject());
+            terms.add(statement.getObject());
+        }
+        terms.add(iri("nothing"));
+
+        Resource[][] contextPatterns = {{}, {null}, {graph1}, {graph2}, {null, graph1}};
+
+        for (IRI predicate : SCHEMA_PREDICATES) {
+            for (Value subject : terms) {
+                if (subject != null && !(subject instanceof Resource)) {
+                    continue;
+                }
+                for (Value object : terms) {
+                    for (Resource[] contexts : contextPatterns) {
+                        List<String> expected = format(all.stream()
+                            .filter(statement -> matches(statement, (Resource) subject, predicate, object, contexts))
+                            .collect(Collectors.toList()));
+                        List<String> actual = new ArrayList<>();
+                        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements((Resource) subject, predicate, object, true, contexts)) {
+                            while (statements.hasNext()) {
+                                actual.add(format(statements.next()));
+                            }
+                        }
+                        Collections.sort(actual);
+
+                        String pattern = step + ": " + subject + " " + predicate + " " + object + " " + Arrays.toString(contexts);
+                        assertEquals(pattern, expected, actual);
+                        assertEquals(pattern, !expected.isEmpty(), connection.hasStatement((Resource) subject, predicate, object, true, contexts));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean matches(Statement statement, Resource subject, IRI predicate, Value object, Resource[] contexts) {
+        if (subject != null && !subject.equals(statement.getSubject()) || !predicate.equals(statement.getPredicate())
+            || object != null && !object.equals(statement.getObject())) {
+            return false;
+        }
+        if (contexts.length == 0) {
+            return true;
+        }
+        for (Resource context : contexts) {
+            if (context == null ? statement.getContext() == null : context.equals(statement.getContext())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> format(List<Statement> statements) {
+        return statements.stream().map(SchemaIndexTest::format).sorted().collect(Collectors.toList());
+    }
+
+    private static String format(Statement statement) {
+        return statement.getSubject() + " " + statement.getPredicate() + " " + statement.getObject() + " " + statement.getContext();
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+}
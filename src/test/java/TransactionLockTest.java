@@ -0,0 +1,179 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import org.junit.Test;
+import org.openrdf.IsolationLevels;
+import org.openrdf.model.IRI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.sail.SailConflictException;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Transactions that only read don't hold back removals and schema changes, and a thread that would wait for its own
+ * transaction on another connection fails instead of hanging.
+ */
+public class TransactionLockTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+
+    @Test(timeout = 10_000)
+    public void readersDontHoldBackRemovals() throws SailException {
+        FastRdfsForwardChainingSail sail = sail();
+        try {
+            FastRdfsForwardChainingSailConnetion reader = sail.getConnection();
+            FastRdfsForwardChainingSailConnetion snapshotReader = sail.getConnection();
+            try {
+                reader.begin();
+                assertTrue(reader.hasStatement(iri("pet"), RDF.TYPE, iri("Animal"), true));
+                snapshotReader.begin(IsolationLevels.SNAPSHOT);
+                assertTrue(snapshotReader.hasStatement(iri("pet"), RDF.TYPE, iri("Animal"), true));
+
+                // on the same thread, which would wait forever if the readers held a share of the lock
+                remove(sail, iri("Dog"), RDFS.SUBCLASSOF, iri("Animal"));
+
+                assertFalse(reader.hasStatement(iri("pet"), RDF.TYPE, iri("Animal"), true));
+                assertTrue(snapshotReader.hasStatement(iri("pet"), RDF.TYPE, iri("Animal"), true));
+                reader.commit();
+                snapshotReader.commit();
+            } finally {
+                reader.close();
+                snapshotReader.close();
+            }
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void waitingForOwnTransactionFails() throws SailException {
+        FastRdfsForwardChainingSail sail = sail();
+        try {
+            FastRdfsForwardChainingSailConnetion writer = sail.getConnection();
+            try {
+                writer.begin(IsolationLevels.READ_COMMITTED);
+                writer.addStatement(iri("cat"), RDF.TYPE, iri("Animal"));
+
+                try {
+                    remove(sail, iri("Dog"), RDFS.SUBCLASSOF, iri("Animal"));
+                    fail("removing on the same thread waits for the open transaction");
+                } catch (SailException e) {
+                    assertFalse(e instanceof SailConflictException);
+                }
+
+                writer.commit();
+            } finally {
+                writer.close();
+            }
+
+            // the failed transaction let go of its locks
+            remove(sail, iri("Dog"), RDFS.SUBCLASSOF, iri("Animal"));
+            assertFalse(hasStatement(sail, iri("pet"), RDF.TYPE, iri("Animal")));
+            assertTrue(hasStatement(sail, iri("cat"), RDF.TYPE, iri("Animal")));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void snapshotWriterAfterSchemaChangeConflicts() throws SailException {
+        FastRdfsForwardChainingSail sail = sail();
+        try {
+            FastRdfsForwardChainingSailConnetion writer = sail.getConnection();
+            try {
+                writer.begin(IsolationLevels.SNAPSHOT);
+                assertTrue(writer.hasStatement(iri("pet"), RDF.TYPE, iri("Dog"), true));
+
+                add(sail, iri("Animal"), RDFS.SUBCLASSOF, iri("LivingThing"));
+
+                try {
+                    writer.addStatement(iri("cat"), RDF.TYPE, iri("Dog"));
+                    fail("the schema changed since the snapshot began");
+                } catch (SailConflictException e) {
+                    writer.rollback();
+                }
+            } finally {
+                writer.close();
+            }
+
+            add(sail, iri("cat"), RDF.TYPE, iri("Dog"));
+            assertTrue(hasStatement(sail, iri("cat"), RDF.TYPE, iri("LivingThing")));
+        } finally {
+            sail.shutDown();
+        }
+    }
+
+    private static FastRdfsForwardChainingSail sail() throws SailException {
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), false);
+        sail.setJmxEnabled(false);
+        sail.initialize();
+        add(sail, iri("Dog"), RDFS.SUBCLASSOF, iri("Animal"));
+        add(sail, iri("pet"), RDF.TYPE, iri("Dog"));
+        return sail;
+    }
+
+    private static void add(FastRdfsForwardChainingSail sail, IRI subject, IRI predicate, IRI object) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            connection.begin();
+            connection.addStatement(subject, predicate, object);
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void remove(FastRdfsForwardChainingSail sail, IRI subject, IRI predicate, IRI object) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            connection.begin();
+            connection.removeStatements(subject, predicate, object);
+            connection.commit();
+        } finally {
+            if (connection.isActive()) {
+                connection.rollback();
+            }
+            connection.close();
+        }
+    }
+
+    private static boolean hasStatement(FastRdfsForwardChainingSail sail, IRI subject, IRI predicate, IRI object) throws SailException {
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            return connection.hasStatement(subject, predicate, object, true);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+}
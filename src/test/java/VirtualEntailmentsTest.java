@@ -0,0 +1,235 @@
+/*
+    FastRdfsForwardChainingSail - A fast RDFS inferencing SAIL for RDF4J / Sesame
+
+    Copyright (C) 2016  Håvard Mikkelsen Ottestad
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Affero General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Affero General Public License for more details.
+
+    You should have received a copy of the GNU Affero General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+ */
+
+
+import info.aduna.iteration.CloseableIteration;
+import org.junit.Test;
+import org.openrdf.model.IRI;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Statement;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.SimpleValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.sail.SailRepository;
+import org.openrdf.sail.SailException;
+import org.openrdf.sail.memory.MemoryStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares a sail that keeps the trivial entailments and the schema hierarchy virtual with one that stores them, through
+ * getStatements, hasStatement and SPARQL queries, which the virtual sail evaluates itself.
+ */
+public class VirtualEntailmentsTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://example.org/";
+
+    private static final IRI graph1 = iri("graph1");
+
+    private static final Resource[] SUBJECTS = {null, iri("pet1"), iri("person2"), iri("Dog"), iri("hasPet"), RDF.LI, vf.createIRI(RDF.NAMESPACE, "_1"), iri("nothing")};
+    private static final IRI[] PREDICATES = {null, RDF.TYPE, RDFS.SUBCLASSOF, RDFS.SUBPROPERTYOF};
+    private static final Value[] OBJECTS = {null, RDFS.RESOURCE, iri("Animal"), iri("Dog"), iri("owns")};
+
+    private static final String[] QUERIES = {
+        "SELECT * WHERE { ?s ?p ?o }",
+        "SELECT ?s WHERE { ?s a rdfs:Resource }",
+        "SELECT ?g ?s WHERE { GRAPH ?g { ?s a rdfs:Resource } }",
+        "SELECT ?class ?super WHERE { ?class rdfs:subClassOf ?super }",
+        "SELECT ?pet ?type WHERE { ?person ex:hasPet ?pet . ?pet a ?type . ?type rdfs:subClassOf ex:Animal }",
+        "SELECT (COUNT(*) AS ?count) WHERE { ?s a ?type }",
+        "ASK { ex:Dog rdfs:subClassOf ex:Dog }"
+    };
+
+    @Test
+    public void defaultContext() throws Exception {
+        // sesameCompliant infers rdf:type rdfs:Resource for every resource
+        compare(true, sail -> {
+        });
+    }
+
+    @Test
+    public void inferenceGraphSuffix() throws Exception {
+        compare(true, sail -> sail.setInferenceGraphSuffix("#inferred"));
+    }
+
+    @Test
+    public void spilledResourceTypes() throws Exception {
+        // small enough that the unbound rdf:type rdfs:Resource statements are sorted on disk
+        compare(true, sail -> sail.setWriteBufferSize(3));
+    }
+
+    @Test
+    public void schemaHierarchyOnly() throws Exception {
+        compare(false, sail -> {
+        });
+    }
+
+    private void compare(boolean sesameCompliant, Consumer<FastRdfsForwardChainingSail> configure) throws Exception {
+        SailRepository stored = repository(sesameCompliant, configure, false);
+        SailRepository virtual = repository(sesameCompliant, configure, true);
+        try {
+            List<Resource[]> contexts = new ArrayList<>(Arrays.asList(new Resource[0], new Resource[]{null}, new Resource[]{graph1}));
+            Resource inferenceContext = ((FastRdfsForwardChainingSail) stored.getSail()).inferenceContext(graph1);
+            if (inferenceContext != null && !inferenceContext.equals(graph1)) {
+                contexts.add(new Resource[]{inferenceContext});
+            }
+
+            FastRdfsForwardChainingSailConnetion storedConnection = (FastRdfsForwardChainingSailConnetion) stored.getSail().getConnection();
+            FastRdfsForwardChainingSailConnetion virtualConnection = (FastRdfsForwardChainingSailConnetion) virtual.getSail().getConnection();
+            try {
+                for (Resource subject : SUBJECTS) {
+                    for (IRI predicate : PREDICATES) {
+                        for (Value object : OBJECTS) {
+                            for (Resource[] context : contexts) {
+                                String pattern = subject + " " + predicate + " " + object + " " + Arrays.toString(context);
+                                Set<String> expected = statements(storedConnection, subject, predicate, object, context);
+                                assertEquals(pattern, expected, statements(virtualConnection, subject, predicate, object, context));
+                                assertEquals(pattern, !expected.isEmpty(), virtualConnection.hasStatement(subject, predicate, object, true, context));
+                            }
+                        }
+                    }
+                }
+            } finally {
+                storedConnection.close();
+                virtualConnection.close();
+            }
+
+            for (String query : QUERIES) {
+                assertEquals(query, query(stored, query), query(virtual, query));
+            }
+        } finally {
+            stored.shutDown();
+            virtual.shutDown();
+        }
+    }
+
+    private static SailRepository repository(boolean sesameCompliant, Consumer<FastRdfsForwardChainingSail> configure, boolean virtual) throws Exception {
+        FastRdfsForwardChainingSail sail = new FastRdfsForwardChainingSail(new MemoryStore(), sesameCompliant);
+        sail.setJmxEnabled(false);
+        sail.setVirtualTrivialEntailments(virtual);
+        sail.setVirtualSchemaHierarchy(virtual);
+        configure.accept(sail);
+
+        SailRepository repository = new SailRepository(sail);
+        repository.initialize();
+
+        FastRdfsForwardChainingSailConnetion connection = sail.getConnection();
+        try {
+            connection.begin();
+            for (Statement statement : statements()) {
+                if (statement.getContext() == null) {
+                    connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject());
+                } else {
+                    connection.addStatement(statement.getSubject(), statement.getPredicate(), statement.getObject(), statement.getContext());
+                }
+            }
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+        return repository;
+    }
+
+    /**
+     * A small schema and data in two contexts, with a container membership property and statements that are also
+     * entailed, which the virtual sail mustn't return twice.
+     */
+    private static List<Statement> statements() {
+        List<Statement> statements = new ArrayList<>(Arrays.asList(
+            statement("Dog", RDFS.SUBCLASSOF, iri("Animal")),
+            statement("Animal", RDFS.SUBCLASSOF, iri("LivingThing")),
+            statement("hasPet", RDFS.SUBPROPERTYOF, iri("owns")),
+            statement("owns", RDFS.DOMAIN, iri("Person")),
+            statement("owns", RDFS.RANGE, iri("Animal")),
+            statement("Dog", RDFS.SUBCLASSOF, iri("Dog")),
+            statement("pet1", RDF.TYPE, RDFS.RESOURCE),
+            vf.createStatement(iri("pets"), vf.createIRI(RDF.NAMESPACE, "_1"), iri("pet1")),
+            vf.createStatement(vf.createBNode("owner"), iri("hasPet"), iri("pet3"), graph1)));
+
+        for (int i = 0; i < 6; i++) {
+            statements.add(vf.createStatement(iri("pet" + i), RDF.TYPE, iri("Dog"), i % 2 == 0 ? null : graph1));
+            statements.add(vf.createStatement(iri("person" + i), iri("hasPet"), iri("pet" + i)));
+            statements.add(vf.createStatement(iri("pet" + i), RDFS.LABEL, vf.createLiteral("pet " + i, i % 3 == 0 ? "en" : "nb")));
+        }
+        return statements;
+    }
+
+    private static Set<String> statements(FastRdfsForwardChainingSailConnetion connection, Resource subject, IRI predicate, Value object, Resource... contexts) throws SailException {
+        Set<String> formatted = new TreeSet<>();
+        try (CloseableIteration<? extends Statement, SailException> statements = connection.getStatements(subject, predicate, object, true, contexts)) {
+            while (statements.hasNext()) {
+                Statement statement = statements.next();
+                assertTrue("returned twice: " + statement, formatted.add(format(statement)));
+            }
+        }
+        return formatted;
+    }
+
+    private static List<String> query(SailRepository repository, String query) throws Exception {
+        String prefixes = "PREFIX rdfs: <" + RDFS.NAMESPACE + "> PREFIX ex: <" + NS + "> ";
+        RepositoryConnection connection = repository.getConnection();
+        try {
+            if (query.startsWith("ASK")) {
+                return Collections.singletonList(String.valueOf(connection.prepareBooleanQuery(QueryLanguage.SPARQL, prefixes + query).evaluate()));
+            }
+
+            List<String> results = new ArrayList<>();
+            try (TupleQueryResult result = connection.prepareTupleQuery(QueryLanguage.SPARQL, prefixes + query).evaluate()) {
+                while (result.hasNext()) {
+                    BindingSet bindings = result.next();
+                    results.add(new TreeSet<>(bindings.getBindingNames()).stream().map(name -> name + "=" + bindings.getValue(name)).reduce("", String::concat));
+                }
+            }
+            Collections.sort(results);
+            return results;
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static Statement statement(String subject, IRI predicate, Value object) {
+        return vf.createStatement(iri(subject), predicate, object);
+    }
+
+    private static String format(Statement statement) {
+        return statement.getSubject() + " " + statement.getPredicate() + " " + statement.getObject() + " " + statement.getContext();
+    }
+
+    private static IRI iri(String localName) {
+        return vf.createIRI(NS, localName);
+    }
+
+}